@@ -0,0 +1,166 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+// Answers validated per second by AnswerValidator for different numbers of worker threads. Players
+// are in-process connections without sockets, four to a room, so every room starts its game at
+// once. Producer threads stand in for connection threads and submit each player's answers in order:
+// one wrong and one right answer per question. A run ends when every answer has been checked and
+// its room updated.
+//   spread:   players spread over many rooms, which spread over the workers
+//   hot room: one room with one producer per player; all its answers go to one worker
+// Usage: AnswerBenchmark [players] [producers] [questionsPerPlayer]
+class AnswerBenchmark {
+    private static final int[] WORKER_COUNTS = {1, 2, 4};
+
+    public static void main(String[] args) throws InterruptedException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int questions = args.length > 2 ? Integer.parseInt(args[2]) : 250;
+        int hotRoomQuestions = questions * Math.max(1, players / 4); // Same number of answers as a spread run
+        System.setProperty("server.questionCount", Integer.toString(hotRoomQuestions)); // Read when QuestionSet loads
+        // Keeps benchmark players out of leaderboard.dat and journal/ in the working directory
+        System.setProperty("server.leaderboard.persist", "false");
+        System.setProperty("server.journal", "false");
+        // Every READY player joins a room at once; the rating queue would hold back players whose
+        // earlier rounds changed their rating
+        System.setProperty("server.matchmaking", "fifo");
+        ServerLog.setLevel(ServerLog.Level.WARN);
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("workers  scenario   Manswers/s  answers/batch");
+
+        for (int workers : WORKER_COUNTS) {
+            AnswerValidator validator = new AnswerValidator("bench-validator", workers);
+            for (int round = 0; round < 2; round++) { // First round is warm-up
+                boolean print = round == 1;
+                report(validator, workers, "spread", print, players / 4 * 4, producers, 2 * questions);
+                report(validator, workers, "hot room", print, 4, 4, 2 * hotRoomQuestions);
+            }
+        }
+    }
+
+    private static void report(AnswerValidator validator, int workers, String scenario, boolean print, int players,
+            int producers, int answersPerPlayer) throws InterruptedException {
+        long batchesBefore = ServerMetrics.answerBatches();
+        long answersBefore = ServerMetrics.answersValidated();
+        double perSecond = run(validator, players, producers, answersPerPlayer);
+        long batches = ServerMetrics.answerBatches() - batchesBefore;
+        long answers = ServerMetrics.answersValidated() - answersBefore;
+        if (print) {
+            System.out.printf("%7d  %-9s %11.2f  %13.1f%n", workers, scenario, perSecond / 1e6,
+                    batches > 0 ? (double) answers / batches : 0);
+        }
+    }
+
+    // Each player sends answersPerPlayer answers, half of them wrong; the game has questions enough
+    // for all of them to be checked against an open question
+    private static double run(AnswerValidator validator, int playerCount, int producerCount, int answersPerPlayer)
+            throws InterruptedException {
+        List<BenchmarkClient> clients = new ArrayList<>();
+        for (int i = 0; i < playerCount; i++) {
+            BenchmarkClient client = new BenchmarkClient();
+            NewServer.addConnection(client);
+            client.feed(("bench" + i + "\n").getBytes(StandardCharsets.UTF_8));
+            client.feed("CAPS:QUESTIONS\n".getBytes(StandardCharsets.UTF_8));
+            client.feed("READY\n".getBytes(StandardCharsets.UTF_8));
+            clients.add(client);
+        }
+        List<AnswerValidator.Match> matches = new ArrayList<>();
+        for (BenchmarkClient client : clients) {
+            AnswerValidator.Match match = client.getRoom().currentMatch();
+            if (match.questions.size() * 2 < answersPerPlayer) {
+                throw new IllegalStateException("Not enough questions; set a larger question count");
+            }
+            matches.add(match);
+        }
+
+        long total = (long) playerCount * (answersPerPlayer / 2 * 2);
+        long expected = ServerMetrics.answersValidated() + total;
+        Thread[] threads = new Thread[producerCount];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producerCount; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                List<Integer> owned = new ArrayList<>();
+                for (int i = producer; i < playerCount; i += producerCount) {
+                    owned.add(i);
+                }
+                await(start);
+                for (int q = 0; q < answersPerPlayer / 2; q++) {
+                    for (int i : owned) {
+                        AnswerValidator.Match match = matches.get(i);
+                        int answer = match.questions.answer(q);
+                        validator.submit(match, clients.get(i), q, answer + 1);
+                        validator.submit(match, clients.get(i), q, answer);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        while (ServerMetrics.answersValidated() < expected) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        // Let the rooms end so the next run starts from an empty lobby
+        for (BenchmarkClient client : clients) {
+            client.handleDisconnect();
+        }
+        return total * 1e9 / elapsed;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // A connection without a socket: commands are fed in directly and outgoing messages are dropped
+    private static final class BenchmarkClient extends NewServer.ClientHandler {
+        private volatile boolean open = true;
+
+        void feed(byte[] line) {
+            onBytesReceived(line, 0, line.length);
+        }
+
+        @Override
+        protected boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        protected void write(OutboundMessage message) {
+            onWritten(message.bytes(false).length); // Counts as delivered right away
+        }
+
+        @Override
+        int outboundQueueDepth() {
+            return 0;
+        }
+
+        @Override
+        protected String describeConnection() {
+            return "benchmark";
+        }
+
+        @Override
+        protected void closeResources() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Checks ANSWER commands on a pool of worker threads. Every match belongs to one worker, chosen by
+// its room id, so a player's answers are checked in the order they were sent and the progress of
+// a match is only ever touched by one thread. A worker takes whatever answers have queued up (up
+// to MAX_BATCH), checks them all, then hands each room the new totals of its players in one call,
+// so a room's lock is taken once per batch instead of once per answer. More rooms spread over
+// more workers.
+//   -Dserver.answerWorkers=<n>   worker threads (default: number of processors)
+final class AnswerValidator {
+    static final int POINTS_PER_ANSWER = 10;
+    private static final int MAX_BATCH = 256;
+
+    private static volatile AnswerValidator shared;
+
+    // Questions and per-player progress of one game in one room
+    static final class Match {
+        final GameRoom room;
+        final QuestionSet questions;
+        private final int id;
+        private final Map<NewServer.ClientHandler, Progress> progress = new HashMap<>(); // Owning worker only
+
+        Match(GameRoom room, QuestionSet questions) {
+            this.room = room;
+            this.questions = questions;
+            this.id = room.getId();
+        }
+    }
+
+    private static final class Progress {
+        int next = 0; // First question not answered correctly yet; earlier ones cannot be answered again
+        int score = 0;
+    }
+
+    private static final class Answer {
+        final Match match;
+        final NewServer.ClientHandler client;
+        final int index;
+        final int value;
+
+        Answer(Match match, NewServer.ClientHandler client, int index, int value) {
+            this.match = match;
+            this.client = client;
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    // New totals of one match's players from one batch, applied to the room in one call
+    static final class Scores {
+        final List<NewServer.ClientHandler> players = new ArrayList<>();
+        final List<Integer> totals = new ArrayList<>();
+        NewServer.ClientHandler finisher; // First player to answer every question, if any
+    }
+
+    private final Worker[] workers;
+
+    AnswerValidator(String name, int workerCount) {
+        workers = new Worker[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            Thread thread = new Thread(workers[i], name + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // The server-wide pool, started on first use
+    static AnswerValidator shared() {
+        AnswerValidator validator = shared;
+        if (validator == null) {
+            synchronized (AnswerValidator.class) {
+                validator = shared;
+                if (validator == null) {
+                    int workers = Integer.getInteger("server.answerWorkers", Runtime.getRuntime().availableProcessors());
+                    validator = new AnswerValidator("answer-validator", workers);
+                    shared = validator;
+                }
+            }
+        }
+        return validator;
+    }
+
+    // Queues an answer for checking. Safe to call from any thread.
+    void submit(Match match, NewServer.ClientHandler client, int index, int value) {
+        workers[Math.floorMod(match.id, workers.length)].queue.add(new Answer(match, client, index, value));
+    }
+
+    private static final class Worker implements Runnable {
+        final BlockingQueue<Answer> queue = new LinkedBlockingQueue<>();
+
+        @Override
+        public void run() {
+            List<Answer> batch = new ArrayList<>(MAX_BATCH);
+            Map<Match, Scores> changed = new LinkedHashMap<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+                try {
+                    for (Answer answer : batch) {
+                        check(answer, changed);
+                    }
+                    for (Map.Entry<Match, Scores> entry : changed.entrySet()) {
+                        entry.getKey().room.applyValidatedScores(entry.getKey(), entry.getValue());
+                    }
+                    ServerMetrics.recordAnswerBatch(batch.size());
+                } catch (RuntimeException e) {
+                    // One bad batch must not stop the worker
+                    ServerLog.error("Answer batch failed", e);
+                }
+                batch.clear();
+                changed.clear();
+            }
+        }
+    }
+
+    private static void check(Answer answer, Map<Match, Scores> changed) {
+        Match match = answer.match;
+        Progress progress = match.progress.computeIfAbsent(answer.client, c -> new Progress());
+        // An answer to a question already solved, or past the end, is stale or invalid
+        boolean correct = answer.index >= progress.next && answer.index < match.questions.size()
+                && match.questions.isCorrect(answer.index, answer.value);
+        answer.client.sendMessage(OutboundMessage.answerResult(answer.index, correct));
+        if (!correct) {
+            return;
+        }
+        progress.score += POINTS_PER_ANSWER;
+        progress.next = answer.index + 1; // Questions the client skipped after a timeout stay unanswered
+
+        Scores scores = changed.computeIfAbsent(match, m -> new Scores());
+        int row = scores.players.indexOf(answer.client); // A handful of players per match
+        if (row < 0) {
+            scores.players.add(answer.client);
+            scores.totals.add(progress.score);
+        } else {
+            scores.totals.set(row, progress.score);
+        }
+        if (progress.next == match.questions.size() && scores.finisher == null) {
+            scores.finisher = answer.client;
+        }
+    }
+}
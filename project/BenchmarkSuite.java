@@ -0,0 +1,227 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Time and bytes allocated per operation for the protocol and lobby hot paths, at player counts
+// from 4 to 100k, compared against a recorded baseline so a performance change shows up as a
+// difference in one run:
+//   formatScores       GameRoom's name:score,... text of a scoreboard (SCORES, GAME_ENDED)
+//   winnerInfo         finding the winners and writing the GAME_ENDED text, without journal and leaderboard
+//   fanOut             one roster move sent to every player (sendMessage, budget, encode once, write)
+//   lineParsing        one command line split and dispatched by ClientHandler (not player dependent)
+//   clientParseScores  Client's split-based parsing of a SCORES list
+// Each row is the best of a few timed runs after a warm-up, on one thread; bytes/op comes from the
+// thread's allocation counter. Baseline lines are "<case> <players> <ns/op> <bytes/op>"; numbers only
+// compare across runs on the same machine and JVM.
+// Usage: BenchmarkSuite [baselineFile] [record]
+//   record rewrites the baseline with this run instead of comparing (default file benchmark-baseline.txt)
+//   -Dbench.players=<list>   player counts (default 4,100,1000,10000,100000)
+class BenchmarkSuite {
+    private static final long RUN_NANOS = 200_000_000L;
+    private static final int TIMED_RUNS = 3;
+    private static final String[] LINES = {"UPDATE_SCORE:1250", "READY", "UPDATE_SCORE:-40", "SCORES_RESYNC",
+            "UPDATE_SCORE:17", "GAME_FINISHED", "UPDATE_SCORE: 3000 ", "ROSTER_RESYNC"};
+
+    // Sink so the JIT cannot drop the work being measured
+    private static long blackhole;
+
+    public static void main(String[] args) throws IOException {
+        Path baselineFile = Paths.get(args.length > 0 ? args[0] : "benchmark-baseline.txt");
+        boolean record = args.length > 1 && args[1].equals("record");
+        String[] counts = System.getProperty("bench.players", "4,100,1000,10000,100000").split(",");
+        // Keeps benchmark players out of leaderboard.dat and journal/ in the working directory
+        System.setProperty("server.leaderboard.persist", "false");
+        System.setProperty("server.journal", "false");
+        ServerLog.setLevel(ServerLog.Level.WARN);
+
+        Map<String, double[]> baseline = record ? new HashMap<>() : load(baselineFile);
+        List<String> results = new ArrayList<>();
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println(baseline.isEmpty() ? "No baseline at " + baselineFile.toAbsolutePath() : "Baseline: " + baselineFile.toAbsolutePath());
+        System.out.println("case               players        ns/op    bytes/op   base ns/op  change  base B/op  change");
+
+        for (String count : counts) {
+            int players = Integer.parseInt(count.trim());
+            Map<String, Integer> scoreboard = scoreboard(players);
+            String scoresText = GameRoom.formatScores(scoreboard);
+            List<FanOutClient> clients = new ArrayList<>(players);
+            for (int i = 0; i < players; i++) {
+                clients.add(new FanOutClient());
+            }
+            results.add(run("formatScores", players, baseline, () -> blackhole += GameRoom.formatScores(scoreboard).length()));
+            results.add(run("winnerInfo", players, baseline, () -> {
+                List<String> winners = GameRoom.findWinners(scoreboard);
+                blackhole += GameRoom.describeWinners(winners, scoreboard.get(winners.get(0)), scoreboard).length();
+            }));
+            long[] version = {0};
+            results.add(run("fanOut", players, baseline, () -> {
+                OutboundMessage move = OutboundMessage.rosterMove(++version[0], PlayerRegistry.State.WAITING, "player1");
+                for (FanOutClient client : clients) {
+                    client.sendMessage(move);
+                }
+            }));
+            results.add(run("clientParseScores", players, baseline, () -> blackhole += Client.parseScores(scoresText).size()));
+        }
+
+        FanOutClient parser = new FanOutClient();
+        byte[] name = "bench\n".getBytes(StandardCharsets.UTF_8);
+        parser.onBytesReceived(name, 0, name.length); // Named but never registered, so commands find no room
+        byte[] chunk = lines(512);
+        int linesPerChunk = 512 * LINES.length;
+        results.add(run("lineParsing", 0, baseline, linesPerChunk, () -> parser.onBytesReceived(chunk, 0, chunk.length)));
+
+        if (record) {
+            List<String> file = new ArrayList<>();
+            file.add("# BenchmarkSuite baseline, " + LocalDate.now() + ", " + Runtime.getRuntime().availableProcessors()
+                    + " processors, Java " + System.getProperty("java.version"));
+            file.add("# case players ns/op bytes/op");
+            file.addAll(results);
+            Files.write(baselineFile, file, StandardCharsets.UTF_8);
+            System.out.println("Recorded baseline " + baselineFile.toAbsolutePath());
+        }
+        if (blackhole == 42) {
+            System.out.println();
+        }
+    }
+
+    private static String run(String name, int players, Map<String, double[]> baseline, Runnable operation) {
+        return run(name, players, baseline, 1, operation);
+    }
+
+    // Times the operation and prints its row; returns the row as a baseline line. unitsPerCall is how
+    // many operations one call performs.
+    private static String run(String name, int players, Map<String, double[]> baseline, int unitsPerCall, Runnable operation) {
+        long calls = 1;
+        long nanos;
+        while ((nanos = time(operation, calls)) < RUN_NANOS / 4) { // Warms up while finding the call count
+            calls *= 2;
+        }
+        calls = Math.max(1, (long) (calls * (double) RUN_NANOS / nanos));
+        double bestNanos = Double.MAX_VALUE;
+        double bestBytes = 0;
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            long allocatedBefore = allocatedBytes();
+            double perOperation = (double) time(operation, calls) / (calls * unitsPerCall);
+            double bytes = (double) (allocatedBytes() - allocatedBefore) / (calls * unitsPerCall);
+            if (perOperation < bestNanos) {
+                bestNanos = perOperation;
+                bestBytes = bytes;
+            }
+        }
+
+        String playerColumn = players > 0 ? Integer.toString(players) : "-";
+        double[] base = baseline.get(name + " " + players);
+        if (base == null) {
+            System.out.printf("%-18s %7s %12.1f %11.1f%n", name, playerColumn, bestNanos, bestBytes);
+        } else {
+            System.out.printf("%-18s %7s %12.1f %11.1f %12.1f %6s %10.1f %6s%n", name, playerColumn, bestNanos, bestBytes,
+                    base[0], change(bestNanos, base[0]), base[1], change(bestBytes, base[1]));
+        }
+        return String.format("%s %d %.1f %.1f", name, players, bestNanos, bestBytes);
+    }
+
+    private static long time(Runnable operation, long calls) {
+        long start = System.nanoTime();
+        for (long i = 0; i < calls; i++) {
+            operation.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String change(double now, double before) {
+        if (before < 0.05) { // 0.0 in the file
+            return now < 0.05 ? "+0%" : "new";
+        }
+        return String.format("%+.0f%%", 100 * (now - before) / before);
+    }
+
+    // "<case> <players>" to {ns/op, bytes/op}; empty if there is no baseline yet
+    private static Map<String, double[]> load(Path file) throws IOException {
+        Map<String, double[]> baseline = new HashMap<>();
+        if (!Files.exists(file)) {
+            return baseline;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.trim().split("\\s+");
+            if (line.startsWith("#") || fields.length != 4) {
+                continue;
+            }
+            baseline.put(fields[0] + " " + fields[1], new double[]{Double.parseDouble(fields[2]), Double.parseDouble(fields[3])});
+        }
+        return baseline;
+    }
+
+    // Distinct names with scores in join order; a few share the top score, so winnerInfo finds a tie
+    private static Map<String, Integer> scoreboard(int players) {
+        Map<String, Integer> scoreboard = new LinkedHashMap<>();
+        for (int i = 0; i < players; i++) {
+            scoreboard.put("player" + i, i % 97 == 3 ? 10_000 : (i * 7919) % 9_000);
+        }
+        return scoreboard;
+    }
+
+    private static byte[] lines(int repeat) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int r = 0; r < repeat; r++) {
+            for (String line : LINES) {
+                byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // In-process connection whose writes complete at once
+    private static final class FanOutClient extends NewServer.ClientHandler {
+        @Override
+        protected boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        protected void write(OutboundMessage message) {
+            byte[] bytes = message.bytes(false);
+            blackhole += bytes.length;
+            onWritten(bytes.length);
+        }
+
+        @Override
+        int outboundQueueDepth() {
+            return 0;
+        }
+
+        @Override
+        protected void abort() {
+        }
+
+        @Override
+        protected String describeConnection() {
+            return "benchmark";
+        }
+
+        @Override
+        protected void closeResources() {
+        }
+    }
+}
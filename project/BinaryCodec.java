@@ -0,0 +1,157 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Binary wire format, negotiated with CAPS:BINARY/1 after the ENTER_NAME handshake.
+// Every frame is: varint length of the rest | type byte | fields.
+// Integers are varints (scores zigzag-encoded), strings are a varint byte length plus UTF-8,
+// lists are a varint count followed by the entries. Names may contain any character.
+// Roster states are one byte, the PlayerRegistry.State ordinal.
+final class BinaryCodec {
+    static final String VERSION = "BINARY/1";
+    static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    // Client -> server frame types. Server -> client types are OutboundMessage.Type codes.
+    static final byte READY = 0x41;
+    static final byte LEAVE = 0x42;
+    static final byte UPDATE_SCORE = 0x43; // zigzag varint score
+    static final byte GAME_FINISHED = 0x44;
+    static final byte SCORES_RESYNC = 0x45;
+    static final byte ROSTER_RESYNC = 0x46;
+    static final byte ANSWER = 0x47; // zigzag varint question index, zigzag varint answer
+    static final byte LEADERBOARD = 0x48; // optional zigzag varint number of entries
+    static final byte RANK = 0x49; // optional string player name, own name if absent
+    static final byte PONG = 0x4A;
+
+    private BinaryCodec() {
+    }
+
+    // Builds a single frame. The first bytes are reserved for the length prefix, which is filled
+    // in by finish() once the payload size is known.
+    static final class FrameBuilder {
+        private static final int RESERVED = 5; // Longest varint for an int length
+
+        private byte[] buffer;
+        private int length = RESERVED;
+
+        FrameBuilder(byte type) {
+            this(type, 64);
+        }
+
+        // Sized for a payload of about expectedSize bytes, so large frames are not regrown
+        FrameBuilder(byte type, int expectedSize) {
+            buffer = new byte[RESERVED + 1 + Math.max(expectedSize, 0)];
+            writeByte(type);
+        }
+
+        FrameBuilder writeByte(int value) {
+            ensureCapacity(1);
+            buffer[length++] = (byte) value;
+            return this;
+        }
+
+        FrameBuilder writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+            return this;
+        }
+
+        FrameBuilder writeZigZag(int value) {
+            return writeVarLong(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+        }
+
+        FrameBuilder writeString(String value) {
+            int chars = value.length();
+            if (chars < 0x80) {
+                // Common case for names: a one-byte length and one byte per char, checked and
+                // copied in a single pass with no intermediate array
+                ensureCapacity(1 + chars);
+                int start = length + 1;
+                int i = 0;
+                while (i < chars) {
+                    char c = value.charAt(i);
+                    if (c >= 0x80) {
+                        break;
+                    }
+                    buffer[start + i++] = (byte) c;
+                }
+                if (i == chars) {
+                    buffer[length] = (byte) chars;
+                    length = start + chars;
+                    return this;
+                }
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+        // Returns the finished frame, length prefix included
+        byte[] finish() {
+            int payload = length - RESERVED;
+            int prefix = varIntSize(payload);
+            int start = RESERVED - prefix;
+            int value = payload;
+            for (int i = start; i < RESERVED; i++) {
+                buffer[i] = (byte) (i == RESERVED - 1 ? value : (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            return Arrays.copyOfRange(buffer, start, length);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+    }
+
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static int readZigZag(ByteBuffer in) {
+        int raw = (int) readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Malformed string length " + length);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Measures bytes allocated per broadcast for the two ways a writer can get bytes for N recipients:
+// encoding the String separately for each recipient (what the PrintWriter and the first NIO writer did)
+// versus one shared OutboundMessage whose read-only buffer each recipient duplicates.
+// Usage: BroadcastBenchmark [iterations]
+class BroadcastBenchmark {
+    private static final int[] RECIPIENTS = {4, 100, 10_000};
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    // Sink so the JIT cannot drop the work being measured
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        scores.put("alice", 40);
+        scores.put("bob", 30);
+        scores.put("carol", 50);
+        scores.put("dave", 20);
+
+        System.out.println("recipients  per-recipient-encode(B)  encode-once(B)");
+        for (int recipients : RECIPIENTS) {
+            int rounds = Math.max(10, iterations * 4 / recipients); // Keep total work similar per row
+            // Warm up both paths before measuring
+            perRecipientEncode(scores, recipients, rounds);
+            encodeOnce(scores, recipients, rounds);
+
+            long legacy = perRecipientEncode(scores, recipients, rounds) / rounds;
+            long shared = encodeOnce(scores, recipients, rounds) / rounds;
+            System.out.printf("%10d  %23d  %14d%n", recipients, legacy, shared);
+        }
+        if (blackhole == 42) {
+            System.out.println();
+        }
+    }
+
+    private static long perRecipientEncode(Map<String, Integer> scores, int recipients, int rounds) {
+        String text = OutboundMessage.scores(scores).text();
+        long before = allocatedBytes();
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < recipients; i++) {
+                ByteBuffer buffer = ByteBuffer.wrap((text + "\n").getBytes(CHARSET));
+                blackhole += buffer.remaining();
+            }
+        }
+        return allocatedBytes() - before;
+    }
+
+    private static long encodeOnce(Map<String, Integer> scores, int recipients, int rounds) {
+        long before = allocatedBytes();
+        for (int r = 0; r < rounds; r++) {
+            OutboundMessage message = OutboundMessage.scores(scores);
+            for (int i = 0; i < recipients; i++) {
+                ByteBuffer buffer = message.buffer(false);
+                blackhole += buffer.remaining();
+            }
+        }
+        return allocatedBytes() - before;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -30,7 +30,7 @@ public class Client extends JFrame {
     private JLabel timerLabel; // Timer label for waiting room countdown
     private JLabel scoreLabel; // Score label (not used in current game panel)
     private HashSet<String> allConnectedPlayers = new HashSet<>();
-    private PrintWriter out;
+    private volatile PrintWriter out; // Replaced when the connection is resumed
     private BufferedReader in;
     private int currentStage = 0; // Start from index 0
     private int score = 0;
@@ -39,10 +39,31 @@ public class Client extends JFrame {
     private JLabel questionTimerLabel; // Label for question timer
 
     private String[] binaryStages = {"1010", "0011", "11000", "100110", "110110"}; // 5 stages
+    // Set when the server sent this game's QUESTIONS; answers are then checked by the server. Swing thread only.
+    private boolean serverQuestions = false;
 
     // Flag to prevent clearing message after game ends
     private boolean isGameOver = false;
 
+    // Optional protocol features announced to the server after sending our name
+    private static final String CAPABILITIES = "SCORE_DELTA,ROSTER_DELTA,QUESTIONS,RESUME,HEARTBEAT";
+
+    // Session resumption after a dropped connection. Only touched on the reader thread.
+    private static final int RESUME_ATTEMPTS = 10;
+    private String sessionToken; // From SESSION, null until then or once resuming failed
+    private long messagesReceived = 0; // Messages counted since SESSION, as the server numbers them
+    private boolean resuming = false; // Reconnected; the next ENTER_NAME is answered with RESUME
+
+    // Roster state for ROSTER/ROSTER_ADD/ROSTER_REMOVE/ROSTER_MOVE updates. Only touched on the Swing thread.
+    private long rosterVersion = -1; // Version of the last applied roster update, -1 before the first snapshot
+    private boolean rosterResyncRequested = false;
+    private java.util.List<String> connectedNames = new ArrayList<>(); // Player name per row of connectedListModel
+
+    // Live scoreboard state for SCORE_SNAPSHOT/SCORE_DELTA updates. Only touched on the Swing thread.
+    private long scoreSequence = -1; // Sequence number of the last applied update, -1 before the first snapshot
+    private boolean scoreResyncRequested = false;
+    private Map<String, Integer> scoreRows = new HashMap<>(); // Player name -> row in gamePlayersListModel
+
     // Enum to track the current UI state
     private enum UIState { CONNECTED, WAITING, GAME }
     private UIState currentState = UIState.CONNECTED;
@@ -138,120 +159,216 @@ public class Client extends JFrame {
 
     private void connectToServer() {
         try {
-            Socket socket = new Socket("localhost", 12345);
-            out = new PrintWriter(socket.getOutputStream(), true); // Auto-flush
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            new Thread(() -> {
-                try {
-                    String serverMessage;
-                    while ((serverMessage = in.readLine()) != null) {
-                        System.out.println("ClientLog: Received from server: " + serverMessage); // For debugging
-
-                        if (serverMessage.equals("ENTER_NAME")) {
-                            String playerName = JOptionPane.showInputDialog(this, "Enter your name:");
-                            if (playerName == null || playerName.trim().isEmpty()) {
-                                playerName = "Player" + (int)(Math.random() * 1000);
-                            }
-                            out.println(playerName);
-                        } else if (serverMessage.startsWith("CONNECTED:")) {
-                            updateConnectedList(serverMessage.substring(10));
-                        } else if (serverMessage.startsWith("WAITING:")) {
-                            updateWaitingList(serverMessage.substring(8));
-                        } else if (serverMessage.startsWith("TIMER:")) {
-                             // Only update timer label if currently in WAITING state
-                             if (currentState == UIState.WAITING) {
-                                 String timeRemaining = serverMessage.substring(6);
-                                 SwingUtilities.invokeLater(() ->
-                                     timerLabel.setText("Game starts in: " + timeRemaining + " seconds")
-                                 );
-                             } else {
-                                System.out.println("ClientLog: Ignoring TIMER message, not in WAITING state. Current state: " + currentState);
-                             }
-                        } else if (serverMessage.equals("GAME_STARTED")) {
-                            SwingUtilities.invokeLater(this::switchToGame);
-                        } else if (serverMessage.startsWith("SCORES:")) {
-                            updateGamePlayersList(serverMessage.substring(7));
-                        } else if (serverMessage.startsWith("PLAYER_LEFT:")) {
-                            String playerName = serverMessage.substring(12);
-                            SwingUtilities.invokeLater(() -> {
-                                // Display player left message based on current state
-                                if (!isGameOver) { // Only show if game is not over
-                                    String message = playerName + " has left the game.";
-                                    // Display message on the appropriate panel's message label
-                                    if (currentState == UIState.CONNECTED || currentState == UIState.WAITING) {
-                                         // Assuming messageLabel is added to connected/waiting panels
-                                         System.out.println("ClientLog: Attempting to set messageLabel in PLAYER_LEFT handler (pre-game): " + message);
-                                         messageLabel.setText(message);
-                                         // Clear message after a delay if in pre-game state
-                                         new javax.swing.Timer(7000, e -> {
-                                             if (!isGameOver && (currentState == UIState.CONNECTED || currentState == UIState.WAITING)) {
-                                                  System.out.println("ClientLog: Attempting to clear messageLabel in PLAYER_LEFT timer (pre-game): \"\"");
-                                                 messageLabel.setText("");
-                                             } else {
-                                                 System.out.println("ClientLog: PLAYER_LEFT timer skipped clearing messageLabel because game is over or state changed.");
-                                             }
-                                         }).start();
-                                    } else if (currentState == UIState.GAME && gamePanel != null) {
-                                        // If in game, update the message label specific to the game panel
-                                        // Assuming messageLabel is added to gameContent within gamePanel
-                                         System.out.println("ClientLog: Attempting to set messageLabel in PLAYER_LEFT handler (in-game): " + message);
-                                         messageLabel.setText(message); // Update game panel message label
-                                         // Decide if you want to clear in-game messages automatically
-                                         // For now, leave in-game messages until overwritten or game ends
-                                    } else {
-                                         System.out.println("ClientLog: Ignoring PLAYER_LEFT message display due to unknown state or null panel.");
-                                    }
-                                } else {
-                                    System.out.println("ClientLog: Ignoring PLAYER_LEFT message as game is over.");
-                                }
-                            });
-                        }
-                         else if (serverMessage.startsWith("GAME_ENDED:")) {
-                            String winnerInfo = serverMessage.substring(11);
-                             System.out.println("ClientLog: GAME_ENDED received. Winner info: " + winnerInfo);
-                            SwingUtilities.invokeLater(() -> showGameOver(winnerInfo));
-                            if (questionTimer != null) {
-                                 questionTimer.stop();
-                             }
-                             if (inputField != null) inputField.setEnabled(false);
-                             if (submitButton != null) submitButton.setEnabled(false);
-                        }
-                        // Handle general messages from the server
-                        else if (serverMessage.startsWith("SERVER_MESSAGE:")) {
-                             String msg = serverMessage.substring(15);
-                             SwingUtilities.invokeLater(() -> {
-                                 // Display server message on the currently active panel's message label
-                                 if (!isGameOver) { // Don't overwrite game over message
-                                     if (currentState == UIState.CONNECTED || currentState == UIState.WAITING) {
-                                          System.out.println("ClientLog: Attempting to set messageLabel in SERVER_MESSAGE handler (pre-game): " + msg);
-                                         messageLabel.setText(msg);
-                                          // Optional: Clear after a delay
-                                          // new javax.swing.Timer(7000, e -> messageLabel.setText("")).start();
-                                     } else if (currentState == UIState.GAME && gamePanel != null) {
-                                          System.out.println("ClientLog: Attempting to set messageLabel in SERVER_MESSAGE handler (in-game): " + msg);
-                                         messageLabel.setText(msg); // Update game panel message label
-                                     } else {
-                                          System.out.println("ClientLog: Ignoring SERVER_MESSAGE display due to unknown state or null panel.");
-                                     }
-                                 } else {
-                                      System.out.println("ClientLog: Ignoring SERVER_MESSAGE as game is over.");
-                                 }
-                             });
-                        }
+            openConnection();
+            new Thread(this::readMessages).start();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Unable to connect to the server. Please try again.");
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    private void openConnection() throws IOException {
+        Socket socket = new Socket("localhost", 12345);
+        out = new PrintWriter(socket.getOutputStream(), true); // Auto-flush
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    }
+
+    // Reader thread. With a session, a dropped connection is resumed instead of ending the client.
+    private void readMessages() {
+        while (true) {
+            try {
+                String serverMessage;
+                while ((serverMessage = in.readLine()) != null) {
+                    System.out.println("ClientLog: Received from server: " + serverMessage); // For debugging
+
+                    if (sessionToken != null && !resuming && isNumbered(serverMessage)) {
+                        messagesReceived++;
                     }
-                } catch (IOException e) {
+                    handleServerMessage(serverMessage);
+                }
+                if (sessionToken == null || !reconnect()) {
+                    return;
+                }
+            } catch (IOException e) {
+                if (sessionToken == null || !reconnect()) {
                     SwingUtilities.invokeLater(() ->
                         JOptionPane.showMessageDialog(this, "Connection lost. Please restart the client.")
                     );
                     e.printStackTrace();
                     System.exit(0);
                 }
-            }).start();
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Unable to connect to the server. Please try again.");
-            e.printStackTrace();
-            System.exit(0);
+            }
+        }
+    }
+
+    // Whether the server counts this message in the session's numbering
+    private static boolean isNumbered(String serverMessage) {
+        return !serverMessage.startsWith("SESSION:") && !serverMessage.startsWith("RESUMED:")
+                && !serverMessage.startsWith("RESUME_FAILED") && !serverMessage.startsWith("PROTOCOL:")
+                && !serverMessage.equals("PING");
+    }
+
+    // Opens a new connection to resume the session on, retrying once a second while the server holds our seat
+    private boolean reconnect() {
+        for (int attempt = 1; attempt <= RESUME_ATTEMPTS; attempt++) {
+            try {
+                Thread.sleep(1000);
+                openConnection();
+                resuming = true;
+                System.out.println("ClientLog: Reconnected, resuming after message " + messagesReceived);
+                return true;
+            } catch (IOException e) {
+                System.out.println("ClientLog: Reconnect attempt " + attempt + " failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Dispatches one line received from the server. Called on the connection's reader thread.
+    private void handleServerMessage(String serverMessage) {
+        if (serverMessage.equals("PING")) {
+            out.println("PONG"); // The server closes connections that stay silent
+        } else if (serverMessage.equals("ENTER_NAME") && resuming) {
+            out.println("RESUME:" + sessionToken + "," + messagesReceived);
+        } else if (serverMessage.startsWith("SESSION:")) {
+            sessionToken = serverMessage.substring(8);
+            messagesReceived = 0;
+        } else if (serverMessage.startsWith("RESUMED:")) {
+            resuming = false;
+            long resumedAfter = Long.parseLong(serverMessage.substring(8));
+            if (resumedAfter != messagesReceived) {
+                // Missed more than the server kept; catch up from full state instead
+                System.out.println("ClientLog: Resumed after message " + resumedAfter + " instead of " + messagesReceived + ". Requesting resync.");
+                messagesReceived = resumedAfter;
+                out.println("ROSTER_RESYNC");
+                out.println("SCORES_RESYNC");
+            }
+        } else if (serverMessage.equals("RESUME_FAILED")) {
+            // Held too long; the game went on without us
+            SwingUtilities.invokeLater(() -> {
+                JOptionPane.showMessageDialog(this, "Connection lost. Please restart the client.");
+                System.exit(0);
+            });
+        } else if (serverMessage.equals("ENTER_NAME")) {
+            String playerName = JOptionPane.showInputDialog(this, "Enter your name:");
+            if (playerName == null || playerName.trim().isEmpty()) {
+                playerName = "Player" + (int)(Math.random() * 1000);
+            }
+            out.println(playerName);
+            out.println("CAPS:" + CAPABILITIES);
+        } else if (serverMessage.startsWith("CONNECTED:")) {
+            updateConnectedList(serverMessage.substring(10));
+        } else if (serverMessage.startsWith("ROSTER:")) {
+            applyRosterSnapshot(serverMessage.substring(7));
+        } else if (serverMessage.startsWith("ROSTER_ADD:")) {
+            applyRosterChange(serverMessage.substring(11), false);
+        } else if (serverMessage.startsWith("ROSTER_MOVE:")) {
+            applyRosterChange(serverMessage.substring(12), true);
+        } else if (serverMessage.startsWith("ROSTER_REMOVE:")) {
+            applyRosterRemoval(serverMessage.substring(14));
+        } else if (serverMessage.startsWith("WAITING:")) {
+            updateWaitingList(serverMessage.substring(8));
+        } else if (serverMessage.startsWith("TIMER:")) {
+             // Only update timer label if currently in WAITING state
+             if (currentState == UIState.WAITING) {
+                 String timeRemaining = serverMessage.substring(6);
+                 SwingUtilities.invokeLater(() ->
+                     timerLabel.setText("Game starts in: " + timeRemaining + " seconds")
+                 );
+             } else {
+                System.out.println("ClientLog: Ignoring TIMER message, not in WAITING state. Current state: " + currentState);
+             }
+        } else if (serverMessage.startsWith("QUESTIONS:")) {
+            String[] questions = serverMessage.substring(10).split(",");
+            SwingUtilities.invokeLater(() -> {
+                binaryStages = questions; // Applied before GAME_STARTED builds the game panel
+                serverQuestions = true;
+            });
+        } else if (serverMessage.startsWith("ANSWER_RESULT:")) {
+            applyAnswerResult(serverMessage.substring(14));
+        } else if (serverMessage.equals("GAME_STARTED")) {
+            SwingUtilities.invokeLater(this::switchToGame);
+        } else if (serverMessage.startsWith("SCORES:")) {
+            updateGamePlayersList(serverMessage.substring(7), -1);
+        } else if (serverMessage.startsWith("SCORE_SNAPSHOT:")) {
+            applyScoreSnapshot(serverMessage.substring(15));
+        } else if (serverMessage.startsWith("SCORE_DELTA:")) {
+            applyScoreDelta(serverMessage.substring(12));
+        } else if (serverMessage.startsWith("SCORE_REMOVE:")) {
+            applyScoreRemoval(serverMessage.substring(13));
+        } else if (serverMessage.startsWith("PLAYER_LEFT:")) {
+            String playerName = serverMessage.substring(12);
+            SwingUtilities.invokeLater(() -> {
+                // Display player left message based on current state
+                if (!isGameOver) { // Only show if game is not over
+                    String message = playerName + " has left the game.";
+                    // Display message on the appropriate panel's message label
+                    if (currentState == UIState.CONNECTED || currentState == UIState.WAITING) {
+                         // Assuming messageLabel is added to connected/waiting panels
+                         System.out.println("ClientLog: Attempting to set messageLabel in PLAYER_LEFT handler (pre-game): " + message);
+                         messageLabel.setText(message);
+                         // Clear message after a delay if in pre-game state
+                         new javax.swing.Timer(7000, e -> {
+                             if (!isGameOver && (currentState == UIState.CONNECTED || currentState == UIState.WAITING)) {
+                                  System.out.println("ClientLog: Attempting to clear messageLabel in PLAYER_LEFT timer (pre-game): \"\"");
+                                 messageLabel.setText("");
+                             } else {
+                                 System.out.println("ClientLog: PLAYER_LEFT timer skipped clearing messageLabel because game is over or state changed.");
+                             }
+                         }).start();
+                    } else if (currentState == UIState.GAME && gamePanel != null) {
+                        // If in game, update the message label specific to the game panel
+                        // Assuming messageLabel is added to gameContent within gamePanel
+                         System.out.println("ClientLog: Attempting to set messageLabel in PLAYER_LEFT handler (in-game): " + message);
+                         messageLabel.setText(message); // Update game panel message label
+                         // Decide if you want to clear in-game messages automatically
+                         // For now, leave in-game messages until overwritten or game ends
+                    } else {
+                         System.out.println("ClientLog: Ignoring PLAYER_LEFT message display due to unknown state or null panel.");
+                    }
+                } else {
+                    System.out.println("ClientLog: Ignoring PLAYER_LEFT message as game is over.");
+                }
+            });
+        }
+         else if (serverMessage.startsWith("GAME_ENDED:")) {
+            String winnerInfo = serverMessage.substring(11);
+             System.out.println("ClientLog: GAME_ENDED received. Winner info: " + winnerInfo);
+            SwingUtilities.invokeLater(() -> {
+                serverQuestions = false; // The next game's QUESTIONS, if any, arrive before it starts
+                showGameOver(winnerInfo);
+            });
+            if (questionTimer != null) {
+                 questionTimer.stop();
+             }
+             if (inputField != null) inputField.setEnabled(false);
+             if (submitButton != null) submitButton.setEnabled(false);
+        }
+        // Handle general messages from the server
+        else if (serverMessage.startsWith("SERVER_MESSAGE:")) {
+             String msg = serverMessage.substring(15);
+             SwingUtilities.invokeLater(() -> {
+                 // Display server message on the currently active panel's message label
+                 if (!isGameOver) { // Don't overwrite game over message
+                     if (currentState == UIState.CONNECTED || currentState == UIState.WAITING) {
+                          System.out.println("ClientLog: Attempting to set messageLabel in SERVER_MESSAGE handler (pre-game): " + msg);
+                         messageLabel.setText(msg);
+                          // Optional: Clear after a delay
+                          // new javax.swing.Timer(7000, e -> messageLabel.setText("")).start();
+                     } else if (currentState == UIState.GAME && gamePanel != null) {
+                          System.out.println("ClientLog: Attempting to set messageLabel in SERVER_MESSAGE handler (in-game): " + msg);
+                         messageLabel.setText(msg); // Update game panel message label
+                     } else {
+                          System.out.println("ClientLog: Ignoring SERVER_MESSAGE display due to unknown state or null panel.");
+                     }
+                 } else {
+                      System.out.println("ClientLog: Ignoring SERVER_MESSAGE as game is over.");
+                 }
+             });
         }
     }
 
@@ -331,84 +448,7 @@ public class Client extends JFrame {
                      while ((serverMessage = in.readLine()) != null) {
                          System.out.println("ClientLog: Received from server: " + serverMessage); // For debugging
 
-                         if (serverMessage.equals("ENTER_NAME")) {
-                             String playerName = JOptionPane.showInputDialog(this, "Enter your name:");
-                             if (playerName == null || playerName.trim().isEmpty()) {
-                                 playerName = "Player" + (int)(Math.random() * 1000);
-                             }
-                             out.println(playerName);
-                         } else if (serverMessage.startsWith("CONNECTED:")) {
-                             updateConnectedList(serverMessage.substring(10));
-                         } else if (serverMessage.startsWith("WAITING:")) {
-                             updateWaitingList(serverMessage.substring(8));
-                         } else if (serverMessage.startsWith("TIMER:")) {
-                              if (currentState == UIState.WAITING) {
-                                  String timeRemaining = serverMessage.substring(6);
-                                  SwingUtilities.invokeLater(() ->
-                                      timerLabel.setText("Game starts in: " + timeRemaining + " seconds")
-                                  );
-                              } else {
-                                 System.out.println("ClientLog: Ignoring TIMER message, not in WAITING state. Current state: " + currentState);
-                              }
-                         } else if (serverMessage.equals("GAME_STARTED")) {
-                             SwingUtilities.invokeLater(this::switchToGame);
-                         } else if (serverMessage.startsWith("SCORES:")) {
-                             updateGamePlayersList(serverMessage.substring(7));
-                         } else if (serverMessage.startsWith("PLAYER_LEFT:")) {
-                             String playerName = serverMessage.substring(12);
-                             SwingUtilities.invokeLater(() -> {
-                                 if (!isGameOver) {
-                                     String message = playerName + " has left the game.";
-                                     if (currentState == UIState.CONNECTED || currentState == UIState.WAITING) {
-                                          System.out.println("ClientLog: Attempting to set messageLabel in PLAYER_LEFT handler (pre-game): " + message);
-                                          messageLabel.setText(message);
-                                          new javax.swing.Timer(7000, e -> {
-                                               if (!isGameOver && (currentState == UIState.CONNECTED || currentState == UIState.WAITING)) {
-                                                    System.out.println("ClientLog: Attempting to clear messageLabel in PLAYER_LEFT timer (pre-game): \"\"");
-                                                   messageLabel.setText("");
-                                               } else {
-                                                  System.out.println("ClientLog: PLAYER_LEFT timer skipped clearing messageLabel because game is over or state changed.");
-                                               }
-                                          }).start();
-                                     } else if (currentState == UIState.GAME && gamePanel != null) {
-                                          System.out.println("ClientLog: Attempting to set messageLabel in PLAYER_LEFT handler (in-game): " + message);
-                                          messageLabel.setText(message);
-                                     } else {
-                                          System.out.println("ClientLog: Ignoring PLAYER_LEFT message display due to unknown state or null panel.");
-                                     }
-                                 } else {
-                                     System.out.println("ClientLog: Ignoring PLAYER_LEFT message as game is over.");
-                                 }
-                             });
-                         }
-                          else if (serverMessage.startsWith("GAME_ENDED:")) {
-                             String winnerInfo = serverMessage.substring(11);
-                              System.out.println("ClientLog: GAME_ENDED received. Winner info: " + winnerInfo);
-                             SwingUtilities.invokeLater(() -> showGameOver(winnerInfo));
-                             if (questionTimer != null) {
-                                  questionTimer.stop();
-                              }
-                              if (inputField != null) inputField.setEnabled(false);
-                              if (submitButton != null) submitButton.setEnabled(false);
-                         }
-                         else if (serverMessage.startsWith("SERVER_MESSAGE:")) {
-                              String msg = serverMessage.substring(15);
-                              SwingUtilities.invokeLater(() -> {
-                                  if (!isGameOver) {
-                                      if (currentState == UIState.CONNECTED || currentState == UIState.WAITING) {
-                                           System.out.println("ClientLog: Attempting to set messageLabel in SERVER_MESSAGE handler (pre-game): " + msg);
-                                          messageLabel.setText(msg);
-                                      } else if (currentState == UIState.GAME && gamePanel != null) {
-                                           System.out.println("ClientLog: Attempting to set messageLabel in SERVER_MESSAGE handler (in-game): " + msg);
-                                          messageLabel.setText(msg);
-                                      } else {
-                                           System.out.println("ClientLog: Ignoring SERVER_MESSAGE display due to unknown state or null panel.");
-                                      }
-                                  } else {
-                                       System.out.println("ClientLog: Ignoring SERVER_MESSAGE as game is over.");
-                                  }
-                              });
-                         }
+                         handleServerMessage(serverMessage);
                      }
                  } catch (IOException e) {
                      System.out.println("ClientLog: Connection error: " + e.getMessage());
@@ -439,36 +479,162 @@ public class Client extends JFrame {
      // --- END OF NEW CODE ---
 
 
+    // Full CONNECTED list, sent by servers that do not use roster deltas
     private void updateConnectedList(String players) {
-        SwingUtilities.invokeLater(() -> {
-            connectedListModel.clear();
-            allConnectedPlayers.clear();
-            if (!players.isEmpty()) {
-                 for (String player : players.split(",")) {
-                    if (!player.isEmpty()) {
-                        allConnectedPlayers.add(player);
-                        connectedListModel.addElement(player);
-                    }
-                }
+        java.util.List<String> names = new ArrayList<>();
+        for (String player : players.split(",")) {
+            if (!player.isEmpty()) {
+                names.add(player);
             }
-        });
+        }
+        SwingUtilities.invokeLater(() -> setConnectedRows(names, null));
     }
 
+    // Only the room's own waiting list, so it stays small; rows are updated in place rather than rebuilt
     private void updateWaitingList(String players) {
         SwingUtilities.invokeLater(() -> {
-            waitingListModel.clear();
-             if (!players.isEmpty()) {
-                String[] playerArray = players.split(",");
-                for (String player : playerArray) {
-                    if (!player.isEmpty()) {
-                        waitingListModel.addElement(player);
-                    }
+            Set<String> current = new HashSet<>(Arrays.asList(players.split(",")));
+            for (int row = waitingListModel.size() - 1; row >= 0; row--) {
+                if (!current.contains(waitingListModel.get(row))) {
+                    waitingListModel.remove(row);
+                }
+            }
+            for (String player : players.split(",")) {
+                if (!player.isEmpty() && !waitingListModel.contains(player)) {
+                    waitingListModel.addElement(player);
                 }
             }
         });
     }
 
-    private void updateGamePlayersList(String playerScores) {
+    // ROSTER:<version>:<state>:<name>,... in join order
+    private void applyRosterSnapshot(String snapshot) {
+        int separator = snapshot.indexOf(':');
+        try {
+            long version = Long.parseLong(snapshot.substring(0, separator));
+            java.util.List<String> names = new ArrayList<>();
+            java.util.List<String> states = new ArrayList<>();
+            for (String entry : snapshot.substring(separator + 1).split(",")) {
+                int colon = entry.indexOf(':');
+                if (colon > 0) {
+                    states.add(entry.substring(0, colon));
+                    names.add(entry.substring(colon + 1));
+                }
+            }
+            SwingUtilities.invokeLater(() -> {
+                rosterVersion = version;
+                rosterResyncRequested = false;
+                setConnectedRows(names, states);
+            });
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.err.println("ClientLog: Error parsing roster snapshot: " + snapshot);
+        }
+    }
+
+    // ROSTER_ADD/ROSTER_MOVE:<version>:<state>:<name>. The name is everything after the second colon.
+    private void applyRosterChange(String change, boolean move) {
+        int first = change.indexOf(':');
+        int second = change.indexOf(':', first + 1);
+        try {
+            long version = Long.parseLong(change.substring(0, first));
+            String state = change.substring(first + 1, second);
+            String playerName = change.substring(second + 1);
+            SwingUtilities.invokeLater(() -> {
+                if (!acceptRosterVersion(version)) {
+                    return;
+                }
+                int row = connectedNames.indexOf(playerName);
+                if (row >= 0) {
+                    connectedListModel.set(row, formatRosterRow(playerName, state));
+                } else if (!move) {
+                    addConnectedRow(playerName, state);
+                }
+            });
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.err.println("ClientLog: Error parsing roster change: " + change);
+        }
+    }
+
+    // ROSTER_REMOVE:<version>:<name>
+    private void applyRosterRemoval(String removal) {
+        int separator = removal.indexOf(':');
+        try {
+            long version = Long.parseLong(removal.substring(0, separator));
+            String playerName = removal.substring(separator + 1);
+            SwingUtilities.invokeLater(() -> {
+                if (!acceptRosterVersion(version)) {
+                    return;
+                }
+                int row = connectedNames.indexOf(playerName);
+                if (row >= 0) {
+                    connectedNames.remove(row);
+                    connectedListModel.remove(row);
+                }
+                allConnectedPlayers.remove(playerName);
+            });
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.err.println("ClientLog: Error parsing roster removal: " + removal);
+        }
+    }
+
+    // Same rules as acceptScoreSequence: drop stale updates, ask for a snapshot after a gap
+    private boolean acceptRosterVersion(long version) {
+        if (rosterVersion < 0 || version > rosterVersion + 1) {
+            if (!rosterResyncRequested) {
+                System.out.println("ClientLog: Roster update " + version + " does not follow " + rosterVersion + ". Requesting resync.");
+                rosterResyncRequested = true;
+                out.println("ROSTER_RESYNC");
+            }
+            return false;
+        }
+        if (version <= rosterVersion) {
+            return false;
+        }
+        rosterVersion = version;
+        return true;
+    }
+
+    // Brings the connected list to the given players without clearing it: rows of players that
+    // left are removed, the others are kept or updated, and new players are appended.
+    // states is null for the CONNECTED list, which has names only.
+    private void setConnectedRows(java.util.List<String> names, java.util.List<String> states) {
+        Set<String> current = new HashSet<>(names);
+        for (int row = connectedNames.size() - 1; row >= 0; row--) {
+            if (!current.contains(connectedNames.get(row))) {
+                allConnectedPlayers.remove(connectedNames.remove(row));
+                connectedListModel.remove(row);
+            }
+        }
+        for (int i = 0; i < names.size(); i++) {
+            String playerName = names.get(i);
+            String state = states != null ? states.get(i) : null;
+            int row = connectedNames.indexOf(playerName);
+            if (row < 0) {
+                addConnectedRow(playerName, state);
+            } else if (!connectedListModel.get(row).equals(formatRosterRow(playerName, state))) {
+                connectedListModel.set(row, formatRosterRow(playerName, state));
+            }
+        }
+    }
+
+    private void addConnectedRow(String playerName, String state) {
+        connectedNames.add(playerName);
+        allConnectedPlayers.add(playerName);
+        connectedListModel.addElement(formatRosterRow(playerName, state));
+    }
+
+    // Players in the lobby are shown by name alone, the others with what they are doing
+    private static String formatRosterRow(String playerName, String state) {
+        if ("WAITING".equals(state)) {
+            return playerName + " (waiting)";
+        } else if ("IN_GAME".equals(state)) {
+            return playerName + " (in game)";
+        }
+        return playerName;
+    }
+
+    // Replaces the whole scoreboard. sequence is -1 for the original SCORES message.
+    private void updateGamePlayersList(String playerScores, long sequence) {
         SwingUtilities.invokeLater(() -> {
              // Only update the scoreboard if the game is NOT over and client is in GAME state.
              if (isGameOver || currentState != UIState.GAME) {
@@ -478,6 +644,9 @@ public class Client extends JFrame {
              }
 
             gamePlayersListModel.clear();
+            scoreRows.clear();
+            scoreSequence = sequence;
+            scoreResyncRequested = false;
             if (playerScores.isEmpty()) {
                  System.out.println("ClientLog: updateGamePlayersList received empty scores.");
                 return;
@@ -485,23 +654,117 @@ public class Client extends JFrame {
 
             System.out.println("ClientLog: updateGamePlayersList received scores: " + playerScores);
 
-            String[] players = playerScores.split(",");
-            for (String playerInfo : players) {
-                if (!playerInfo.isEmpty()) {
-                    String[] parts = playerInfo.split(":");
-                    if (parts.length == 2) {
-                        try {
-                            String formatted = String.format("%s: %d points",
-                                    parts[0],
-                                    Integer.parseInt(parts[1]));
-                            gamePlayersListModel.addElement(formatted);
-                        } catch (NumberFormatException e) {
-                            System.err.println("ClientLog: Error parsing score: " + playerInfo);
+            for (Map.Entry<String, Integer> entry : parseScores(playerScores).entrySet()) {
+                setScoreRow(entry.getKey(), entry.getValue());
+            }
+        });
+    }
+
+    // name:score,name:score,... in message order. Malformed entries are skipped.
+    static Map<String, Integer> parseScores(String playerScores) {
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        String[] players = playerScores.split(",");
+        for (String playerInfo : players) {
+            if (!playerInfo.isEmpty()) {
+                String[] parts = playerInfo.split(":");
+                if (parts.length == 2) {
+                    try {
+                        scores.put(parts[0], Integer.parseInt(parts[1]));
+                    } catch (NumberFormatException e) {
+                        System.err.println("ClientLog: Error parsing score: " + playerInfo);
+                    }
+                }
+            }
+        }
+        return scores;
+    }
+
+    // SCORE_SNAPSHOT:<sequence>:<name>:<score>,...
+    private void applyScoreSnapshot(String snapshot) {
+        int separator = snapshot.indexOf(':');
+        try {
+            long sequence = Long.parseLong(snapshot.substring(0, separator));
+            updateGamePlayersList(snapshot.substring(separator + 1), sequence);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.err.println("ClientLog: Error parsing score snapshot: " + snapshot);
+        }
+    }
+
+    // SCORE_DELTA:<sequence>:<name>:<score>. The name is everything between the first and last colon.
+    private void applyScoreDelta(String delta) {
+        int first = delta.indexOf(':');
+        int last = delta.lastIndexOf(':');
+        try {
+            long sequence = Long.parseLong(delta.substring(0, first));
+            String playerName = delta.substring(first + 1, last);
+            int playerScore = Integer.parseInt(delta.substring(last + 1));
+            SwingUtilities.invokeLater(() -> {
+                if (acceptScoreSequence(sequence)) {
+                    setScoreRow(playerName, playerScore);
+                }
+            });
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.err.println("ClientLog: Error parsing score delta: " + delta);
+        }
+    }
+
+    // SCORE_REMOVE:<sequence>:<name>
+    private void applyScoreRemoval(String removal) {
+        int separator = removal.indexOf(':');
+        try {
+            long sequence = Long.parseLong(removal.substring(0, separator));
+            String playerName = removal.substring(separator + 1);
+            SwingUtilities.invokeLater(() -> {
+                if (!acceptScoreSequence(sequence)) {
+                    return;
+                }
+                Integer row = scoreRows.remove(playerName);
+                if (row != null) {
+                    gamePlayersListModel.remove(row);
+                    // Rows below the removed one moved up by one
+                    for (Map.Entry<String, Integer> entry : scoreRows.entrySet()) {
+                        if (entry.getValue() > row) {
+                            entry.setValue(entry.getValue() - 1);
                         }
                     }
                 }
+            });
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.err.println("ClientLog: Error parsing score removal: " + removal);
+        }
+    }
+
+    // Checks an update's sequence number against the last applied one. Stale updates are dropped;
+    // on a gap (or before any snapshot) the client asks the server for a fresh snapshot.
+    private boolean acceptScoreSequence(long sequence) {
+        if (isGameOver || currentState != UIState.GAME) {
+            return false;
+        }
+        if (scoreSequence < 0 || sequence > scoreSequence + 1) {
+            if (!scoreResyncRequested) {
+                System.out.println("ClientLog: Score update " + sequence + " does not follow " + scoreSequence + ". Requesting resync.");
+                scoreResyncRequested = true;
+                out.println("SCORES_RESYNC");
             }
-        });
+            return false;
+        }
+        if (sequence <= scoreSequence) {
+            return false;
+        }
+        scoreSequence = sequence;
+        return true;
+    }
+
+    // Updates a player's row in place, or appends it for a player not shown yet
+    private void setScoreRow(String playerName, int playerScore) {
+        String formatted = String.format("%s: %d points", playerName, playerScore);
+        Integer row = scoreRows.get(playerName);
+        if (row == null) {
+            scoreRows.put(playerName, gamePlayersListModel.size());
+            gamePlayersListModel.addElement(formatted);
+        } else {
+            gamePlayersListModel.set(row, formatted);
+        }
     }
 
     private void switchToWaitingRoom() {
@@ -557,6 +820,8 @@ public class Client extends JFrame {
         scoreboardPanel.setPreferredSize(new Dimension(250, getHeight()));
 
         gamePlayersListModel = new DefaultListModel<>();
+        scoreRows.clear();
+        scoreSequence = -1;
         gamePlayersList = new JList<>(gamePlayersListModel);
         gamePlayersList.setFont(new Font("Arial", Font.BOLD, 16));
 
@@ -717,23 +982,57 @@ public class Client extends JFrame {
 
         try {
             int decimalValue = Integer.parseInt(input);
-            boolean correct = false;
+            if (serverQuestions) {
+                // The server checks the answer and replies with ANSWER_RESULT
+                System.out.println("ClientLog: Sending answer for stage " + currentStage + ": " + decimalValue);
+                submitButton.setEnabled(false);
+                out.println("ANSWER:" + currentStage + "," + decimalValue);
+                return;
+            }
             int correctAnswer = Integer.parseInt(binaryStages[currentStage], 2);
 
              System.out.println("ClientLog: Checking answer for stage " + currentStage + ". Input: " + input + ", Correct: " + correctAnswer);
+            showAnswerResult(decimalValue == correctAnswer);
+        } catch (NumberFormatException e) {
+             System.out.println("ClientLog: Invalid input format: " + input);
+             // Only set message if game is not over
+              if (!isGameOver) {
+                   System.out.println("ClientLog: Attempting to set messageLabel in checkAnswer (Invalid format): \"Please enter a valid decimal number.\"");
+                  messageLabel.setText("Please enter a valid decimal number.");
+              }
+        }
+    }
 
+    // ANSWER_RESULT:<stage>:CORRECT|WRONG
+    private void applyAnswerResult(String result) {
+        int separator = result.indexOf(':');
+        try {
+            int stage = Integer.parseInt(result.substring(0, separator));
+            boolean correct = "CORRECT".equals(result.substring(separator + 1));
+            SwingUtilities.invokeLater(() -> {
+                if (isGameOver || currentState != UIState.GAME || stage != currentStage) {
+                    return; // The question moved on (time ran out) while the answer was checked
+                }
+                submitButton.setEnabled(true);
+                showAnswerResult(correct);
+            });
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.err.println("ClientLog: Error parsing answer result: " + result);
+        }
+    }
 
-            if (decimalValue == correctAnswer) {
-                correct = true;
-            }
-
+    // Moves on after a correct answer or asks to try again. With server-checked questions the
+    // server keeps the score and ends the game itself once every question is answered.
+    private void showAnswerResult(boolean correct) {
             if (correct) {
                 if (questionTimer != null) {
                     questionTimer.stop();
                 }
                 score += 10;
-                 System.out.println("ClientLog: Correct answer. New score: " + score + ". Sending UPDATE_SCORE:" + score);
-                out.println("UPDATE_SCORE:" + score);
+                if (!serverQuestions) {
+                     System.out.println("ClientLog: Correct answer. New score: " + score + ". Sending UPDATE_SCORE:" + score);
+                    out.println("UPDATE_SCORE:" + score);
+                }
 
                  currentStage++;
 
@@ -751,8 +1050,10 @@ public class Client extends JFrame {
                      messageLabel.setText("Correct! You have completed all questions!"); // This message will be replaced by GAME_ENDED from server
                      inputField.setEnabled(false);
                      submitButton.setEnabled(false);
-                      System.out.println("ClientLog: Correct answer on final question. Sending GAME_FINISHED.");
-                     out.println("GAME_FINISHED");
+                     if (!serverQuestions) {
+                          System.out.println("ClientLog: Correct answer on final question. Sending GAME_FINISHED.");
+                         out.println("GAME_FINISHED");
+                     }
                  }
 
             } else {
@@ -763,14 +1064,6 @@ public class Client extends JFrame {
                      messageLabel.setText("Incorrect! Try again.");
                  }
             }
-        } catch (NumberFormatException e) {
-             System.out.println("ClientLog: Invalid input format: " + input);
-             // Only set message if game is not over
-              if (!isGameOver) {
-                   System.out.println("ClientLog: Attempting to set messageLabel in checkAnswer (Invalid format): \"Please enter a valid decimal number.\"");
-                  messageLabel.setText("Please enter a valid decimal number.");
-              }
-        }
     }
 
     public static void main(String[] args) {
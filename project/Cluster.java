@@ -0,0 +1,329 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// Cluster mode: several NewServer processes share player names, matchmaking and the leaderboard
+// through a ClusterBackend, so a second machine (or process) can take players when one saturates.
+// Names are unique across the cluster. A player whose client sent CAPS:REDIRECT is queued
+// cluster-wide on READY; when the hub forms a group it picks the node that hosts it, and players
+// on other nodes get REDIRECT:<host>:<port>,<ticket>. The client connects there and answers
+// ENTER_NAME with JOIN:<ticket>, which seats it under its name. The host starts the game once
+// everyone arrived, or after ARRIVAL_MILLIS with those that did if they are enough; the others'
+// names are freed. Players whose client lacks the capability are matched on their own node, as
+// are all of a node's players once its backend loses the hub.
+// Every node applies every finished match to its own Leaderboard, so ratings, LEADERBOARD and RANK
+// cover the whole cluster; give each node its own server.leaderboard.file and server.journal.dir.
+//   -Dserver.port=<n>                    port of this node (default 12345)
+//   -Dserver.cluster.hubPort=<n>         run the hub in this process, serving other nodes on loopback port n
+//   -Dserver.cluster.join=<n>            join the hub at loopback port n
+//   -Dserver.cluster.node=<id>           node name (default node-<port>)
+//   -Dserver.cluster.host=<host>         host redirected clients connect to (default 127.0.0.1)
+//   -Dserver.cluster.arrivalSeconds=<n>  how long a host waits for redirected players (default 5)
+final class Cluster {
+    static final long ARRIVAL_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("server.cluster.arrivalSeconds", 5));
+
+    private static volatile ClusterBackend backend; // null unless this server is part of a cluster
+    private static volatile String node;
+
+    // Seats of hosted matches that wait for a redirected player, by ticket. Guarded by seats, as is
+    // early: connections that presented a ticket before the match was known here.
+    private static final Map<String, Seat> seats = new HashMap<>();
+    private static final Map<String, NewServer.ClientHandler> early = new HashMap<>();
+
+    // Players of this node in the cluster queue, by name, to match here if the hub is lost
+    private static final Map<String, NewServer.ClientHandler> queued = new ConcurrentHashMap<>();
+    private static final AtomicBoolean matchingLocally = new AtomicBoolean(false); // Logged once
+
+    // A hosted match gathering its players. Guarded by seats.
+    private static final class Gathering {
+        final ClusterHub.Match match;
+        final List<NewServer.ClientHandler> arrived = new ArrayList<>();
+        int missing = 0;
+        boolean closed = false; // Started, or given up on
+        TimerService.Timeout deadline;
+
+        Gathering(ClusterHub.Match match) {
+            this.match = match;
+        }
+    }
+
+    private static final class Seat {
+        final String name;
+        final Gathering gathering;
+
+        Seat(String name, Gathering gathering) {
+            this.name = name;
+            this.gathering = gathering;
+        }
+    }
+
+    private Cluster() {
+    }
+
+    // Joins the cluster configured by the server.cluster.* properties; does nothing without them
+    static void start(int port) throws IOException {
+        Integer hubPort = Integer.getInteger("server.cluster.hubPort");
+        Integer joinPort = Integer.getInteger("server.cluster.join");
+        if (hubPort == null && joinPort == null) {
+            return;
+        }
+        ClusterBackend chosen;
+        if (hubPort != null) {
+            ClusterHub hub = new ClusterHub();
+            LoopbackClusterBackend.serve(hub, hubPort);
+            chosen = new ClusterHub.InProcess(hub);
+        } else {
+            chosen = new LoopbackClusterBackend(joinPort);
+        }
+        node = System.getProperty("server.cluster.node", "node-" + port);
+        String address = System.getProperty("server.cluster.host", "127.0.0.1") + ":" + port;
+        chosen.join(node, address, new Events());
+        backend = chosen;
+        ServerLog.info("Joined the cluster as {}; redirected players connect to {}", node, address);
+    }
+
+    static boolean enabled() {
+        return backend != null;
+    }
+
+    // Reserves the name of a new player of this node and passes claimed the name the player is to
+    // have: requested, or with a suffix if a player anywhere in the cluster has it. Passes null if
+    // the hub did not answer. Must only be called when enabled().
+    static void claimName(String requested, Consumer<String> claimed) {
+        backend.claimName(requested, name -> {
+            if (name == null) {
+                ServerLog.warn("No cluster answer for name {}; it is only unique on this node", requested);
+            }
+            claimed.accept(name);
+        });
+    }
+
+    // A player of this node disconnected for good
+    static void release(String name) {
+        ClusterBackend current = backend;
+        if (current != null && name != null) {
+            queued.remove(name);
+            current.releaseName(name);
+        }
+    }
+
+    // Queues a READY player cluster-wide; only for clients that follow REDIRECT. Returns false if
+    // the player is to be matched on this node instead.
+    static boolean queue(NewServer.ClientHandler client, double rating) {
+        ClusterBackend current = backend;
+        if (current == null || !client.supportsRedirect()) {
+            return false;
+        }
+        String name = client.getPlayerName();
+        queued.put(name, client);
+        if (current.enqueue(name, rating)) {
+            return true;
+        }
+        queued.remove(name, client);
+        if (matchingLocally.compareAndSet(false, true)) {
+            ServerLog.warn("Cluster hub unreachable; players of {} are matched on this node", node);
+        }
+        return false;
+    }
+
+    // Sends a finished match to every node's leaderboard. Returns false when not clustered or
+    // the hub cannot be reached, and the caller records it here.
+    static boolean publishMatch(Map<String, Integer> finalScores, List<String> winners) {
+        ClusterBackend current = backend;
+        return current != null && current.publishMatch(new LinkedHashMap<>(finalScores), new ArrayList<>(winners));
+    }
+
+    // Handles JOIN:<ticket> from a redirected client. The client may get here before the hub's
+    // message about the match does, so an unknown ticket is held until ARRIVAL_MILLIS have passed;
+    // after that the client is asked for a name instead.
+    static void arrive(NewServer.ClientHandler connection, String ticket) {
+        Seat seat;
+        synchronized (seats) {
+            seat = seats.remove(ticket);
+            if (seat == null) {
+                early.put(ticket, connection);
+            }
+        }
+        if (seat != null) {
+            seat(seat, connection);
+            return;
+        }
+        TimerService.shared().schedule(() -> {
+            boolean unknown;
+            synchronized (seats) {
+                unknown = early.remove(ticket, connection);
+            }
+            if (unknown) {
+                connection.refuseTicket();
+            }
+        }, ARRIVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void seat(Seat seat, NewServer.ClientHandler connection) {
+        if (!connection.takeClusterName(seat.name)) {
+            release(seat.name); // Disconnected while arriving
+            return;
+        }
+        ServerLog.info("{} arrived for match {}", seat.name, seat.gathering.match.id);
+        NewServer.runOnLobby(() -> arrived(seat.gathering, connection));
+    }
+
+    // Runs on the backend's thread, so the host usually knows the tickets before the hub tells the
+    // other nodes (it is told first) and their players arrive
+    private static void onMatched(ClusterHub.Match match) {
+        boolean hosting = match.host.equals(node);
+        Gathering gathering = new Gathering(match);
+        Map<String, Seat> expected = new HashMap<>();
+        PlayerRegistry players = NewServer.players();
+        for (int i = 0; i < match.names.size(); i++) {
+            queued.remove(match.names.get(i));
+            NewServer.ClientHandler local = players.byName(match.names.get(i));
+            boolean waiting = local != null && players.state(local) == PlayerRegistry.State.WAITING;
+            if (hosting && waiting) {
+                gathering.arrived.add(local);
+            } else if (hosting) {
+                expected.put(match.tickets.get(i), new Seat(match.names.get(i), gathering));
+            } else if (waiting) {
+                local.sendMessage(OutboundMessage.redirect(match.hostAddress, match.tickets.get(i)));
+                ServerLog.info("{} is redirected to {} for match {}", local.getPlayerName(), match.host, match.id);
+            }
+        }
+        if (!hosting) {
+            return;
+        }
+        Map<Seat, NewServer.ClientHandler> alreadyHere = new HashMap<>();
+        synchronized (seats) {
+            if (expected.isEmpty()) {
+                gathering.closed = true;
+            } else {
+                for (Map.Entry<String, Seat> entry : expected.entrySet()) {
+                    NewServer.ClientHandler connection = early.remove(entry.getKey());
+                    if (connection != null) {
+                        alreadyHere.put(entry.getValue(), connection);
+                    } else {
+                        seats.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                gathering.missing = expected.size();
+                gathering.deadline = TimerService.shared().schedule(
+                        () -> NewServer.runOnLobby(() -> giveUpWaiting(gathering)), ARRIVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (expected.isEmpty()) {
+            NewServer.runOnLobby(() -> start(gathering));
+        }
+        alreadyHere.forEach(Cluster::seat);
+    }
+
+    private static void arrived(Gathering gathering, NewServer.ClientHandler connection) {
+        boolean late;
+        boolean complete = false;
+        synchronized (seats) {
+            late = gathering.closed;
+            if (!late) {
+                gathering.arrived.add(connection);
+                complete = --gathering.missing == 0;
+                gathering.closed = complete;
+            }
+        }
+        if (late) {
+            requeue(connection); // Too late for this match, so into the next one
+        } else if (complete) {
+            gathering.deadline.cancel();
+            start(gathering);
+        }
+    }
+
+    // The arrival time is up: frees the names of players that did not come and starts without them
+    private static void giveUpWaiting(Gathering gathering) {
+        List<String> absent = new ArrayList<>();
+        synchronized (seats) {
+            if (gathering.closed) {
+                return;
+            }
+            gathering.closed = true;
+            for (Iterator<Seat> it = seats.values().iterator(); it.hasNext(); ) {
+                Seat seat = it.next();
+                if (seat.gathering == gathering) {
+                    absent.add(seat.name);
+                    it.remove();
+                }
+            }
+        }
+        ServerLog.info("Match {}: {} did not arrive", gathering.match.id, absent);
+        for (String name : absent) {
+            release(name);
+        }
+        start(gathering);
+    }
+
+    // Starts the gathered players' game, or queues them again if too few are left
+    private static void start(Gathering gathering) {
+        List<NewServer.ClientHandler> group = new ArrayList<>(gathering.arrived.size());
+        for (NewServer.ClientHandler client : gathering.arrived) {
+            if (NewServer.players().state(client) == PlayerRegistry.State.WAITING) {
+                group.add(client);
+            }
+        }
+        if (group.size() < GameRoom.MIN_PLAYERS_TO_CONTINUE) {
+            for (NewServer.ClientHandler client : group) {
+                requeue(client);
+            }
+            return;
+        }
+        NewServer.startClusterMatch(gathering.match.id, group);
+    }
+
+    private static void requeue(NewServer.ClientHandler client) {
+        if (NewServer.players().state(client) == PlayerRegistry.State.WAITING
+                && !queue(client, NewServer.rating(client.getPlayerName()))) {
+            NewServer.matchLocally(client);
+        }
+    }
+
+    // The hub forgot this node's queued players; they go to this node's own queue instead
+    private static void matchQueuedLocally() {
+        List<NewServer.ClientHandler> stranded = new ArrayList<>(queued.values());
+        queued.clear();
+        if (matchingLocally.compareAndSet(false, true)) {
+            ServerLog.warn("Cluster hub lost; {} queued players of {} are matched on this node", stranded.size(), node);
+        }
+        for (NewServer.ClientHandler client : stranded) {
+            if (NewServer.players().state(client) == PlayerRegistry.State.WAITING && client.getRoom() == null) {
+                NewServer.matchLocally(client);
+            }
+        }
+    }
+
+    // Hub events for this node
+    private static final class Events implements ClusterBackend.Listener {
+        @Override
+        public void matched(ClusterHub.Match match) {
+            onMatched(match);
+        }
+
+        @Override
+        public void matchEnded(Map<String, Integer> finalScores, List<String> winners) {
+            Leaderboard.shared().recordMatch(finalScores, winners);
+        }
+
+        @Override
+        public void lost() {
+            NewServer.runOnLobby(Cluster::matchQueuedLocally);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// State the server processes of a cluster share (see Cluster): which node each player name belongs
+// to, the cluster-wide matchmaking queue, and finished matches for everyone's leaderboard.
+// ClusterHub keeps that state; ClusterHub.InProcess is the backend of the node running the hub and
+// LoopbackClusterBackend reaches it from other processes on the same machine. Another store only
+// has to implement these calls.
+interface ClusterBackend {
+
+    // Told about cluster events, on the backend's thread or on the thread whose call caused them.
+    // Calls must not block that thread: they update state and enqueue messages for clients.
+    interface Listener {
+        // A group with players of this node, or hosted by this node, was formed
+        void matched(ClusterHub.Match match);
+
+        // A match ended on some node, this one included
+        void matchEnded(Map<String, Integer> finalScores, List<String> winners);
+
+        // The shared state can no longer be reached, and it forgets this node's players: the node
+        // has to match those it queued itself
+        void lost();
+    }
+
+    // Registers this node; clients are sent to address ("host:port") for matches it hosts
+    void join(String node, String address, Listener listener) throws IOException;
+
+    // Reserves a name cluster-wide for a player of this node and passes claimed the name it got,
+    // with a "#2", "#3", ... suffix if taken, or null if the backend did not answer. Never blocks:
+    // claimed runs on the caller's thread, the backend's or the timer's.
+    void claimName(String requested, Consumer<String> claimed);
+
+    // Frees a name this node owns and takes the player out of the queue; ignored once the player
+    // was handed to another node
+    void releaseName(String name);
+
+    // Queues a player of this node for a cluster match. Returns false if the backend cannot take
+    // the player, who is then to be matched on this node.
+    boolean enqueue(String name, double rating);
+
+    // Sends a finished match to every node. Returns false if it could not, and the node records
+    // it itself.
+    boolean publishMatch(Map<String, Integer> finalScores, List<String> winners);
+}
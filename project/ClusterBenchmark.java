@@ -0,0 +1,160 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Aggregate throughput of a cluster (see Cluster) against its node count. For each count it starts
+// that many NewServer processes on loopback, the first one running the hub, then runs LoadGenerator
+// against all of them with the same number of players per node and reads its report: games and
+// messages per second over the whole cluster, redirects, and the p99 latencies. Nodes run with
+// leaderboard snapshots, journal and JMX off and log WARN; their output goes to a temporary
+// directory that is printed. All processes share this machine, so throughput can only grow with
+// nodes while there are cores for them.
+// Usage: ClusterBenchmark [nodeCounts] [playersPerNode] [rounds] [mode]
+//   defaults 1,2,4  200  3  nio (the connection model of the nodes)
+//   -Dbench.basePort=<n>     port of the first node (default 12400); the hub listens on basePort - 1
+//   -Dbench.think=<millis>   mean think time of the simulated players (default 50)
+class ClusterBenchmark {
+    private static final Pattern PLAYERS = Pattern.compile("players\\s+(\\d+) finished.*; (\\d+) games played");
+    private static final Pattern MESSAGES = Pattern.compile("messages\\s+sent (\\d+)/s, received (\\d+)/s .* over ([\\d.]+) s");
+    private static final Pattern REDIRECTS = Pattern.compile("redirects\\s+(\\d+)");
+    private static final Pattern LATENCY = Pattern.compile("(READY|UPDATE_SCORE)\\s+\\d+\\s+\\d+\\s+(\\d+)");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String[] nodeCounts = (args.length > 0 ? args[0] : "1,2,4").split(",");
+        int playersPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        String mode = args.length > 3 ? args[3] : "nio";
+        int basePort = Integer.getInteger("bench.basePort", 12400);
+        String think = Long.toString(Long.getLong("bench.think", 50));
+        Path logs = Files.createTempDirectory("cluster-benchmark");
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("Node logs: " + logs);
+        System.out.println("nodes  players  finished  games/s  sent msg/s  received msg/s  redirects  READY p99 us  UPDATE p99 us");
+        for (String count : nodeCounts) {
+            int nodes = Integer.parseInt(count.trim());
+            List<Process> servers = new ArrayList<>(nodes);
+            try {
+                StringBuilder ports = new StringBuilder();
+                for (int i = 0; i < nodes; i++) {
+                    int port = basePort + i;
+                    String cluster = i == 0 ? "-Dserver.cluster.hubPort=" + (basePort - 1) : "-Dserver.cluster.join=" + (basePort - 1);
+                    servers.add(start(logs.resolve("node-" + nodes + "-" + i + ".log").toFile(),
+                            "-Dserver.port=" + port, cluster, "-Dserver.leaderboard.persist=false", "-Dserver.journal=false",
+                            "-Dserver.jmx=false", "-Dserver.logLevel=WARN", "network.project.NewServer", mode));
+                    awaitPort(port);
+                    ports.append(i > 0 ? "," : "").append(port);
+                }
+                print(nodes, playersPerNode * nodes, runLoad(playersPerNode * nodes, rounds, think, ports.toString()));
+            } finally {
+                for (Process server : servers) {
+                    server.destroy();
+                }
+                for (Process server : servers) {
+                    server.waitFor();
+                }
+            }
+        }
+    }
+
+    private static Process start(File log, String... arguments) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(javaCommand());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.addAll(Arrays.asList(arguments));
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+    }
+
+    // Waits until the node accepts connections, up to ten seconds
+    private static void awaitPort(int port) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try {
+                new Socket(InetAddress.getLoopbackAddress(), port).close();
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("Node on port " + port + " did not start", e);
+                }
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+        }
+    }
+
+    // Runs LoadGenerator in its own process and returns its report
+    private static List<String> runLoad(int players, int rounds, String think, String ports) throws IOException, InterruptedException {
+        Process load = new ProcessBuilder(javaCommand(), "-cp", System.getProperty("java.class.path"),
+                "network.project.LoadGenerator", Integer.toString(players), Integer.toString(rounds), "5", think,
+                "127.0.0.1", ports).redirectErrorStream(true).start();
+        List<String> report = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(load.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                report.add(line);
+            }
+        }
+        load.waitFor();
+        return report;
+    }
+
+    private static void print(int nodes, int players, List<String> report) {
+        long finished = 0;
+        double games = 0;
+        double sent = 0;
+        double received = 0;
+        double seconds = 0;
+        long redirects = 0;
+        String readyP99 = "-";
+        String updateP99 = "-";
+        for (String line : report) {
+            Matcher m;
+            if ((m = PLAYERS.matcher(line)).find()) {
+                finished = Long.parseLong(m.group(1));
+                games = Long.parseLong(m.group(2));
+            } else if ((m = MESSAGES.matcher(line)).find()) {
+                sent = Double.parseDouble(m.group(1));
+                received = Double.parseDouble(m.group(2));
+                seconds = Double.parseDouble(m.group(3));
+            } else if ((m = REDIRECTS.matcher(line)).find()) {
+                redirects = Long.parseLong(m.group(1));
+            } else if ((m = LATENCY.matcher(line)).find()) {
+                if (m.group(1).equals("READY")) {
+                    readyP99 = m.group(2);
+                } else {
+                    updateP99 = m.group(2);
+                }
+            }
+        }
+        if (seconds == 0) {
+            System.out.println("LoadGenerator gave no report for " + nodes + " nodes:");
+            report.forEach(System.out::println);
+            return;
+        }
+        System.out.printf("%5d %8d %9d %8.1f %11.0f %15.0f %10d %13s %14s%n", nodes, players, finished, games / seconds,
+                sent, received, redirects, readyP99, updateP99);
+    }
+
+    // The java launcher of this JVM, so the nodes run on the same version
+    private static String javaCommand() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+}
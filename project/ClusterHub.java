@@ -0,0 +1,242 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Shared state of a cluster, kept by the node started with -Dserver.cluster.hubPort: every claimed
+// player name with the node that owns it, and one Matchmaker over the queued players of all nodes.
+// When a group forms, the node that already has most of its players (the one with fewer players on
+// a tie) hosts it: the hub hands it the other players' names and gives every player a ticket to
+// present there. Nodes are told through their ClusterBackend.Listener, never while the hub's lock
+// is held, so a listener may call back into the hub.
+final class ClusterHub {
+    private static final SecureRandom random = new SecureRandom();
+
+    // A group and where it plays. Sent to the host and to every node with a player in it.
+    static final class Match {
+        final long id;
+        final String host; // Node that starts the game
+        final String hostAddress; // Where players of other nodes connect to, "host:port"
+        final List<String> names; // In rating order
+        final List<String> tickets; // tickets.get(i) lets names.get(i) JOIN on the host
+
+        Match(long id, String host, String hostAddress, List<String> names, List<String> tickets) {
+            this.id = id;
+            this.host = host;
+            this.hostAddress = hostAddress;
+            this.names = names;
+            this.tickets = tickets;
+        }
+    }
+
+    private static final class Node {
+        final String id;
+        final String address;
+        final ClusterBackend.Listener listener;
+        int players = 0; // Names it owns
+
+        Node(String id, String address, ClusterBackend.Listener listener) {
+            this.id = id;
+            this.address = address;
+            this.listener = listener;
+        }
+    }
+
+    private final Matchmaker<String> matchmaker = new Matchmaker<>(GameRoom.MIN_PLAYERS_TO_CONTINUE,
+            GameRoom.MAX_PLAYERS_FOR_GAME, Matchmaker.PARTIAL_AFTER_NANOS, Matchmaker.BASE_WINDOW, Matchmaker.WIDEN_PER_SECOND);
+
+    // Guarded by this
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final Map<String, Node> owners = new HashMap<>();
+    private long nextMatch = 1;
+    private boolean ticking = false;
+
+    // Adds a node, or replaces a restarted one whose players are gone
+    synchronized void join(String node, String address, ClusterBackend.Listener listener) {
+        Node previous = nodes.put(node, new Node(node, address, listener));
+        if (previous != null) {
+            forget(previous);
+        }
+        ServerLog.info("Cluster node {} joined at {}", node, address);
+        if (!ticking) {
+            ticking = true;
+            TimerService.shared().schedule(this::tick, Matchmaker.RETRY_NANOS, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Drops a node that went away, with its players; ignored if it already rejoined
+    synchronized void leave(String node, ClusterBackend.Listener listener) {
+        Node current = nodes.get(node);
+        if (current != null && current.listener == listener) {
+            nodes.remove(node);
+            forget(current);
+            ServerLog.warn("Cluster node {} left", node);
+        }
+    }
+
+    synchronized String claimName(String node, String requested) {
+        Node owner = nodes.get(node);
+        if (owner == null) {
+            return null;
+        }
+        String name = requested;
+        for (int suffix = 2; owners.putIfAbsent(name, owner) != null; suffix++) {
+            name = requested + "#" + suffix;
+        }
+        owner.players++;
+        return name;
+    }
+
+    synchronized void releaseName(String node, String name) {
+        Node owner = owners.get(name);
+        if (owner != null && owner == nodes.get(node)) {
+            owners.remove(name);
+            owner.players--;
+            matchmaker.remove(name);
+        }
+    }
+
+    void enqueue(String node, String name, double rating) {
+        List<Runnable> deliveries = Collections.emptyList();
+        synchronized (this) {
+            Node owner = owners.get(name);
+            if (owner == null || owner != nodes.get(node)) {
+                return; // Released or handed over meanwhile
+            }
+            Matchmaker.Match<String> group = matchmaker.enqueue(name, rating, System.nanoTime());
+            if (group != null) {
+                deliveries = place(group);
+            }
+        }
+        deliveries.forEach(Runnable::run);
+    }
+
+    void publishMatch(Map<String, Integer> finalScores, List<String> winners) {
+        List<ClusterBackend.Listener> listeners = new ArrayList<>();
+        synchronized (this) {
+            for (Node node : nodes.values()) {
+                listeners.add(node.listener);
+            }
+        }
+        for (ClusterBackend.Listener listener : listeners) {
+            listener.matchEnded(finalScores, winners);
+        }
+    }
+
+    // Retries queued players once a second, as NewServer does for its own queue
+    private void tick() {
+        List<Runnable> deliveries = new ArrayList<>();
+        synchronized (this) {
+            for (Matchmaker.Match<String> group : matchmaker.tick(System.nanoTime())) {
+                deliveries.addAll(place(group));
+            }
+        }
+        deliveries.forEach(Runnable::run);
+        TimerService.shared().schedule(this::tick, Matchmaker.RETRY_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    // Picks the host, hands it the group's names and returns the notifications to send. Caller holds this.
+    private List<Runnable> place(Matchmaker.Match<String> group) {
+        Map<Node, Integer> members = new LinkedHashMap<>();
+        for (String name : group.players) {
+            members.merge(owners.get(name), 1, Integer::sum);
+        }
+        Node host = null;
+        for (Map.Entry<Node, Integer> entry : members.entrySet()) {
+            Node node = entry.getKey();
+            if (host == null || entry.getValue() > members.get(host)
+                    || (entry.getValue().equals(members.get(host)) && node.players < host.players)) {
+                host = node;
+            }
+        }
+        List<String> tickets = new ArrayList<>(group.players.size());
+        for (String name : group.players) {
+            Node owner = owners.put(name, host);
+            owner.players--;
+            host.players++;
+            tickets.add(ticket());
+        }
+        Match match = new Match(nextMatch++, host.id, host.address, group.players, tickets);
+        // The host first, so it expects the players before anyone is sent there
+        List<Runnable> deliveries = new ArrayList<>(members.size());
+        Node chosen = host;
+        deliveries.add(() -> chosen.listener.matched(match));
+        for (Node node : members.keySet()) {
+            if (node != host) {
+                deliveries.add(() -> node.listener.matched(match));
+            }
+        }
+        return deliveries;
+    }
+
+    // Forgets a node's names and queued players. Caller holds this.
+    private void forget(Node node) {
+        for (Iterator<Map.Entry<String, Node>> it = owners.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Node> entry = it.next();
+            if (entry.getValue() == node) {
+                matchmaker.remove(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    private static String ticket() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder ticket = new StringBuilder(32);
+        for (byte b : bytes) {
+            ticket.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return ticket.toString();
+    }
+
+    // Backend of the node that runs the hub: calls go straight to it
+    static final class InProcess implements ClusterBackend {
+        private final ClusterHub hub;
+        private volatile String node;
+
+        InProcess(ClusterHub hub) {
+            this.hub = hub;
+        }
+
+        @Override
+        public void join(String node, String address, Listener listener) {
+            this.node = node;
+            hub.join(node, address, listener);
+        }
+
+        @Override
+        public void claimName(String requested, Consumer<String> claimed) {
+            claimed.accept(hub.claimName(node, requested));
+        }
+
+        @Override
+        public void releaseName(String name) {
+            hub.releaseName(node, name);
+        }
+
+        @Override
+        public boolean enqueue(String name, double rating) {
+            hub.enqueue(node, name, rating);
+            return true;
+        }
+
+        @Override
+        public boolean publishMatch(Map<String, Integer> finalScores, List<String> winners) {
+            hub.publishMatch(finalScores, winners);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+// Commands dispatched per second on one core, and bytes allocated per command, for the original
+// String-based if/else chain versus CommandRegistry. The "decoder" rows include line/frame splitting
+// by InboundDecoder, as on a live connection. Handlers only count, so the numbers are pure dispatch cost.
+// Usage: CommandDispatchBenchmark [commands]
+class CommandDispatchBenchmark {
+    private static final Charset CHARSET = Charset.defaultCharset();
+    // Mix seen during a game: mostly score updates
+    private static final String[] LINES = {"UPDATE_SCORE:1250", "UPDATE_SCORE:-40", "READY", "UPDATE_SCORE: 3000 ",
+            "SCORES_RESYNC", "UPDATE_SCORE:17", "GAME_FINISHED", "UPDATE_SCORE:99999"};
+
+    // Sink so the JIT cannot drop the work being measured
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int commands = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+
+        CommandRegistry registry = new CommandRegistry()
+                .register("READY", BinaryCodec.READY, (client, a) -> count(1))
+                .register("LEAVE", BinaryCodec.LEAVE, (client, a) -> count(2))
+                .register("UPDATE_SCORE", BinaryCodec.UPDATE_SCORE, (client, a) -> count(a.nextInt()))
+                .register("CAPS", CommandRegistry.NO_OPCODE, (client, a) -> count(a.remainingText().length()))
+                .register("SCORES_RESYNC", BinaryCodec.SCORES_RESYNC, (client, a) -> count(3))
+                .register("GAME_FINISHED", BinaryCodec.GAME_FINISHED, (client, a) -> count(4));
+
+        byte[][] lines = new byte[LINES.length][];
+        for (int i = 0; i < LINES.length; i++) {
+            lines[i] = LINES[i].getBytes(CHARSET);
+        }
+        byte[] textStream = stream(lines, false, 1024);
+        byte[] binaryStream = stream(lines, true, 1024);
+
+        System.out.println("path                      Mcommands/s  bytes/command");
+        for (int round = 0; round < 2; round++) { // First round is warm-up
+            boolean print = round == 1;
+            report("if/else + String", print, commands, () -> legacy(lines, commands));
+            report("registry", print, commands, () -> registry(registry, lines, commands));
+            report("decoder + registry text", print, commands, () -> decoder(registry, textStream, lines.length * 1024, commands, false));
+            report("decoder + registry binary", print, commands, () -> decoder(registry, binaryStream, lines.length * 1024, commands, true));
+        }
+        if (blackhole == 42) {
+            System.out.println();
+        }
+    }
+
+    private static boolean count(int value) {
+        blackhole += value;
+        return true;
+    }
+
+    private static void report(String label, boolean print, int commands, Runnable work) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        work.run();
+        long nanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        if (print) {
+            System.out.printf("%-25s %11.1f  %13.2f%n", label, commands * 1000.0 / nanos, (double) allocated / commands);
+        }
+    }
+
+    // The dispatch the server used before CommandRegistry, without its logging
+    private static void legacy(byte[][] lines, int commands) {
+        for (int i = 0; i < commands; i++) {
+            byte[] line = lines[i % lines.length];
+            String input = new String(line, 0, line.length, CHARSET);
+            if ("READY".equals(input)) {
+                count(1);
+            } else if ("LEAVE".equals(input)) {
+                count(2);
+            } else if (input.startsWith("UPDATE_SCORE:")) {
+                count(Integer.parseInt(input.substring(13).trim()));
+            } else if (input.startsWith("CAPS:")) {
+                count(input.substring(5).length());
+            } else if ("SCORES_RESYNC".equals(input)) {
+                count(3);
+            } else if ("GAME_FINISHED".equals(input)) {
+                count(4);
+            }
+        }
+    }
+
+    private static void registry(CommandRegistry registry, byte[][] lines, int commands) {
+        CommandRegistry.Args args = new CommandRegistry.Args();
+        for (int i = 0; i < commands; i++) {
+            byte[] line = lines[i % lines.length];
+            CommandRegistry.Command command = registry.findText(line, 0, line.length);
+            args.text(line, 0, line.length, command);
+            command.handler.handle(null, args);
+        }
+    }
+
+    private static void decoder(CommandRegistry registry, byte[] stream, int perStream, int commands, boolean binary) {
+        CommandRegistry.Args args = new CommandRegistry.Args();
+        InboundDecoder decoder = new InboundDecoder(new InboundDecoder.Handler() {
+            @Override
+            public boolean onLine(byte[] data, int offset, int length) {
+                CommandRegistry.Command command = registry.findText(data, offset, length);
+                args.text(data, offset, length, command);
+                return command.handler.handle(null, args);
+            }
+
+            @Override
+            public boolean onFrame(byte type, byte[] data, int offset, int length) {
+                args.binary(data, offset, length);
+                return registry.findOpcode(type).handler.handle(null, args);
+            }
+
+            @Override
+            public void onProtocolError(String reason) {
+                throw new IllegalStateException(reason);
+            }
+        });
+        if (binary) {
+            decoder.switchToBinary();
+        }
+        // Feed in socket-read sized chunks
+        for (int done = 0; done < commands; done += perStream) {
+            for (int offset = 0; offset < stream.length; offset += 4096) {
+                decoder.feed(stream, offset, Math.min(4096, stream.length - offset));
+            }
+        }
+    }
+
+    // The commands repeated, encoded as newline-terminated lines or as BinaryCodec frames
+    private static byte[] stream(byte[][] lines, boolean binary, int repeat) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int r = 0; r < repeat; r++) {
+            for (int i = 0; i < lines.length; i++) {
+                if (!binary) {
+                    out.write(lines[i], 0, lines[i].length);
+                    out.write('\n');
+                    continue;
+                }
+                String line = LINES[i];
+                BinaryCodec.FrameBuilder frame;
+                if (line.startsWith("UPDATE_SCORE:")) {
+                    frame = new BinaryCodec.FrameBuilder(BinaryCodec.UPDATE_SCORE).writeZigZag(Integer.parseInt(line.substring(13).trim()));
+                } else if (line.equals("READY")) {
+                    frame = new BinaryCodec.FrameBuilder(BinaryCodec.READY);
+                } else if (line.equals("SCORES_RESYNC")) {
+                    frame = new BinaryCodec.FrameBuilder(BinaryCodec.SCORES_RESYNC);
+                } else {
+                    frame = new BinaryCodec.FrameBuilder(BinaryCodec.GAME_FINISHED);
+                }
+                byte[] bytes = frame.finish();
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
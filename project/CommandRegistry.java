@@ -0,0 +1,215 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Table of the commands a client can send. Text lines are matched on their command name straight
+// from the receive buffer (first byte selects a short candidate list), binary frames by their type
+// byte. Arguments are read in place through Args, so dispatching a known command allocates nothing.
+// New commands are added to the table built by NewServer.ClientHandler; the read loops stay unchanged.
+final class CommandRegistry {
+    static final byte NO_OPCODE = 0; // Command only exists in the text protocol
+
+    interface Handler {
+        // Returns false to close the connection
+        boolean handle(NewServer.ClientHandler client, Args args);
+    }
+
+    static final class Command {
+        final String name;
+        final byte opcode;
+        final Handler handler;
+        private final byte[] nameBytes;
+        private final LongAdder dispatched = new LongAdder(); // Per command, so connections do not share a counter
+
+        private Command(String name, byte opcode, Handler handler) {
+            this.name = name;
+            this.opcode = opcode;
+            this.handler = handler;
+            this.nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        // Counts one dispatch of this command
+        void countDispatch() {
+            dispatched.increment();
+        }
+
+        long dispatched() {
+            return dispatched.sum();
+        }
+    }
+
+    private static final Command[] NONE = new Command[0];
+
+    private final Command[][] byFirstByte = new Command[128][];
+    private final Command[] byOpcode = new Command[256];
+    private final List<Command> all = new ArrayList<>();
+
+    CommandRegistry() {
+        Arrays.fill(byFirstByte, NONE);
+    }
+
+    // Registers a command under its text name (upper-case ASCII) and, unless NO_OPCODE, a binary frame type
+    CommandRegistry register(String name, byte opcode, Handler handler) {
+        Command command = new Command(name, opcode, handler);
+        int first = command.nameBytes[0];
+        Command[] candidates = Arrays.copyOf(byFirstByte[first], byFirstByte[first].length + 1);
+        candidates[candidates.length - 1] = command;
+        byFirstByte[first] = candidates;
+        if (opcode != NO_OPCODE) {
+            if (byOpcode[opcode & 0xFF] != null) {
+                throw new IllegalArgumentException("Opcode " + opcode + " already used by " + byOpcode[opcode & 0xFF].name);
+            }
+            byOpcode[opcode & 0xFF] = command;
+        }
+        all.add(command);
+        return this;
+    }
+
+    // Finds the command a text line starts with. The name must be the whole line or be followed by ':'.
+    Command findText(byte[] line, int offset, int length) {
+        if (length == 0 || line[offset] < 0) {
+            return null;
+        }
+        for (Command command : byFirstByte[line[offset]]) {
+            byte[] name = command.nameBytes;
+            if (length < name.length || (length > name.length && line[offset + name.length] != ':')) {
+                continue;
+            }
+            if (Arrays.equals(line, offset, offset + name.length, name, 0, name.length)) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    Command findOpcode(byte opcode) {
+        return byOpcode[opcode & 0xFF];
+    }
+
+    // All registered commands, in registration order
+    List<Command> commands() {
+        return new ArrayList<>(all);
+    }
+
+    // Cursor over the arguments of the command being dispatched. One instance per connection is
+    // reused for every command; values are only valid during Handler.handle.
+    static final class Args {
+        private byte[] data;
+        private int position;
+        private int end;
+        private boolean binary;
+
+        // Text arguments: everything after "NAME:", comma separated
+        void text(byte[] line, int offset, int length, Command command) {
+            this.data = line;
+            this.position = Math.min(offset + command.nameBytes.length + 1, offset + length);
+            this.end = offset + length;
+            this.binary = false;
+        }
+
+        // Binary arguments: the frame payload after the type byte
+        void binary(byte[] payload, int offset, int length) {
+            this.data = payload;
+            this.position = offset;
+            this.end = offset + length;
+            this.binary = true;
+        }
+
+        // Reads a signed int: decimal text (surrounding spaces allowed) or a zigzag varint
+        int nextInt() {
+            return binary ? nextZigZag() : nextDecimal();
+        }
+
+        // Whether any arguments are left
+        boolean hasMore() {
+            return position < end;
+        }
+
+        // Reads a string: the remaining text, which may contain commas, or a length-prefixed UTF-8
+        // string. Allocates, like remainingText.
+        String nextString() {
+            if (!binary) {
+                return remainingText();
+            }
+            int length = nextVarInt();
+            if (length < 0 || length > end - position) {
+                throw new IllegalArgumentException("Truncated string");
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        // The remaining text arguments as one string, for commands that are rare enough to allocate
+        String remainingText() {
+            String value = new String(data, position, end - position, InboundDecoder.CHARSET);
+            position = end;
+            return value;
+        }
+
+        private int nextDecimal() {
+            skipSpaces();
+            boolean negative = false;
+            if (position < end && (data[position] == '-' || data[position] == '+')) {
+                negative = data[position] == '-';
+                position++;
+            }
+            int start = position;
+            long value = 0;
+            while (position < end && data[position] >= '0' && data[position] <= '9') {
+                value = value * 10 + (data[position++] - '0');
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    throw new NumberFormatException("Number out of range");
+                }
+            }
+            if (position == start) {
+                throw new NumberFormatException("Not a number");
+            }
+            skipSpaces();
+            if (position < end && data[position] == ',') {
+                position++;
+            } else if (position < end) {
+                throw new NumberFormatException("Unexpected character after number");
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Number out of range");
+            }
+            return (int) value;
+        }
+
+        private void skipSpaces() {
+            while (position < end && (data[position] == ' ' || data[position] == '\t')) {
+                position++;
+            }
+        }
+
+        private int nextZigZag() {
+            int raw = nextVarInt();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        private int nextVarInt() {
+            int raw = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (position == end) {
+                    throw new IllegalArgumentException("Truncated varint");
+                }
+                byte b = data[position++];
+                raw |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return raw;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+// Starts NewServer in-process with the given connection mode, opens N idle loopback connections
+// (connected but never answering ENTER_NAME) and reports live thread count and heap usage.
+// Usage: ConnectionModeComparison <thread|virtual|nio> <connections> [port]
+class ConnectionModeComparison {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "thread";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 12346;
+        // Keeps benchmark players out of leaderboard.dat and journal/ in the working directory
+        System.setProperty("server.leaderboard.persist", "false");
+        System.setProperty("server.journal", "false");
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        Thread server = new Thread(() -> {
+            try {
+                NewServer.runServer(mode, port, Runtime.getRuntime().availableProcessors());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "comparison-server");
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(500);
+
+        long baselineThreads = threads.getThreadCount();
+        long baselineHeap = usedHeapAfterGc(memory);
+
+        List<Socket> sockets = new ArrayList<>(connections);
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            sockets.add(new Socket("localhost", port));
+        }
+        while (NewServer.connectionCount() < connections) {
+            Thread.sleep(50);
+        }
+        long connectMillis = (System.nanoTime() - start) / 1_000_000;
+        Thread.sleep(1000); // Let handler threads settle into their first blocking read
+
+        long loadedThreads = threads.getThreadCount();
+        long loadedHeap = usedHeapAfterGc(memory);
+
+        System.out.println("Mode:              " + mode);
+        System.out.println("Connections:       " + connections + " (accepted in " + connectMillis + " ms)");
+        System.out.println("Live threads:      " + baselineThreads + " -> " + loadedThreads
+                + " (+" + (loadedThreads - baselineThreads) + ")");
+        System.out.println("Heap used (MB):    " + toMb(baselineHeap) + " -> " + toMb(loadedHeap)
+                + " (+" + toMb(loadedHeap - baselineHeap) + ", includes the client-side sockets in this JVM)");
+        System.out.println("Heap per conn (B): " + (loadedHeap - baselineHeap) / Math.max(1, connections));
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        System.exit(0);
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) throws InterruptedException {
+        System.gc();
+        Thread.sleep(200);
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static String toMb(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,587 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One match: its own waiting list, countdown, players, scoreboard and lifecycle. Starts, score
+// changes and results are kept in the MatchJournal, since the scoreboard is cleared at the end.
+// Every room has its own lock, so rooms never contend with each other; NewServer only
+// decides which room a READY player goes to. A room created for the lobby event loop is only
+// touched by the loop thread: it skips locking and runs its timer callbacks on that thread.
+class GameRoom {
+    static final int MIN_PLAYERS_TO_CONTINUE = 2;
+    static final int MAX_PLAYERS_FOR_GAME = 4;
+    private static final int COUNTDOWN_SECONDS = 30;
+
+    // With -Dserver.scoreTickMillis=N (N > 0) score changes are collected and broadcast at most once
+    // per N ms. The default 0 broadcasts every change immediately.
+    private static final long SCORE_TICK_MILLIS = Long.getLong("server.scoreTickMillis", 0);
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final int id = nextId.getAndIncrement();
+
+    private final LobbyEventLoop loop; // null when the room is shared by connection threads
+
+    // Guards all fields below. ReentrantLock so virtual threads don't pin while we write to sockets;
+    // LobbyEventLoop.NO_LOCK when the loop thread is the only one touching the room.
+    private final RoomLock lock;
+    private final List<NewServer.ClientHandler> waitingRoom = new ArrayList<>();
+    private final List<NewServer.ClientHandler> gamePlayers = new ArrayList<>(); // Players currently in game
+    private final Map<String, Integer> scoreboard = new LinkedHashMap<>(); // Keeps join order for display
+
+    // Incremented on every scoreboard change; clients that accept SCORE_DELTA use it to detect gaps
+    private long scoreSequence = 0;
+
+    // Score changes waiting for the next tick: latest score per player, null if the player left
+    private final Map<String, Integer> pendingScoreChanges = new LinkedHashMap<>();
+    private int pendingScoreUpdates = 0; // Updates received since the last flush, including overwritten ones
+    private boolean scoreFlushScheduled = false;
+
+    private boolean isTimerRunning = false;
+    private TimerService.Timeout countdown; // Next countdown tick, null when no countdown is running
+    private int countdownGeneration = 0; // Bumped on every start/cancel so a stale tick can tell it was replaced
+    private int countdownSeconds = COUNTDOWN_SECONDS;
+    private volatile int countdownShown = -1; // Last TIMER value sent, -1 when not counting down; read by JMX
+
+    private volatile boolean isGameActive = false;
+    private volatile boolean isFinished = false; // A finished room never accepts players again
+    // Questions of the running game, checked by AnswerValidator; null when no game is running
+    private volatile AnswerValidator.Match match;
+
+    GameRoom(LobbyEventLoop loop) {
+        this.loop = loop;
+        this.lock = loop != null ? LobbyEventLoop.NO_LOCK : new SharedRoomLock();
+    }
+
+    // All a room needs from its lock. Narrower than Lock, so a room cannot wait on a condition
+    // or try-lock, which the lobby loop's no-op lock could not honour.
+    interface RoomLock {
+        void lock();
+
+        void unlock();
+    }
+
+    // Lock of a room shared by connection threads
+    private static final class SharedRoomLock extends ReentrantLock implements RoomLock {
+        private static final long serialVersionUID = 1L;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    // Seconds left on the countdown as last broadcast, or -1 if none is running. Safe from any thread.
+    int countdownSecondsLeft() {
+        return countdownShown;
+    }
+
+    AnswerValidator.Match currentMatch() {
+        return match;
+    }
+
+    // Whether new players may still join this room
+    boolean isOpen() {
+        return !isGameActive && !isFinished;
+    }
+
+    // Adds a READY player to this room's waiting list. Returns false if the room is already
+    // playing, finished or full, in which case the caller should try another room.
+    boolean tryJoin(NewServer.ClientHandler client) {
+        lock.lock();
+        try {
+            if (!isOpen() || waitingRoom.size() >= MAX_PLAYERS_FOR_GAME) {
+                return false;
+            }
+            waitingRoom.add(client);
+            client.setRoom(this);
+            ServerLog.info("Room {}: {} joined waiting room. Current waiting: {}", id, client.getPlayerName(), waitingRoom.size());
+            broadcastWaitingList();
+            checkAndStartGame();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Seats a group formed by the Matchmaker and starts its game right away: the matchmaker already
+    // waited for the group, so there is no countdown
+    void startMatched(List<NewServer.ClientHandler> group) {
+        lock.lock();
+        try {
+            for (NewServer.ClientHandler client : group) {
+                waitingRoom.add(client);
+                client.setRoom(this);
+            }
+            broadcastWaitingList();
+            startGame();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Adds the match to the leaderboard; in a cluster every node's leaderboard gets it
+    private void recordStandings(List<String> winners) {
+        if (!Cluster.publishMatch(scoreboard, winners)) {
+            Leaderboard.shared().recordMatch(scoreboard, winners);
+        }
+    }
+
+    // Records a self-reported score from a player in this room's running game
+    void updateScore(NewServer.ClientHandler client, int newScore) {
+        lock.lock();
+        try {
+            if (isGameActive && isPlaying(client)) {
+                recordScore(client, newScore);
+            } else {
+                ServerLog.debug("Received score update from player not in active game: {}", client.getPlayerName());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Applies the new totals from one AnswerValidator batch, and ends the game if a player answered
+    // every question. Called on a validator worker; in lobby loop mode the work is posted to the loop.
+    void applyValidatedScores(AnswerValidator.Match validated, AnswerValidator.Scores scores) {
+        if (loop != null && !loop.isLoopThread()) {
+            loop.post(LobbyEventLoop.Event.validatedScores(() -> applyValidatedScores(validated, scores)));
+            return;
+        }
+        lock.lock();
+        try {
+            if (!isGameActive || match != validated) {
+                return; // The game these answers were for has ended
+            }
+            for (int i = 0; i < scores.players.size(); i++) {
+                NewServer.ClientHandler client = scores.players.get(i);
+                if (isPlaying(client)) {
+                    recordScore(client, scores.totals.get(i));
+                }
+            }
+            if (scores.finisher != null && isPlaying(scores.finisher)) {
+                ServerLog.info("Room {}: {} has answered every question.", id, scores.finisher.getPlayerName());
+                endGameDueToFinish();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the lock
+    private void recordScore(NewServer.ClientHandler client, int newScore) {
+        scoreboard.put(client.getPlayerName(), newScore);
+        MatchJournal.shared().scoreChanged(id, client.getPlayerName(), newScore);
+        if (ServerLog.isEnabled(ServerLog.Level.DEBUG)) { // Avoid boxing on every update when disabled
+            ServerLog.debug("Room {}: Score updated for {}: {}", id, client.getPlayerName(), newScore);
+        }
+        scoreChanged(client.getPlayerName(), newScore);
+    }
+
+    // Handles the logic when a player finishes the game (completes all questions)
+    void playerFinished(NewServer.ClientHandler client) {
+        lock.lock();
+        try {
+            ServerLog.info("Room {}: {} has finished the game (completed all questions).", id, client.getPlayerName());
+            if (!isGameActive || !isPlaying(client)) {
+                ServerLog.debug("Room {}: Game is not active. Ignoring GAME_FINISHED from {}", id, client.getPlayerName());
+                return;
+            }
+            // End the game immediately when the first player finishes
+            endGameDueToFinish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes a disconnected player from the room, ending the game if too few players remain
+    void remove(NewServer.ClientHandler client) {
+        lock.lock();
+        try {
+            if (waitingRoom.remove(client)) {
+                broadcastWaitingList();
+                checkAndStartGame();
+            }
+
+            boolean wasInGame = gamePlayers.remove(client);
+            if (client.getPlayerName() != null) {
+                scoreboard.remove(client.getPlayerName());
+            }
+            client.setRoom(null);
+            NewServer.players().setState(client, PlayerRegistry.State.LOBBY); // No-op once disconnected
+
+            // If the player who left *was* in the game, check if the game should now end prematurely
+            if (wasInGame && isGameActive) {
+                ServerLog.info("Room {}: Player {} left during active game. Current gamePlayers size after removal: {}", id, client.getPlayerName(), gamePlayers.size());
+                MatchJournal.shared().playerLeft(id, client.getPlayerName());
+                if (gamePlayers.size() < MIN_PLAYERS_TO_CONTINUE) {
+                    endGamePrematurely();
+                } else {
+                    scoreChanged(client.getPlayerName(), null);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Checks if game should start based on waiting room size and timer. Caller holds the lock.
+    private void checkAndStartGame() {
+        if (isGameActive) {
+            return; // Don't check or start if game is active
+        }
+
+        if (waitingRoom.size() >= MAX_PLAYERS_FOR_GAME) {
+            // If max players reached, start game immediately and cancel timer
+            cancelCountdown("Max players reached.");
+            startGame();
+        } else if (waitingRoom.size() >= MIN_PLAYERS_TO_CONTINUE && !isTimerRunning) {
+            // If min players reached and timer is not running, start timer
+            startCountdownTimer();
+        } else if (waitingRoom.size() < MIN_PLAYERS_TO_CONTINUE && isTimerRunning) {
+            cancelCountdown("Not enough players.");
+        }
+    }
+
+    private void cancelCountdown(String reason) {
+        countdownGeneration++;
+        if (countdown != null) {
+            countdown.cancel();
+            countdown = null;
+        }
+        countdownShown = -1;
+        if (isTimerRunning) {
+            isTimerRunning = false;
+            ServerMetrics.recordCountdownStopped();
+            ServerLog.debug("Room {}: Timer cancelled. {}", id, reason);
+        }
+    }
+
+    // Starts the countdown timer for game start. Caller holds the lock.
+    private void startCountdownTimer() {
+        if (isTimerRunning) return; // Prevent starting timer if already running
+        isTimerRunning = true;
+        countdownSeconds = COUNTDOWN_SECONDS; // Reset countdown time
+        ServerMetrics.recordCountdownStarted();
+        ServerLog.info("Room {}: Countdown timer started: {} seconds.", id, countdownSeconds);
+
+        scheduleCountdownTick(++countdownGeneration, 0); // First tick immediately
+    }
+
+    private void scheduleCountdownTick(int generation, long delayMillis) {
+        countdown = schedule(() -> countdownTick(generation), delayMillis);
+    }
+
+    // One countdown step: broadcast the remaining time, then schedule the next second or start the game
+    private void countdownTick(int generation) {
+        lock.lock();
+        try {
+            // Stop if this countdown was cancelled or replaced while the tick was waiting for the lock
+            if (generation != countdownGeneration || !isTimerRunning || isGameActive) {
+                return;
+            }
+
+            countdownShown = countdownSeconds;
+            broadcast(waitingRoom, OutboundMessage.timer(countdownSeconds));
+            ServerLog.debug("Room {}: Timer: {} seconds remaining", id, countdownSeconds);
+
+            if (countdownSeconds > 0) {
+                countdownSeconds--; // Decrement time
+                scheduleCountdownTick(generation, 1000);
+            } else {
+                // Timer reached zero
+                cancelCountdown("Countdown finished.");
+                if (waitingRoom.size() >= MIN_PLAYERS_TO_CONTINUE) {
+                    startGame(); // Start game if enough players
+                } else {
+                    ServerLog.info("Room {}: Timer finished, but not enough players to start game.", id);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Starts the game with players from the waiting room. Caller holds the lock.
+    private void startGame() {
+        isGameActive = true; // Set game state to active; the room stops accepting players
+        ServerLog.info("Room {}: Starting game with {} players.", id, waitingRoom.size());
+
+        // Move players from waiting room to game players list
+        gamePlayers.clear();
+        gamePlayers.addAll(waitingRoom);
+        waitingRoom.clear();
+
+        // Initialize scores for players in the game
+        scoreboard.clear();
+        for (NewServer.ClientHandler player : gamePlayers) {
+            scoreboard.put(player.getPlayerName(), 0); // Set initial score to 0
+            NewServer.players().setState(player, PlayerRegistry.State.IN_GAME);
+        }
+        MatchJournal.shared().matchStarted(id, new ArrayList<>(scoreboard.keySet()));
+        ServerMetrics.recordMatchStarted();
+
+        // Clients that let the server check answers get this game's questions before it starts
+        match = new AnswerValidator.Match(this, QuestionSet.generate(QuestionSet.DEFAULT_COUNT, System.nanoTime()));
+        OutboundMessage questions = OutboundMessage.questions(match.questions.prompts());
+        for (NewServer.ClientHandler player : gamePlayers) {
+            if (player.supportsServerQuestions()) {
+                player.sendMessage(questions);
+            }
+        }
+        broadcast(gamePlayers, OutboundMessage.gameStarted());
+        // Broadcast initial scores (all are 0)
+        sendScoreSnapshot(gamePlayers);
+
+        // Let the lobby route new READY players to a fresh room
+        NewServer.roomStarted(this);
+        ServerLog.info("Room {}: Game started.", id);
+    }
+
+    // Handles ending the game prematurely if players leave or game cannot continue. Caller holds the lock.
+    private void endGamePrematurely() {
+        MatchJournal.shared().matchEnded(id, false, scoreboard);
+        List<String> winners = Collections.emptyList();
+        String endMessageText;
+        if (gamePlayers.size() == 1) {
+            // Exactly one player remains - they win by default
+            String winnerName = gamePlayers.get(0).getPlayerName();
+            Integer winnerScore = scoreboard.get(winnerName); // Get their current score
+            ServerLog.info("Room {}: Only one player left. Winner: {}, Score: {}", id, winnerName, winnerScore);
+            winners = Collections.singletonList(winnerName);
+            MatchJournal.shared().winners(id, winners, winnerScore != null ? winnerScore : 0);
+            endMessageText = winnerName + " wins by default as all other players left! Final Score: " + winnerScore + " points.";
+        } else if (gamePlayers.isEmpty()) {
+            // All players left
+            ServerLog.info("Room {}: All players left.", id);
+            endMessageText = "Game ended because all players left. No winner.";
+        } else {
+            // More than one player left, but not enough to continue
+            ServerLog.info("Room {}: Not enough players ({}) to continue.", id, gamePlayers.size());
+            endMessageText = "Game ended due to insufficient players remaining.";
+        }
+
+        recordStandings(winners); // Players who left before the end are not counted
+
+        // Construct the full message including final scores before cleanup
+        finishGame(endMessageText + " Final Scores: " + getFormattedScores());
+    }
+
+    // Handles the game ending specifically when a player finishes all questions. Caller holds the lock.
+    private void endGameDueToFinish() {
+        ServerLog.info("Room {}: Game ending because a player finished all questions.", id);
+        MatchJournal.shared().matchEnded(id, true, scoreboard);
+        finishGame(calculateWinnerInfo());
+    }
+
+    // Releases the players back to the lobby, then sends the GAME_ENDED message, so a READY sent as
+    // soon as it arrives finds the player in the lobby. Caller holds the lock.
+    private void finishGame(String endInfo) {
+        isGameActive = false;
+        isFinished = true;
+        match = null; // Answers still queued for this game are ignored
+        ServerMetrics.recordMatchEnded();
+        OutboundMessage endMessage = OutboundMessage.gameEnded(endInfo);
+        List<NewServer.ClientHandler> players = new ArrayList<>(gamePlayers);
+        for (NewServer.ClientHandler player : players) {
+            player.setRoom(null); // Players may READY again for a new room
+            NewServer.players().setState(player, PlayerRegistry.State.LOBBY);
+        }
+
+        ServerLog.info("Room {}: Broadcasting {}", id, endMessage);
+        broadcast(players, endMessage);
+
+        // Reset game state; score changes still waiting for a tick are superseded by the final message
+        gamePlayers.clear();
+        scoreboard.clear();
+        pendingScoreChanges.clear();
+        pendingScoreUpdates = 0;
+        sendScoreSnapshot(players); // Broadcast empty scores
+        ServerLog.info("Room {}: Game ended.", id);
+    }
+
+    // Calculates the winner(s) based on the current scoreboard for game completion scenario
+    private String calculateWinnerInfo() {
+        if (scoreboard.isEmpty()) {
+            return "No players participated or scored.";
+        }
+
+        List<String> winners = findWinners(scoreboard);
+        int maxScore = scoreboard.get(winners.get(0));
+        ServerLog.info("Room {}: Winners found: {} with {}", id, winners, maxScore);
+        MatchJournal.shared().winners(id, winners, maxScore);
+        recordStandings(winners);
+        return describeWinners(winners, maxScore, scoreboard);
+    }
+
+    // Players with the highest score, in scoreboard order. One pass: a higher score replaces the
+    // winners so far, an equal one joins them.
+    static List<String> findWinners(Map<String, Integer> scoreboard) {
+        int maxScore = Integer.MIN_VALUE;
+        List<String> winners = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : scoreboard.entrySet()) {
+            int score = entry.getValue();
+            if (score > maxScore) {
+                maxScore = score;
+                winners.clear();
+            }
+            if (score == maxScore) {
+                winners.add(entry.getKey());
+            }
+        }
+        return winners;
+    }
+
+    // Text of GAME_ENDED after a player finished: the winner(s) and the final scores
+    static String describeWinners(List<String> winners, int maxScore, Map<String, Integer> scoreboard) {
+        StringBuilder winnerInfo = new StringBuilder();
+        if (winners.size() == 1) {
+            winnerInfo.append(winners.get(0)).append(" wins with ").append(maxScore).append(" points!");
+        } else {
+            winnerInfo.append("It's a tie between: ").append(String.join(" and ", winners))
+                      .append(" with ").append(maxScore).append(" points each!");
+        }
+        winnerInfo.append(". Final Scores: ").append(formatScores(scoreboard));
+        return winnerInfo.toString();
+    }
+
+    // Sends a client the full scoreboard again after it detected a gap in SCORE_DELTA sequence numbers
+    void resyncScores(NewServer.ClientHandler client) {
+        lock.lock();
+        try {
+            if (isPlaying(client)) {
+                sendScoreSnapshot(Collections.singletonList(client));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether the player is in this room's game; O(1), unlike searching gamePlayers
+    private boolean isPlaying(NewServer.ClientHandler client) {
+        return client.getRoom() == this && NewServer.players().state(client) == PlayerRegistry.State.IN_GAME;
+    }
+
+    // Sends the full scoreboard: SCORE_SNAPSHOT with the current sequence number to clients that
+    // accept deltas, the original SCORES message to everyone else. Caller holds the lock.
+    private void sendScoreSnapshot(List<NewServer.ClientHandler> recipients) {
+        long start = System.nanoTime();
+        OutboundMessage snapshot = null;
+        OutboundMessage legacy = null;
+        for (NewServer.ClientHandler client : recipients) {
+            if (client.supportsScoreDeltas()) {
+                if (snapshot == null) snapshot = OutboundMessage.scoreSnapshot(scoreSequence, scoreboard);
+                client.sendMessage(snapshot);
+            } else {
+                if (legacy == null) legacy = OutboundMessage.scores(scoreboard);
+                client.sendMessage(legacy);
+            }
+        }
+        ServerMetrics.recordBroadcast(recipients.size(), System.nanoTime() - start);
+    }
+
+    // Records a score change (null = player removed) and broadcasts it now, or on the next tick
+    // when coalescing is enabled. Caller holds the lock.
+    private void scoreChanged(String playerName, Integer score) {
+        pendingScoreChanges.put(playerName, score);
+        pendingScoreUpdates++;
+        if (SCORE_TICK_MILLIS <= 0) {
+            flushScoreChanges();
+        } else if (!scoreFlushScheduled) {
+            scoreFlushScheduled = true;
+            schedule(() -> {
+                lock.lock();
+                try {
+                    scoreFlushScheduled = false;
+                    if (isGameActive) {
+                        flushScoreChanges();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }, SCORE_TICK_MILLIS);
+        }
+    }
+
+    // Broadcasts the pending score changes. Delta clients get one SCORE_DELTA/SCORE_REMOVE per changed
+    // player; clients without delta support get a single full SCORES line, which is only built if at
+    // least one of them is in the room. Caller holds the lock.
+    private void flushScoreChanges() {
+        if (pendingScoreChanges.isEmpty()) {
+            return;
+        }
+        List<OutboundMessage> deltas = new ArrayList<>(pendingScoreChanges.size());
+        for (Map.Entry<String, Integer> change : pendingScoreChanges.entrySet()) {
+            scoreSequence++;
+            deltas.add(change.getValue() != null
+                    ? OutboundMessage.scoreDelta(scoreSequence, change.getKey(), change.getValue())
+                    : OutboundMessage.scoreRemove(scoreSequence, change.getKey()));
+        }
+        ServerMetrics.recordScoreFlush(pendingScoreUpdates);
+        pendingScoreChanges.clear();
+        pendingScoreUpdates = 0;
+
+        long start = System.nanoTime();
+        OutboundMessage legacy = null;
+        for (NewServer.ClientHandler client : gamePlayers) {
+            if (client.supportsScoreDeltas()) {
+                for (OutboundMessage delta : deltas) {
+                    client.sendMessage(delta);
+                }
+            } else {
+                if (legacy == null) legacy = OutboundMessage.scores(scoreboard);
+                client.sendMessage(legacy);
+            }
+        }
+        ServerMetrics.recordBroadcast(gamePlayers.size(), System.nanoTime() - start);
+    }
+
+    // Runs task after the delay: on the timer wheel thread, or posted to the lobby loop if the room belongs to it
+    private TimerService.Timeout schedule(Runnable task, long delayMillis) {
+        Runnable timerTask = loop == null ? task : () -> loop.post(LobbyEventLoop.Event.timerTick(task));
+        return TimerService.shared().schedule(timerTask, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Sends this room's waiting list to everyone waiting in it. Caller holds the lock.
+    private void broadcastWaitingList() {
+        List<String> names = new ArrayList<>();
+        for (NewServer.ClientHandler client : waitingRoom) {
+            names.add(client.getPlayerName());
+        }
+        broadcast(waitingRoom, OutboundMessage.waiting(names));
+    }
+
+    // Helper method to format scores string from the current scoreboard
+    private String getFormattedScores() {
+        return formatScores(scoreboard);
+    }
+
+    // name:score,name:score,... in scoreboard order
+    static String formatScores(Map<String, Integer> scoreboard) {
+        StringBuilder sb = new StringBuilder();
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : scoreboard.entrySet()) {
+            if (!first) {
+                sb.append(",");
+            }
+            sb.append(entry.getKey()).append(":").append(entry.getValue());
+            first = false;
+        }
+        return sb.toString();
+    }
+
+    // Hands the same message to every recipient, so each wire format is encoded only once
+    private static void broadcast(List<NewServer.ClientHandler> recipients, OutboundMessage message) {
+        long start = System.nanoTime();
+        for (NewServer.ClientHandler client : recipients) {
+            client.sendMessage(message);
+        }
+        ServerMetrics.recordBroadcast(recipients.size(), System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// Application-level keepalive for connections whose client sent CAPS:HEARTBEAT, so half-open
+// connections are closed within seconds instead of whenever TCP gives up on them.
+// Reading only stores a timestamp in the connection's Monitor. Deadlines live in a timing wheel of
+// 100 ms slots, each a plain list of monitors, advanced by one recurring TimerService task: a
+// connection costs a list append per check instead of a timer of its own, and a closed one is
+// simply dropped when its slot comes round. When a check finds the client quiet for the interval
+// it sends PING (answered with PONG; any other traffic counts as well). If nothing arrives within
+// the timeout after that, the connection is aborted and the usual disconnect handling follows
+// (with a session, the seat is held for the grace period).
+//   -Dserver.heartbeat.intervalSeconds=<n>  quiet time before a PING (default 5)
+//   -Dserver.heartbeat.timeoutSeconds=<n>   time to answer it (default 5)
+final class Heartbeat {
+    static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("server.heartbeat.intervalSeconds", 5));
+    static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("server.heartbeat.timeoutSeconds", 5));
+    static final long SLOT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final OutboundMessage PING = OutboundMessage.ping(); // One instance, encoded once per format
+
+    private static volatile Heartbeat shared;
+
+    private final TimerService timer;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final long startNanos = System.nanoTime();
+    private final Queue<Monitor> added = new ConcurrentLinkedQueue<>(); // Watched, not yet in a slot
+    private volatile boolean running = true;
+
+    // Only used by the wheel task. Slot n is processed SLOT_NANOS * (n + 1) after startNanos.
+    private final List<ArrayList<Monitor>> slots;
+    private ArrayList<Monitor> spare = new ArrayList<>();
+    private long slot = 0; // Next slot to process
+
+    Heartbeat(TimerService timer, long intervalNanos, long timeoutNanos) {
+        this.timer = timer;
+        this.intervalNanos = intervalNanos;
+        this.timeoutNanos = timeoutNanos;
+        int count = (int) (Math.max(intervalNanos, timeoutNanos) / SLOT_NANOS) + 2; // Any deadline fits ahead of the current slot
+        this.slots = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            slots.add(new ArrayList<>());
+        }
+        timer.schedule(this::advance, SLOT_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    // The server-wide instance, on the shared TimerService
+    static Heartbeat shared() {
+        Heartbeat heartbeat = shared;
+        if (heartbeat == null) {
+            synchronized (Heartbeat.class) {
+                heartbeat = shared;
+                if (heartbeat == null) {
+                    heartbeat = new Heartbeat(TimerService.shared(), INTERVAL_NANOS, TIMEOUT_NANOS);
+                    shared = heartbeat;
+                }
+            }
+        }
+        return heartbeat;
+    }
+
+    // Starts watching a connection. Safe to call from any thread.
+    Monitor watch(NewServer.ClientHandler connection) {
+        Monitor monitor = new Monitor(connection);
+        added.add(monitor);
+        return monitor;
+    }
+
+    // Stops the wheel; used by benchmarks with their own instance
+    void stop() {
+        running = false;
+    }
+
+    // Runs on the TimerService thread once per slot
+    private void advance() {
+        if (!running) {
+            return;
+        }
+        long now = System.nanoTime();
+        Monitor monitor;
+        while ((monitor = added.poll()) != null) {
+            place(monitor, monitor.lastReceived + intervalNanos - now, now);
+        }
+
+        int current = (int) (slot % slots.size());
+        ArrayList<Monitor> due = slots.get(current);
+        slots.set(current, spare); // Checks only place monitors into later slots
+        for (int i = 0; i < due.size(); i++) {
+            check(due.get(i), now);
+        }
+        due.clear();
+        spare = due;
+
+        slot++;
+        long next = startNanos + (slot + 1) * SLOT_NANOS; // Fixed rate, so slots do not drift
+        timer.schedule(this::advance, Math.max(0, next - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    private void check(Monitor monitor, long now) {
+        if (monitor.stopped) {
+            return; // Closed; leaving it out of the wheel is all there is to do
+        }
+        long last = monitor.lastReceived;
+        // A client that only answers PINGs is a little short of the interval when its next check
+        // comes round; it is pinged then rather than checked again a few slots later
+        if (now - last < intervalNanos - intervalNanos / 8) {
+            monitor.pingOutstanding = false;
+            place(monitor, last + intervalNanos - now, now); // Heard from the client; look again once it could be quiet
+            return;
+        }
+        if (!monitor.pingOutstanding || last - monitor.pingSent > 0) {
+            monitor.pingOutstanding = true;
+            monitor.pingSent = now;
+            ServerMetrics.recordHeartbeatPing();
+            monitor.connection.sendMessage(PING); // Only queued, so a client that stopped reading cannot hold up the wheel
+            place(monitor, timeoutNanos, now);
+            return;
+        }
+        ServerMetrics.recordHeartbeatTimeout();
+        ServerLog.info("No reply from {} for {} ms. Closing connection.", monitor.connection.getPlayerName(),
+                TimeUnit.NANOSECONDS.toMillis(now - last));
+        monitor.connection.abort();
+    }
+
+    // Puts a monitor into the first slot processed at least delay after now
+    private void place(Monitor monitor, long delayNanos, long now) {
+        long first = (now + delayNanos - startNanos + SLOT_NANOS - 1) / SLOT_NANOS - 1;
+        long target = Math.min(Math.max(first, slot + 1), slot + slots.size() - 1);
+        slots.get((int) (target % slots.size())).add(monitor);
+    }
+
+    // Liveness of one connection
+    static final class Monitor {
+        final NewServer.ClientHandler connection;
+        private volatile long lastReceived = System.nanoTime(); // Latest bytes from the client
+        private volatile boolean stopped = false;
+        private long pingSent; // When the unanswered PING went out; wheel task only
+        private boolean pingOutstanding = false;
+
+        private Monitor(NewServer.ClientHandler connection) {
+            this.connection = connection;
+        }
+
+        // Called by the connection for every read, on its reader thread
+        void received() {
+            lastReceived = System.nanoTime();
+        }
+
+        // Called when the connection closes
+        void stop() {
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Heartbeat cost and reaping time for many idle connections. Connections are in-process, without
+// sockets, all watched by one private Heartbeat on its own TimerService. A responder thread stands in for the
+// clients and their connection threads: it answers each PING with a PONG line fed through the
+// connection's decoder. Connections are never named on the server, so no roster traffic is mixed in.
+// First every client answers, and the CPU time of the wheel thread (checks and PINGs) and of the
+// responder (PONG decoding, plus the simulated clients) is measured over a few intervals. Then 1%
+// of the clients go silent, and the time until each is aborted is measured from that moment; the
+// bound is interval + timeout, plus up to two wheel slots of rounding. A client that still answers and gets aborted is a failure (exit 1).
+// Usage: HeartbeatBenchmark [connections] [intervalSeconds] [timeoutSeconds]
+class HeartbeatBenchmark {
+    private static final byte[] PONG = "PONG\n".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws InterruptedException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : Heartbeat.INTERVAL_NANOS / 1_000_000_000L);
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : Heartbeat.TIMEOUT_NANOS / 1_000_000_000L);
+        // Keeps benchmark players out of leaderboard.dat and journal/ in the working directory
+        System.setProperty("server.leaderboard.persist", "false");
+        System.setProperty("server.journal", "false");
+        ServerLog.setLevel(ServerLog.Level.WARN);
+
+        TimerService wheel = new TimerService("benchmark-wheel", 10, 512);
+        Heartbeat heartbeats = new Heartbeat(wheel, intervalNanos, timeoutNanos);
+        Queue<BenchmarkClient> pinged = new ConcurrentLinkedQueue<>();
+        List<BenchmarkClient> clients = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            BenchmarkClient client = new BenchmarkClient(pinged);
+            client.feed(("bench" + i + "\n").getBytes(StandardCharsets.UTF_8)); // Not registered, so no roster broadcast
+            client.startHeartbeat(heartbeats);
+            clients.add(client);
+        }
+        Thread responder = new Thread(() -> respond(pinged), "responder");
+        responder.setDaemon(true);
+        responder.start();
+
+        // Every client pings once before measuring, so checks are spread over the interval
+        TimeUnit.NANOSECONDS.sleep(intervalNanos + timeoutNanos);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long wheelThread = threadId("benchmark-wheel");
+        long wheelBefore = threads.getThreadCpuTime(wheelThread);
+        long responderBefore = threads.getThreadCpuTime(responder.getId());
+        long pingsBefore = ServerMetrics.heartbeatPings();
+        long begin = System.nanoTime();
+        TimeUnit.NANOSECONDS.sleep(3 * intervalNanos);
+        long elapsed = System.nanoTime() - begin;
+        double wheelPercent = 100.0 * (threads.getThreadCpuTime(wheelThread) - wheelBefore) / elapsed;
+        double responderPercent = 100.0 * (threads.getThreadCpuTime(responder.getId()) - responderBefore) / elapsed;
+        double pingsPerSecond = (ServerMetrics.heartbeatPings() - pingsBefore) * 1e9 / elapsed;
+
+        int dead = Math.max(1, connections / 100);
+        long silentSince = System.nanoTime();
+        for (int i = 0; i < connections; i += connections / dead) {
+            clients.get(i).silent = true;
+        }
+        long limit = silentSince + 2 * (intervalNanos + timeoutNanos);
+        while (BenchmarkClient.aborted.get() < dead && System.nanoTime() < limit) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        long maxReap = 0;
+        long totalReap = 0;
+        int reaped = 0;
+        int wronglyReaped = 0;
+        for (BenchmarkClient client : clients) {
+            if (client.abortedAt == 0) {
+                continue;
+            }
+            if (!client.silent) {
+                wronglyReaped++;
+                continue;
+            }
+            long reap = client.abortedAt - silentSince;
+            maxReap = Math.max(maxReap, reap);
+            totalReap += reap;
+            reaped++;
+        }
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("connections %d, interval %d s, timeout %d s%n", connections,
+                TimeUnit.NANOSECONDS.toSeconds(intervalNanos), TimeUnit.NANOSECONDS.toSeconds(timeoutNanos));
+        System.out.printf("PINGs/s %.0f, wheel thread %.2f%% of a core, responder %.2f%% of a core%n",
+                pingsPerSecond, wheelPercent, responderPercent);
+        System.out.printf("silent %d, reaped %d, avg %.2f s, max %.2f s (bound %.1f s), live clients reaped %d%n",
+                dead, reaped, reaped == 0 ? 0 : totalReap / 1e9 / reaped, maxReap / 1e9,
+                (intervalNanos + timeoutNanos + 2 * Heartbeat.SLOT_NANOS) / 1e9, wronglyReaped);
+        heartbeats.stop();
+        wheel.stop();
+        if (wronglyReaped > 0 || reaped < dead) {
+            System.exit(1);
+        }
+    }
+
+    // Answers PINGs for the clients that still do, as their remote ends would
+    private static void respond(Queue<BenchmarkClient> pinged) {
+        while (true) {
+            BenchmarkClient client = pinged.poll();
+            if (client == null) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            } else if (!client.silent) {
+                client.feed(PONG);
+            }
+        }
+    }
+
+    private static long threadId(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) {
+                return thread.getId();
+            }
+        }
+        throw new IllegalStateException("No thread " + name);
+    }
+
+    private static final class BenchmarkClient extends NewServer.ClientHandler {
+        static final AtomicInteger aborted = new AtomicInteger();
+
+        private final Queue<BenchmarkClient> pinged;
+        volatile boolean silent = false;
+        volatile long abortedAt = 0;
+
+        BenchmarkClient(Queue<BenchmarkClient> pinged) {
+            this.pinged = pinged;
+        }
+
+        void feed(byte[] line) {
+            onBytesReceived(line, 0, line.length);
+        }
+
+        @Override
+        protected boolean isOpen() {
+            return abortedAt == 0;
+        }
+
+        @Override
+        protected void write(OutboundMessage message) {
+            onWritten(message.bytes(false).length); // Counts as delivered right away
+            if (message.type() == OutboundMessage.Type.PING) {
+                pinged.add(this);
+            }
+        }
+
+        @Override
+        int outboundQueueDepth() {
+            return 0;
+        }
+
+        @Override
+        protected void abort() {
+            abortedAt = System.nanoTime();
+            aborted.incrementAndGet();
+        }
+
+        @Override
+        protected String describeConnection() {
+            return "benchmark";
+        }
+
+        @Override
+        protected void closeResources() {
+        }
+    }
+}
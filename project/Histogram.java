@@ -0,0 +1,64 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Distribution of non-negative values in power-of-two buckets. Recording is three LongAdder adds
+// and a max, so threads recording at once do not contend. Percentiles are the upper end of the
+// bucket they fall in, capped at the maximum: within a factor of two, which is enough to see a
+// fan-out or a duration jump by an order of magnitude.
+final class Histogram {
+    private final LongAdder[] buckets = new LongAdder[65]; // Bucket b holds values of bit length b
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long value) {
+        long clamped = Math.max(0, value);
+        buckets[64 - Long.numberOfLeadingZeros(clamped)].increment();
+        count.increment();
+        sum.add(clamped);
+        max.accumulate(clamped);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    // Upper bound of the value below which the given fraction of recorded values lie
+    long percentile(double fraction) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int b = 0; b < buckets.length; b++) {
+            seen += buckets[b].sum();
+            if (seen >= rank) {
+                long upper = b == 0 ? 0 : b == 64 ? Long.MAX_VALUE : (1L << b) - 1;
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get(); // Values recorded while counting
+    }
+}
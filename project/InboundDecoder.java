@@ -0,0 +1,133 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// Splits the bytes received from one client into protocol units: newline-terminated text lines
+// until switchToBinary() is called, length-prefixed BinaryCodec frames after that. Used by both
+// the thread-per-client reader and the NIO reactors. Not thread-safe; one reader per connection.
+final class InboundDecoder {
+    static final int MAX_LINE_LENGTH = 64 * 1024; // Guard against clients that never send a newline
+
+    // Same charset InputStreamReader used for the text protocol
+    static final Charset CHARSET = Charset.defaultCharset();
+
+    // The byte ranges passed to the handler point into the decoder's buffer and are only valid
+    // during the call, so commands can be dispatched without copying them.
+    interface Handler {
+        // One line without its terminator. Returns false to stop reading from the connection.
+        boolean onLine(byte[] data, int offset, int length);
+
+        // The payload after the type byte. Returns false to stop reading.
+        boolean onFrame(byte type, byte[] data, int offset, int length);
+
+        void onProtocolError(String reason);
+    }
+
+    private final Handler handler;
+    private byte[] pending = new byte[256]; // Received bytes not yet decoded
+    private int length = 0;
+    private int scanned = 0; // Bytes of the current text line already searched for '\n'
+    private boolean binary = false;
+    private boolean lastResult; // Return value of the handler call for the last decoded unit
+
+    InboundDecoder(Handler handler) {
+        this.handler = handler;
+    }
+
+    // Takes effect for the bytes after the unit that is currently being handled
+    void switchToBinary() {
+        binary = true;
+    }
+
+    // Decodes as many complete units as possible. Returns false once the handler asked to stop or
+    // the input was malformed; the connection should then be closed.
+    boolean feed(byte[] data, int offset, int count) {
+        append(data, offset, count);
+        int start = 0;
+        boolean keepReading = true;
+        while (keepReading) {
+            int consumed = binary ? nextFrame(start) : nextLine(start);
+            if (consumed < 0) {
+                return false;
+            }
+            if (consumed == 0) {
+                break;
+            }
+            keepReading = lastResult;
+            start += consumed;
+        }
+        compact(start);
+        return keepReading;
+    }
+
+    // Returns the bytes used by one complete line, 0 if none is complete yet, -1 on error
+    private int nextLine(int start) {
+        for (int i = start + scanned; i < length; i++) {
+            if (pending[i] == '\n') {
+                int end = i;
+                if (end > start && pending[end - 1] == '\r') {
+                    end--; // Same as BufferedReader.readLine
+                }
+                scanned = 0;
+                lastResult = handler.onLine(pending, start, end - start);
+                return i + 1 - start;
+            }
+        }
+        scanned = length - start;
+        if (scanned > MAX_LINE_LENGTH) {
+            handler.onProtocolError("Line too long");
+            return -1;
+        }
+        return 0;
+    }
+
+    // Returns the bytes used by one complete frame, 0 if none is complete yet, -1 on error
+    private int nextFrame(int start) {
+        int frameLength = 0;
+        int position = start;
+        for (int shift = 0; ; shift += 7) {
+            if (position == length) {
+                return 0; // Length prefix not complete
+            }
+            if (shift > 28) {
+                handler.onProtocolError("Malformed frame length");
+                return -1;
+            }
+            byte b = pending[position++];
+            frameLength |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (frameLength < 1 || frameLength > BinaryCodec.MAX_FRAME_LENGTH) {
+            handler.onProtocolError("Invalid frame length " + frameLength);
+            return -1;
+        }
+        if (length - position < frameLength) {
+            return 0;
+        }
+        lastResult = handler.onFrame(pending[position], pending, position + 1, frameLength - 1);
+        return position + frameLength - start;
+    }
+
+    private void append(byte[] data, int offset, int count) {
+        if (length + count > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, length + count));
+        }
+        System.arraycopy(data, offset, pending, length, count);
+        length += count;
+    }
+
+    // Drops the decoded bytes and keeps the incomplete tail at the front of the buffer
+    private void compact(int consumed) {
+        if (consumed > 0) {
+            System.arraycopy(pending, consumed, pending, 0, length - consumed);
+            length -= consumed;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+// Sustained MatchJournal appends per second for different group commit settings. Producer threads
+// stand in for game rooms and append SCORE_CHANGED records as fast as the queue accepts them
+// (retrying when it is full, which a game would not do), so the rate is what the writer thread
+// keeps up with. A run ends when every record is in the segments and forced. The journal is then
+// read back to check the record count and measure reads.
+//   os        never forced; the OS writes the pages back
+//   group N   forced every N records or 10 ms
+// Segments are small so that runs roll over many files. Writes to a temporary directory, removed
+// afterwards; set -Djava.io.tmpdir to measure a particular disk.
+// Usage: JournalBenchmark [records] [producers]
+class JournalBenchmark {
+    private static final int[] COMMIT_RECORDS = {0, 4096, 256, 16};
+    private static final long SEGMENT_BYTES = 4L * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        ServerLog.setLevel(ServerLog.Level.WARN);
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("commit      Mappends/s  MB/s  commits  segments  Mreads/s");
+
+        for (int round = 0; round < 2; round++) { // First round is warm-up
+            for (int commitRecords : COMMIT_RECORDS) {
+                // Fewer records when forcing often, so the slow settings finish in reasonable time
+                int count = commitRecords > 0 && commitRecords < 256 ? records / 20 : records;
+                run(commitRecords, count, producers, round == 1);
+            }
+        }
+    }
+
+    private static void run(int commitRecords, int records, int producerCount, boolean print)
+            throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("journal-bench");
+        try {
+            MatchJournal journal = new MatchJournal(directory, SEGMENT_BYTES, commitRecords, 10, 65536);
+            List<String> player = Arrays.asList("bench-player");
+            Thread[] threads = new Thread[producerCount];
+            CountDownLatch start = new CountDownLatch(1);
+            for (int p = 0; p < producerCount; p++) {
+                int producer = p;
+                threads[p] = new Thread(() -> {
+                    await(start);
+                    for (int i = producer; i < records; i += producerCount) {
+                        while (!journal.append(MatchJournal.Type.SCORE_CHANGED, producer, player, new int[] {i})) {
+                            Thread.yield(); // Queue full: wait for the writer
+                        }
+                    }
+                });
+                threads[p].start();
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            journal.close(); // Writes and forces the rest
+            long elapsed = System.nanoTime() - begin;
+            if (journal.written() != records) {
+                throw new IllegalStateException("Wrote " + journal.written() + " of " + records + " records");
+            }
+
+            long readBegin = System.nanoTime();
+            long read = 0;
+            MatchJournal.Reader reader = MatchJournal.read(directory);
+            while (reader.hasNext()) {
+                reader.next();
+                read++;
+            }
+            long readElapsed = System.nanoTime() - readBegin;
+            if (read != records) {
+                throw new IllegalStateException("Read " + read + " of " + records + " records");
+            }
+
+            if (print) {
+                String name = commitRecords == 0 ? "os" : "group " + commitRecords;
+                System.out.printf("%-11s %10.2f  %4.0f  %7d  %8d  %8.2f%n", name, records * 1e3 / elapsed,
+                        journal.bytesWritten() * 1e3 / elapsed, journal.commits(), journal.segmentsOpened(),
+                        read * 1e3 / readElapsed);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// All-time standings across matches: total points, wins and matches played per player name.
+// Players are kept in an indexed skip list ordered by points (highest first, then by name), where
+// every link also stores how many players it skips. That makes "rank of X", "top K" and "players
+// around X" O(log n) (plus the entries returned) with millions of players, and a player's update
+// O(log n). Queries share a read lock; recording a match takes the write lock.
+// The standings are written to a snapshot file periodically when they changed, and when the server
+// exits normally; the last snapshot is loaded on startup.
+//   -Dserver.leaderboard.persist=false               keep the standings in memory only
+//   -Dserver.leaderboard.file=<path>                 snapshot file (default "leaderboard.dat")
+//   -Dserver.leaderboard.snapshotSeconds=<n>         seconds between snapshots (default 60; 0 only on exit)
+final class Leaderboard {
+    static final int MAGIC = 0x4C425244; // "LBRD"
+    static final int VERSION = 1;
+    private static final int MAX_LEVEL = 32;
+
+    private static volatile Leaderboard shared;
+
+    // One player's standing as returned by queries; a copy, not updated later
+    static final class Standing {
+        final long rank; // 1 for the leader
+        final String name;
+        final long points;
+        final int wins;
+        final int matches;
+
+        Standing(long rank, String name, long points, int wins, int matches) {
+            this.rank = rank;
+            this.name = name;
+            this.points = points;
+            this.wins = wins;
+            this.matches = matches;
+        }
+
+        @Override
+        public String toString() {
+            return rank + ":" + points + ":" + wins + ":" + matches + ":" + name;
+        }
+    }
+
+    private static final class Node {
+        final String name; // null for the head
+        long points;
+        int wins;
+        int matches;
+        final Node[] next;
+        final long[] span; // Players passed by following next[i]; for a null link, players after this node
+
+        Node(String name, int level) {
+            this.name = name;
+            this.next = new Node[level];
+            this.span = new long[level];
+        }
+    }
+
+    // Guards everything below
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node head = new Node(null, MAX_LEVEL);
+    private final Map<String, Node> byName = new HashMap<>();
+    private int level = 1; // Levels in use
+    private long changes = 0; // Bumped on every update, so the snapshot thread knows when to write
+    private long totalPoints = 0; // Over all players, for averagePoints
+    private long totalMatches = 0;
+
+    // The server-wide leaderboard, loading the last snapshot on first use
+    static Leaderboard shared() {
+        Leaderboard leaderboard = shared;
+        if (leaderboard == null) {
+            synchronized (Leaderboard.class) {
+                leaderboard = shared;
+                if (leaderboard == null) {
+                    leaderboard = openShared();
+                    shared = leaderboard;
+                }
+            }
+        }
+        return leaderboard;
+    }
+
+    private static Leaderboard openShared() {
+        Leaderboard leaderboard = new Leaderboard();
+        if (!Boolean.parseBoolean(System.getProperty("server.leaderboard.persist", "true"))) {
+            return leaderboard;
+        }
+        Path file = Paths.get(System.getProperty("server.leaderboard.file", "leaderboard.dat"));
+        try {
+            leaderboard.load(file);
+            ServerLog.info("Leaderboard: {} players from {}", leaderboard.size(), file.toAbsolutePath());
+        } catch (NoSuchFileException e) {
+            ServerLog.info("Leaderboard: starting empty, no snapshot at {}", file.toAbsolutePath());
+        } catch (IOException e) {
+            ServerLog.error("Cannot load the leaderboard snapshot {}. Starting empty.", file, e);
+        }
+        leaderboard.startSnapshots(file, Long.getLong("server.leaderboard.snapshotSeconds", 60));
+        return leaderboard;
+    }
+
+    // Adds one match: every player's final score (negative scores count as 0), a match played
+    // for each, and a win for each winner
+    void recordMatch(Map<String, Integer> finalScores, List<String> winners) {
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Integer> entry : finalScores.entrySet()) {
+                Node node = byName.get(entry.getKey());
+                if (node == null) {
+                    node = new Node(entry.getKey(), randomLevel());
+                    byName.put(node.name, node);
+                } else {
+                    unlink(node);
+                }
+                node.points += Math.max(0, entry.getValue());
+                node.matches++;
+                totalPoints += Math.max(0, entry.getValue());
+                totalMatches++;
+                if (winners.contains(node.name)) {
+                    node.wins++;
+                }
+                link(node);
+            }
+            changes++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The leading count players
+    List<Standing> top(int count) {
+        lock.readLock().lock();
+        try {
+            List<Standing> result = new ArrayList<>(Math.max(0, Math.min(count, byName.size())));
+            Node node = head.next[0];
+            for (long rank = 1; node != null && rank <= count; rank++, node = node.next[0]) {
+                result.add(standing(rank, node));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The player's points, wins and matches with rank 0 (not looked up), or null if they have not
+    // finished a match. O(1), for callers that do not need the rank.
+    Standing find(String name) {
+        lock.readLock().lock();
+        try {
+            Node node = byName.get(name);
+            return node != null ? standing(0, node) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Points per player per match over all recorded matches; 0 before the first one
+    double averagePoints() {
+        lock.readLock().lock();
+        try {
+            return totalMatches == 0 ? 0 : (double) totalPoints / totalMatches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The player's rank (1 for the leader), or 0 if they have not finished a match
+    long rank(String name) {
+        lock.readLock().lock();
+        try {
+            Node node = byName.get(name);
+            return node != null ? rankOf(node) : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The player with up to radius players above and below them; empty if the player is not ranked.
+    // Near the top, where fewer than radius players are above, more of those below are included.
+    List<Standing> around(String name, int radius) {
+        lock.readLock().lock();
+        try {
+            Node target = byName.get(name);
+            if (target == null) {
+                return Collections.emptyList();
+            }
+            long first = Math.max(1, rankOf(target) - radius);
+            List<Standing> result = new ArrayList<>(2 * radius + 1);
+            Node node = nodeAt(first);
+            for (long rank = first; node != null && result.size() < 2 * radius + 1; rank++, node = node.next[0]) {
+                result.add(standing(rank, node));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long size() {
+        lock.readLock().lock();
+        try {
+            return byName.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Standing standing(long rank, Node node) {
+        return new Standing(rank, node.name, node.points, node.wins, node.matches);
+    }
+
+    // Whether a goes before b: more points first, then by name. Caller holds the lock.
+    private static boolean before(Node a, long points, String name) {
+        return a.points > points || (a.points == points && a.name.compareTo(name) < 0);
+    }
+
+    private long rankOf(Node target) {
+        long rank = 0;
+        Node node = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (node.next[i] != null && (node.next[i] == target || before(node.next[i], target.points, target.name))) {
+                rank += node.span[i];
+                node = node.next[i];
+                if (node == target) {
+                    return rank;
+                }
+            }
+        }
+        return rank; // Not reached for a linked node
+    }
+
+    // The node at a 1-based rank, or null past the end
+    private Node nodeAt(long rank) {
+        long passed = 0;
+        Node node = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (node.next[i] != null && passed + node.span[i] <= rank) {
+                passed += node.span[i];
+                node = node.next[i];
+            }
+            if (passed == rank) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void link(Node node) {
+        Node[] update = new Node[MAX_LEVEL];
+        long[] rank = new long[MAX_LEVEL]; // Rank of update[i]
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && before(x.next[i], node.points, node.name)) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        int nodeLevel = node.next.length;
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = byName.size() - 1; // Everyone else, since this level was empty
+            }
+            level = nodeLevel;
+        }
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+    }
+
+    private void unlink(Node node) {
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && x.next[i] != node && before(x.next[i], node.points, node.name)) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == node) {
+                update[i].span[i] += node.span[i] - 1;
+                update[i].next[i] = node.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        for (int i = 0; i < node.next.length; i++) {
+            node.next[i] = null;
+            node.span[i] = 0;
+        }
+    }
+
+    // Each level holds about a quarter of the one below
+    private static int randomLevel() {
+        int nodeLevel = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (nodeLevel < MAX_LEVEL && random.nextInt(4) == 0) {
+            nodeLevel++;
+        }
+        return nodeLevel;
+    }
+
+    // Snapshot format: int MAGIC, int VERSION, int count, then count players in rank order, each
+    // UTF name, long points, int wins, int matches. Written to a temporary file first and moved
+    // over the old one, so a crash leaves either the old or the new snapshot.
+    void save(Path file) throws IOException {
+        List<Standing> standings;
+        lock.readLock().lock();
+        try {
+            standings = new ArrayList<>(byName.size());
+            long rank = 1;
+            for (Node node = head.next[0]; node != null; node = node.next[0]) {
+                standings.add(standing(rank++, node));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(standings.size());
+            for (Standing standing : standings) {
+                out.writeUTF(standing.name);
+                out.writeLong(standing.points);
+                out.writeInt(standing.wins);
+                out.writeInt(standing.matches);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Replaces the standings with a snapshot. The players are already in rank order, so they are
+    // appended at the end of every level in O(n) instead of inserted one by one.
+    void load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a leaderboard snapshot");
+            }
+            int count = in.readInt();
+            lock.writeLock().lock();
+            try {
+                clear();
+                Node[] last = new Node[MAX_LEVEL];
+                long[] lastRank = new long[MAX_LEVEL];
+                Arrays.fill(last, head);
+                for (long rank = 1; rank <= count; rank++) {
+                    Node node = new Node(in.readUTF(), randomLevel());
+                    node.points = in.readLong();
+                    node.wins = in.readInt();
+                    node.matches = in.readInt();
+                    totalPoints += node.points;
+                    totalMatches += node.matches;
+                    if (byName.putIfAbsent(node.name, node) != null) {
+                        throw new IOException(file + " lists " + node.name + " twice");
+                    }
+                    for (int i = 0; i < node.next.length; i++) {
+                        last[i].next[i] = node;
+                        last[i].span[i] = rank - lastRank[i];
+                        last[i] = node;
+                        lastRank[i] = rank;
+                    }
+                    level = Math.max(level, node.next.length);
+                }
+                for (int i = 0; i < MAX_LEVEL; i++) {
+                    last[i].span[i] = count - lastRank[i];
+                }
+                changes++;
+            } catch (IOException | RuntimeException e) {
+                clear(); // Never keep a partly loaded snapshot
+                throw e;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Caller holds the write lock
+    private void clear() {
+        byName.clear();
+        totalPoints = 0;
+        totalMatches = 0;
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            head.next[i] = null;
+            head.span[i] = 0;
+        }
+        level = 1;
+    }
+
+    private long changes() {
+        lock.readLock().lock();
+        try {
+            return changes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Writes a snapshot every intervalSeconds if anything changed, and once more on exit
+    private void startSnapshots(Path file, long intervalSeconds) {
+        long[] saved = {changes()}; // Changes covered by the file on disk; snapshot thread or exit hook
+        Runnable snapshot = () -> {
+            synchronized (saved) {
+                long current = changes();
+                if (current == saved[0]) {
+                    return;
+                }
+                try {
+                    long begin = System.nanoTime();
+                    save(file);
+                    saved[0] = current;
+                    ServerLog.debug("Leaderboard snapshot written in {} ms", (System.nanoTime() - begin) / 1_000_000);
+                } catch (IOException e) {
+                    ServerLog.error("Cannot write the leaderboard snapshot {}", file, e);
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(new Thread(snapshot, "leaderboard-snapshot-exit"));
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        Thread snapshots = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalSeconds * 1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                snapshot.run();
+            }
+        }, "leaderboard-snapshot");
+        snapshots.setDaemon(true);
+        snapshots.start();
+    }
+}
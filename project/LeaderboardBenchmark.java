@@ -0,0 +1,125 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Leaderboard operations per second as the number of players grows, to show they stay O(log n):
+// recording a 4-player match, rank of a random player, top 10, and the 11 players around a random
+// player. Also times writing and loading a snapshot. For comparison, "scan rank" finds a rank the
+// way a plain map would have to, by counting every player with more points.
+// Usage: LeaderboardBenchmark [largestPlayerCount]
+class LeaderboardBenchmark {
+    private static final int OPERATIONS = 200_000;
+
+    public static void main(String[] args) throws IOException {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        ServerLog.setLevel(ServerLog.Level.WARN);
+        System.out.println("players    build s  match/s  rank/s  top10/s  around/s  scan rank/s  save ms  load ms");
+        for (int players = 10_000; players <= largest; players *= 10) {
+            run(players);
+            if (players < largest && players * 10 > largest) {
+                run(largest);
+            }
+        }
+    }
+
+    private static void run(int players) throws IOException {
+        Random random = new Random(players);
+        String[] names = new String[players];
+        for (int i = 0; i < players; i++) {
+            names[i] = "player" + i;
+        }
+
+        // Every player plays one match alone with a random score, so all ranks differ in points
+        Leaderboard leaderboard = new Leaderboard();
+        long begin = System.nanoTime();
+        for (String name : names) {
+            leaderboard.recordMatch(Collections.singletonMap(name, random.nextInt(1_000_000)), Collections.emptyList());
+        }
+        double buildSeconds = (System.nanoTime() - begin) / 1e9;
+
+        Map<String, Integer> match = new LinkedHashMap<>();
+        begin = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            match.clear();
+            for (int p = 0; p < 4; p++) {
+                match.put(names[random.nextInt(players)], random.nextInt(50));
+            }
+            List<String> winners = Arrays.asList(names[random.nextInt(players)]);
+            leaderboard.recordMatch(match, winners);
+        }
+        double matchesPerSecond = rate(begin, OPERATIONS);
+
+        long sink = 0; // Keeps the results in use
+        begin = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            sink += leaderboard.rank(names[random.nextInt(players)]);
+        }
+        double ranksPerSecond = rate(begin, OPERATIONS);
+
+        begin = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            sink += leaderboard.top(10).size();
+        }
+        double topPerSecond = rate(begin, OPERATIONS);
+
+        begin = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            sink += leaderboard.around(names[random.nextInt(players)], 5).size();
+        }
+        double aroundPerSecond = rate(begin, OPERATIONS);
+
+        // A linear scan over a copy of all points, as a map without rank information would need
+        long[] points = new long[players];
+        for (Leaderboard.Standing standing : leaderboard.top(players)) {
+            points[(int) (standing.rank - 1)] = standing.points;
+        }
+        int scans = Math.max(10, 200_000_000 / players / 100);
+        begin = System.nanoTime();
+        for (int i = 0; i < scans; i++) {
+            long target = points[random.nextInt(players)];
+            int rank = 1;
+            for (long value : points) {
+                if (value > target) {
+                    rank++;
+                }
+            }
+            sink += rank;
+        }
+        double scansPerSecond = rate(begin, scans);
+
+        Path file = Files.createTempFile("leaderboard-bench", ".dat");
+        try {
+            begin = System.nanoTime();
+            leaderboard.save(file);
+            long saveMillis = (System.nanoTime() - begin) / 1_000_000;
+            Leaderboard loaded = new Leaderboard();
+            begin = System.nanoTime();
+            loaded.load(file);
+            long loadMillis = (System.nanoTime() - begin) / 1_000_000;
+            if (sink <= 0 || loaded.size() != leaderboard.size() || loaded.rank(names[0]) != leaderboard.rank(names[0])) {
+                throw new IllegalStateException("Snapshot does not match");
+            }
+            System.out.printf("%-9d %8.1f %8.0f %7.0f %8.0f %9.0f %12.0f %8d %8d%n", players, buildSeconds,
+                    matchesPerSecond, ranksPerSecond, topPerSecond, aroundPerSecond, scansPerSecond, saveMillis,
+                    loadMillis);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static double rate(long beginNanos, int operations) {
+        return operations * 1e9 / (System.nanoTime() - beginNanos);
+    }
+}
@@ -0,0 +1,667 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless load generator: drives many simulated players against a running NewServer over
+// loopback. Each player connects, answers ENTER_NAME with a name and CAPS, then plays rounds of
+// READY -> (GAME_STARTED) -> UPDATE_SCORE x n -> GAME_FINISHED -> (GAME_ENDED), pausing for a random
+// think time (0.5x to 1.5x the given mean) before every action, and finally sends LEAVE.
+// Players run on a few selector threads, so thousands of them need no thread each.
+// Reports the connection rate, messages sent and received per second, and the latency from an
+// action to the broadcast that shows it: READY to the roster move (or WAITING list) naming the
+// player, UPDATE_SCORE to the score delta (or SCORES line) carrying the new score.
+// Players still playing when the time limit is up (for example one left alone in a waiting room)
+// are counted as unfinished. Only loopback addresses are accepted as host.
+// Against a cluster (see Cluster), give every node's port: players are spread over them in turn,
+// and follow REDIRECT to the node hosting their match, where they stay.
+// With BinaryCodec.VERSION among the caps, players send BinaryCodec frames after the CAPS line and
+// read them after the server's PROTOCOL line, measuring the same latencies as in text.
+// Usage: LoadGenerator [players] [rounds] [updatesPerGame] [thinkMillis] [host] [port[,port...]]
+//   -Dload.connectRate=<n>     new connections per second (default 500; 0 opens all at once)
+//   -Dload.loops=<n>           selector threads (default: available processors)
+//   -Dload.caps=<list>         CAPS sent after the name (default SCORE_DELTA,ROSTER_DELTA,HEARTBEAT,REDIRECT;
+//                              add BINARY/1 for the binary protocol)
+//   -Dload.timeLimitSeconds=<n> stop after this long (default 300)
+class LoadGenerator {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Progress counters, updated by the selector threads
+    private static final LongAdder connected = new LongAdder();
+    private static final LongAdder connectFailures = new LongAdder();
+    private static final LongAdder messagesSent = new LongAdder();
+    private static final LongAdder messagesReceived = new LongAdder();
+    private static final LongAdder bytesReceived = new LongAdder();
+    private static final LongAdder gamesPlayed = new LongAdder();
+    private static final LongAdder playersDone = new LongAdder();
+    private static final LongAdder redirects = new LongAdder();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int updates = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        long thinkMillis = args.length > 3 ? Long.parseLong(args[3]) : 200;
+        String host = args.length > 4 ? args[4] : "localhost";
+        String[] ports = (args.length > 5 ? args[5] : "12345").split(",");
+        int connectRate = Integer.getInteger("load.connectRate", 500);
+        int loopCount = Math.max(1, Integer.getInteger("load.loops", Runtime.getRuntime().availableProcessors()));
+        String caps = System.getProperty("load.caps", "SCORE_DELTA,ROSTER_DELTA,HEARTBEAT,REDIRECT");
+        long timeLimitNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.timeLimitSeconds", 300));
+
+        InetAddress address = InetAddress.getByName(host);
+        if (!address.isLoopbackAddress()) {
+            System.err.println("LoadGenerator only runs against loopback addresses, not " + address);
+            System.exit(2);
+        }
+        InetSocketAddress[] servers = new InetSocketAddress[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            servers[i] = new InetSocketAddress(address, Integer.parseInt(ports[i].trim()));
+        }
+        System.out.printf("%d players, %d rounds of %d updates, think %d ms, %d loops, %s/s connects, caps %s%n",
+                players, rounds, updates, thinkMillis, loopCount, connectRate > 0 ? connectRate : "unlimited", caps);
+
+        String run = Long.toString(System.currentTimeMillis() % 100_000, 36); // Keeps names unique across runs
+        long begin = System.nanoTime();
+        Loop[] loops = new Loop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new Loop(caps, rounds, updates, thinkMillis, begin + timeLimitNanos, i);
+        }
+        for (int i = 0; i < players; i++) {
+            long startAt = connectRate > 0 ? begin + i * 1_000_000_000L / connectRate : begin;
+            loops[i % loopCount].add(new Player("load-" + run + "-" + i, servers[i % servers.length], startAt));
+        }
+        Thread[] threads = new Thread[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            threads[i] = new Thread(loops[i], "load-loop-" + i);
+            threads[i].start();
+        }
+
+        long lastReport = System.nanoTime();
+        while (playersDone.sum() < players && System.nanoTime() - begin < timeLimitNanos + TimeUnit.SECONDS.toNanos(1)) {
+            TimeUnit.MILLISECONDS.sleep(100);
+            if (System.nanoTime() - lastReport >= TimeUnit.SECONDS.toNanos(5)) {
+                lastReport = System.nanoTime();
+                System.out.printf("  %3ds: connected %d, games %d, done %d, received %d messages%n",
+                        TimeUnit.NANOSECONDS.toSeconds(lastReport - begin), connected.sum(), gamesPlayed.sum(),
+                        playersDone.sum(), messagesReceived.sum());
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        LatencyLog ready = new LatencyLog();
+        LatencyLog score = new LatencyLog();
+        long firstConnect = Long.MAX_VALUE;
+        long lastConnect = Long.MIN_VALUE;
+        int finished = 0;
+        int dropped = 0;
+        for (Loop loop : loops) {
+            ready.addAll(loop.readyLatency);
+            score.addAll(loop.scoreLatency);
+            firstConnect = Math.min(firstConnect, loop.firstConnect);
+            lastConnect = Math.max(lastConnect, loop.lastConnect);
+            finished += loop.finished;
+            dropped += loop.dropped;
+        }
+        double connectSeconds = lastConnect > firstConnect ? (lastConnect - firstConnect) / 1e9 : 0;
+        System.out.printf("connections   %d of %d (%d failed) in %.2f s, %.0f/s%n", connected.sum(), players,
+                connectFailures.sum(), connectSeconds, connectSeconds > 0 ? connected.sum() / connectSeconds : 0);
+        System.out.printf("players       %d finished all rounds, %d dropped by the server, %d unfinished; %d games played%n",
+                finished, dropped, players - finished - dropped, gamesPlayed.sum());
+        System.out.printf("messages      sent %.0f/s, received %.0f/s (%.1f MB/s) over %.1f s%n",
+                messagesSent.sum() / seconds, messagesReceived.sum() / seconds, bytesReceived.sum() / seconds / 1e6, seconds);
+        if (redirects.sum() > 0) {
+            System.out.printf("redirects     %d to the node hosting the match%n", redirects.sum());
+        }
+        System.out.println("latency us    count     p50     p99    p999     max");
+        ready.print("READY");
+        score.print("UPDATE_SCORE");
+        System.exit(finished == players ? 0 : 1);
+    }
+
+    // One simulated player. Only touched by the loop that owns it.
+    private static final class Player {
+        enum Phase { PENDING, CONNECTING, NAMING, LOBBY, WAITING, PLAYING, LEAVING, DONE }
+
+        final String name;
+        InetSocketAddress server; // The node it is connected to; changes when redirected
+        String ticket; // From REDIRECT, sent with JOIN once the new node asks for a name
+        long dueAt; // When the next scheduled action runs
+        Phase phase = Phase.PENDING;
+        SocketChannel channel;
+        SelectionKey key;
+        byte[] partial = new byte[0]; // Start of a line or frame not yet complete
+        boolean binaryOutput; // Sending frames; set after the CAPS line offering them
+        boolean binaryInput; // Receiving frames; set by the server's PROTOCOL line
+        ByteBuffer unsent; // Output the socket did not take yet
+        int roundsDone = 0;
+        int updatesLeft;
+        int score;
+        long readySentAt; // 0 once the roster showed the player waiting
+        long scoreSentAt; // 0 once the new score was broadcast
+        int pendingScore;
+
+        Player(String name, InetSocketAddress server, long startAt) {
+            this.name = name;
+            this.server = server;
+            this.dueAt = startAt;
+        }
+    }
+
+    // Selector thread driving a share of the players
+    private static final class Loop implements Runnable {
+        private final byte[] capsLine;
+        private final boolean binary; // Caps offer BinaryCodec.VERSION
+        private final int rounds;
+        private final int updates;
+        private final long thinkNanos;
+        private final long deadline;
+        private final Random random;
+        private final Selector selector;
+        private final PriorityQueue<Player> timers = new PriorityQueue<>((a, b) -> Long.compare(a.dueAt, b.dueAt));
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private int active = 0;
+
+        // Results, read by main after the thread ended
+        final LatencyLog readyLatency = new LatencyLog();
+        final LatencyLog scoreLatency = new LatencyLog();
+        long firstConnect = Long.MAX_VALUE;
+        long lastConnect = Long.MIN_VALUE;
+        int finished = 0;
+        int dropped = 0; // Closed by the server before finishing, e.g. for not reading fast enough
+
+        Loop(String caps, int rounds, int updates, long thinkMillis, long deadline, int seed) throws IOException {
+            this.capsLine = ("CAPS:" + caps + "\n").getBytes(StandardCharsets.UTF_8);
+            this.binary = Arrays.asList(caps.split(",")).contains(BinaryCodec.VERSION);
+            this.rounds = rounds;
+            this.updates = updates;
+            this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+            this.deadline = deadline;
+            this.random = new Random(seed);
+            this.selector = Selector.open();
+        }
+
+        void add(Player player) {
+            timers.add(player);
+            active++;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (active > 0 && System.nanoTime() < deadline) {
+                    long now = System.nanoTime();
+                    while (!timers.isEmpty() && timers.peek().dueAt <= now) {
+                        act(timers.poll(), now);
+                    }
+                    long waitNanos = timers.isEmpty() ? TimeUnit.MILLISECONDS.toNanos(100) : timers.peek().dueAt - now;
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                    for (SelectionKey ready : selector.selectedKeys()) {
+                        Player player = (Player) ready.attachment();
+                        if (!ready.isValid()) {
+                            continue;
+                        }
+                        if (ready.isConnectable()) {
+                            onConnected(player);
+                        } else {
+                            if (ready.isReadable()) {
+                                onReadable(player);
+                            }
+                            if (ready.isValid() && ready.isWritable()) {
+                                flush(player);
+                            }
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                System.err.println("Load loop failed: " + e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close((Player) key.attachment(), false);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Nothing left to release
+                }
+            }
+        }
+
+        // Runs a player's scheduled action
+        private void act(Player player, long now) {
+            switch (player.phase) {
+                case PENDING:
+                    connect(player);
+                    break;
+                case LOBBY:
+                    player.phase = Player.Phase.WAITING;
+                    player.readySentAt = now;
+                    sendCommand(player, "READY", BinaryCodec.READY);
+                    break;
+                case PLAYING:
+                    if (player.updatesLeft > 0) {
+                        player.updatesLeft--;
+                        player.score += 10;
+                        player.pendingScore = player.score;
+                        player.scoreSentAt = now;
+                        send(player, player.binaryOutput
+                                ? new BinaryCodec.FrameBuilder(BinaryCodec.UPDATE_SCORE).writeZigZag(player.score).finish()
+                                : ("UPDATE_SCORE:" + player.score + "\n").getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        sendCommand(player, "GAME_FINISHED", BinaryCodec.GAME_FINISHED);
+                    }
+                    break;
+                case LEAVING:
+                    sendCommand(player, "LEAVE", BinaryCodec.LEAVE);
+                    close(player, true);
+                    break;
+                default:
+                    break; // Waiting for the server
+            }
+        }
+
+        private void connect(Player player) {
+            try {
+                player.channel = SocketChannel.open();
+                player.channel.configureBlocking(false);
+                player.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                player.phase = Player.Phase.CONNECTING;
+                if (player.channel.connect(player.server)) {
+                    player.key = player.channel.register(selector, SelectionKey.OP_READ, player);
+                    player.phase = Player.Phase.NAMING;
+                } else {
+                    player.key = player.channel.register(selector, SelectionKey.OP_CONNECT, player);
+                }
+            } catch (IOException e) {
+                connectFailures.increment();
+                close(player, false);
+            }
+        }
+
+        private void onConnected(Player player) {
+            try {
+                player.channel.finishConnect();
+                player.key.interestOps(SelectionKey.OP_READ);
+                player.phase = Player.Phase.NAMING;
+            } catch (IOException e) {
+                connectFailures.increment();
+                close(player, false);
+            }
+        }
+
+        private void onReadable(Player player) {
+            readBuffer.clear();
+            int read;
+            try {
+                read = player.channel.read(readBuffer);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                dropped++;
+                close(player, false); // Server closed the connection
+                return;
+            }
+            bytesReceived.add(read);
+            SocketChannel channel = player.channel;
+            byte[] data = readBuffer.array();
+            int start = 0;
+            if (player.partial.length > 0) {
+                // Join the rest of the previous line with this read
+                byte[] joined = Arrays.copyOf(player.partial, player.partial.length + read);
+                System.arraycopy(data, 0, joined, player.partial.length, read);
+                data = joined;
+                read = joined.length;
+                player.partial = new byte[0];
+            }
+            while (start < read) {
+                int end = player.binaryInput ? frameEnd(data, start, read) : lineEnd(data, start, read);
+                if (end < 0) {
+                    break; // Incomplete
+                }
+                if (player.binaryInput) {
+                    onFrame(player, data, start, end);
+                } else {
+                    onLine(player, data, start, end - 1 - start);
+                }
+                if (player.phase == Player.Phase.DONE || player.channel != channel) {
+                    return; // Closed, or redirected to another node
+                }
+                start = end;
+            }
+            if (start < read) {
+                player.partial = Arrays.copyOfRange(data, start, read);
+            }
+        }
+
+        // End of the line starting at start, past its '\n', or -1 if it is not complete
+        private static int lineEnd(byte[] data, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (data[i] == '\n') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        // End of the frame starting at start, or -1 if it is not complete
+        private static int frameEnd(byte[] data, int start, int end) {
+            int length = 0;
+            for (int i = start, shift = 0; i < end && shift < 35; i++, shift += 7) {
+                length |= (data[i] & 0x7F) << shift;
+                if ((data[i] & 0x80) == 0) {
+                    return i + 1 + length <= end ? i + 1 + length : -1;
+                }
+            }
+            return -1;
+        }
+
+        private void onLine(Player player, byte[] data, int offset, int length) {
+            messagesReceived.increment();
+            long now = System.nanoTime();
+            if (startsWith(data, offset, length, "PING")) {
+                sendCommand(player, "PONG", BinaryCodec.PONG);
+            } else if (startsWith(data, offset, length, "PROTOCOL:" + BinaryCodec.VERSION)) {
+                player.binaryInput = true; // Frames from the next byte on
+            } else if (startsWith(data, offset, length, "ENTER_NAME") && player.ticket != null) {
+                // Arrived at the node hosting the match
+                send(player, "JOIN:" + player.ticket + "\n");
+                send(player, capsLine);
+                player.binaryOutput = binary;
+                player.ticket = null;
+                player.phase = Player.Phase.WAITING;
+            } else if (startsWith(data, offset, length, "REDIRECT:")) {
+                redirect(player, new String(data, offset + 9, length - 9, StandardCharsets.UTF_8));
+            } else if (startsWith(data, offset, length, "ENTER_NAME")) {
+                connected.increment();
+                firstConnect = Math.min(firstConnect, now);
+                lastConnect = Math.max(lastConnect, now);
+                send(player, player.name + "\n");
+                send(player, capsLine);
+                player.binaryOutput = binary;
+                player.phase = Player.Phase.LOBBY;
+                think(player, now);
+            } else if (startsWith(data, offset, length, "ROSTER_MOVE:") || startsWith(data, offset, length, "WAITING:")) {
+                if (player.readySentAt != 0 && showsWaiting(new String(data, offset, length, StandardCharsets.UTF_8), player.name)) {
+                    onReadyShown(player, now);
+                }
+            } else if (startsWith(data, offset, length, "GAME_STARTED")) {
+                onGameStarted(player, now);
+            } else if (startsWith(data, offset, length, "SCORE_DELTA:") || startsWith(data, offset, length, "SCORES:")) {
+                if (player.scoreSentAt != 0 && showsScore(new String(data, offset, length, StandardCharsets.UTF_8), player)) {
+                    onScoreShown(player, now);
+                }
+            } else if (startsWith(data, offset, length, "GAME_ENDED:")) {
+                onGameEnded(player, now);
+            }
+        }
+
+        // The same messages as onLine, as BinaryCodec frames; offset is the frame's length prefix
+        private void onFrame(Player player, byte[] data, int offset, int end) {
+            messagesReceived.increment();
+            long now = System.nanoTime();
+            ByteBuffer in = ByteBuffer.wrap(data, offset, end - offset);
+            BinaryCodec.readVarLong(in); // Length, already checked by frameEnd
+            byte type = in.get();
+            if (type == OutboundMessage.Type.PING.code) {
+                sendCommand(player, "PONG", BinaryCodec.PONG);
+            } else if (type == OutboundMessage.Type.REDIRECT.code) {
+                redirect(player, BinaryCodec.readString(in));
+            } else if (type == OutboundMessage.Type.ROSTER_MOVE.code) {
+                BinaryCodec.readVarLong(in); // Roster version
+                if (player.readySentAt != 0 && in.get() == PlayerRegistry.State.WAITING.ordinal()
+                        && BinaryCodec.readString(in).equals(player.name)) {
+                    onReadyShown(player, now);
+                }
+            } else if (type == OutboundMessage.Type.WAITING.code) {
+                if (player.readySentAt != 0 && readNames(in).contains(player.name)) {
+                    onReadyShown(player, now);
+                }
+            } else if (type == OutboundMessage.Type.GAME_STARTED.code) {
+                onGameStarted(player, now);
+            } else if (type == OutboundMessage.Type.SCORE_DELTA.code || type == OutboundMessage.Type.SCORES.code) {
+                if (player.scoreSentAt != 0 && showsScore(in, type, player)) {
+                    onScoreShown(player, now);
+                }
+            } else if (type == OutboundMessage.Type.GAME_ENDED.code) {
+                onGameEnded(player, now);
+            }
+        }
+
+        private void onReadyShown(Player player, long now) {
+            readyLatency.add(now - player.readySentAt);
+            player.readySentAt = 0;
+        }
+
+        private void onGameStarted(Player player, long now) {
+            player.phase = Player.Phase.PLAYING;
+            player.readySentAt = 0;
+            player.score = 0;
+            player.updatesLeft = updates;
+            think(player, now);
+        }
+
+        private void onScoreShown(Player player, long now) {
+            scoreLatency.add(now - player.scoreSentAt);
+            player.scoreSentAt = 0;
+            think(player, now); // Next update, or GAME_FINISHED
+        }
+
+        private void onGameEnded(Player player, long now) {
+            gamesPlayed.increment();
+            player.roundsDone++;
+            player.scoreSentAt = 0;
+            player.phase = player.roundsDone >= rounds ? Player.Phase.LEAVING : Player.Phase.LOBBY;
+            timers.remove(player); // A pending update of the game that just ended
+            think(player, now);
+        }
+
+        // REDIRECT:<host>:<port>,<ticket>: leaves this node and connects to the match's host
+        private void redirect(Player player, String target) {
+            int comma = target.lastIndexOf(',');
+            int colon = target.lastIndexOf(':', comma);
+            InetSocketAddress host = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1, comma)));
+            if (host.getAddress() == null || !host.getAddress().isLoopbackAddress()) {
+                System.err.println("Not following a redirect away from loopback: " + target);
+                close(player, false);
+                return;
+            }
+            redirects.increment();
+            try {
+                player.channel.close(); // Also cancels its key
+            } catch (IOException e) {
+                // Closed either way
+            }
+            player.partial = new byte[0];
+            player.unsent = null;
+            player.binaryOutput = false; // The new node starts in text
+            player.binaryInput = false;
+            player.server = host;
+            player.ticket = target.substring(comma + 1);
+            connect(player);
+        }
+
+        // ROSTER_MOVE:<version>:WAITING:<name>, or WAITING:<name>,<name>,...
+        private static boolean showsWaiting(String line, String name) {
+            if (line.startsWith("ROSTER_MOVE:")) {
+                return line.endsWith(":WAITING:" + name);
+            }
+            return Arrays.asList(line.substring(8).split(",")).contains(name);
+        }
+
+        // SCORE_DELTA:<sequence>:<name>:<score>, or SCORES:<name>:<score>,...
+        private static boolean showsScore(String line, Player player) {
+            if (line.startsWith("SCORE_DELTA:")) {
+                int last = line.lastIndexOf(':');
+                int nameStart = line.indexOf(':', 12) + 1;
+                return line.substring(nameStart, last).equals(player.name)
+                        && Integer.parseInt(line.substring(last + 1)) >= player.pendingScore;
+            }
+            for (String entry : line.substring(7).split(",")) {
+                int colon = entry.lastIndexOf(':');
+                if (colon > 0 && entry.substring(0, colon).equals(player.name)) {
+                    return Integer.parseInt(entry.substring(colon + 1)) >= player.pendingScore;
+                }
+            }
+            return false;
+        }
+
+        // SCORE_DELTA frame: sequence, name, score; SCORES frame: count, then name and score each
+        private static boolean showsScore(ByteBuffer in, byte type, Player player) {
+            if (type == OutboundMessage.Type.SCORE_DELTA.code) {
+                BinaryCodec.readVarLong(in);
+                return BinaryCodec.readString(in).equals(player.name) && BinaryCodec.readZigZag(in) >= player.pendingScore;
+            }
+            for (long count = BinaryCodec.readVarLong(in); count > 0; count--) {
+                String name = BinaryCodec.readString(in);
+                int score = BinaryCodec.readZigZag(in);
+                if (name.equals(player.name)) {
+                    return score >= player.pendingScore;
+                }
+            }
+            return false;
+        }
+
+        // WAITING frame: count, then the names
+        private static List<String> readNames(ByteBuffer in) {
+            String[] names = new String[(int) BinaryCodec.readVarLong(in)];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = BinaryCodec.readString(in);
+            }
+            return Arrays.asList(names);
+        }
+
+        // Schedules the player's next action after a random think time
+        private void think(Player player, long now) {
+            player.dueAt = now + thinkNanos / 2 + (thinkNanos > 0 ? (long) (random.nextDouble() * thinkNanos) : 0);
+            timers.add(player);
+        }
+
+        // A command without fields, as a line or as a frame
+        private void sendCommand(Player player, String command, byte type) {
+            send(player, player.binaryOutput ? new BinaryCodec.FrameBuilder(type).finish()
+                    : (command + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void send(Player player, String line) {
+            send(player, line.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void send(Player player, byte[] bytes) {
+            if (player.phase == Player.Phase.DONE) {
+                return;
+            }
+            messagesSent.increment();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (player.unsent != null) {
+                ByteBuffer joined = ByteBuffer.allocate(player.unsent.remaining() + bytes.length);
+                joined.put(player.unsent).put(buffer).flip();
+                player.unsent = joined;
+                return; // OP_WRITE is already set
+            }
+            player.unsent = buffer;
+            flush(player);
+        }
+
+        private void flush(Player player) {
+            try {
+                player.channel.write(player.unsent);
+                if (player.unsent.hasRemaining()) {
+                    player.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                } else {
+                    player.unsent = null;
+                    player.key.interestOps(SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                dropped++;
+                close(player, false);
+            }
+        }
+
+        private void close(Player player, boolean finishedRounds) {
+            if (player.phase == Player.Phase.DONE) {
+                return;
+            }
+            player.phase = Player.Phase.DONE;
+            timers.remove(player);
+            if (finishedRounds) {
+                finished++;
+            }
+            try {
+                if (player.channel != null) {
+                    player.channel.close();
+                }
+            } catch (IOException e) {
+                // Already closed by the server
+            }
+            active--;
+            playersDone.increment();
+        }
+
+        private static boolean startsWith(byte[] data, int offset, int length, String prefix) {
+            if (length < prefix.length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (data[offset + i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Latency samples in nanoseconds, sorted when printed
+    private static final class LatencyLog {
+        private long[] samples = new long[1024];
+        private int count = 0;
+
+        void add(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+        }
+
+        void addAll(LatencyLog other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.samples[i]);
+            }
+        }
+
+        void print(String action) {
+            if (count == 0) {
+                System.out.printf("%-13s %6d%n", action, 0);
+                return;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            System.out.printf("%-13s %6d %7d %7d %7d %7d%n", action, count, percentile(sorted, 0.50) / 1000,
+                    percentile(sorted, 0.99) / 1000, percentile(sorted, 0.999) / 1000, sorted[count - 1] / 1000);
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+        }
+    }
+}
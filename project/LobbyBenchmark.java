@@ -0,0 +1,241 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+// Score updates per second and time until an update is applied, for the per-room locks versus the
+// lobby event loop. Players are in-process connections without sockets; producer threads stand in
+// for connection threads and feed them UPDATE_SCORE lines, each player owned by one producer.
+// Throughput is measured with producers sending as fast as they can. Latency is measured separately
+// at a fixed offered load, since under a flood the loop's latency is only its queue backlog.
+// With locks, latency is how long the producer's call took; with the loop, it is the time from
+// posting the event to the loop having applied it.
+//   spread:   players spread over many 4-player rooms, little contention per room
+//   hot room: one 4-player room, one producer per player, all contending for the same room
+// Usage: LobbyBenchmark [players] [producers] [updatesPerPlayer] [offeredEventsPerSecond]
+class LobbyBenchmark {
+    private static final Recorder loopRecorder = new Recorder();
+
+    public static void main(String[] args) throws InterruptedException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int updates = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        long offered = args.length > 3 ? Long.parseLong(args[3]) : 100_000;
+        int spreadPlayers = players / 4 * 4;
+        // Keeps benchmark players out of leaderboard.dat and journal/ in the working directory
+        System.setProperty("server.leaderboard.persist", "false");
+        System.setProperty("server.journal", "false");
+        ServerLog.setLevel(ServerLog.Level.WARN);
+        System.out.println("design      scenario  flood Mevents/s  p50 us  p99 us  (latency at " + offered + " events/s)");
+
+        // Locks first: lobbyLoop is still null, so rooms are created in locking mode
+        for (int round = 0; round < 2; round++) { // First round is warm-up
+            boolean print = round == 1;
+            report("locks", "spread", print, spreadPlayers, producers, updates, offered, false);
+            report("locks", "hot room", print, 4, 4, updates * players / 4, offered, false);
+        }
+
+        NewServer.startLobbyLoop(loopRecorder);
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+            report("event loop", "spread", print, spreadPlayers, producers, updates, offered, true);
+            report("event loop", "hot room", print, 4, 4, updates * players / 4, offered, true);
+        }
+    }
+
+    private static void report(String design, String scenario, boolean print, int players, int producers, int updates,
+            long offered, boolean loop) throws InterruptedException {
+        Result flood = run(players, producers, updates, 0, loop);
+        Result paced = run(players, producers, updates, offered, loop);
+        if (print) {
+            System.out.printf("%-11s %-9s %15.2f  %6.1f  %6.1f%n", design, scenario, flood.eventsPerSecond / 1e6,
+                    paced.percentile(0.50) / 1e3, paced.percentile(0.99) / 1e3);
+        }
+    }
+
+    // offeredPerSecond 0 sends as fast as possible, otherwise producers pace themselves to that total rate
+    private static Result run(int playerCount, int producerCount, int updatesPerPlayer, long offeredPerSecond, boolean loop)
+            throws InterruptedException {
+        List<BenchmarkClient> clients = new ArrayList<>();
+        for (int i = 0; i < playerCount; i++) {
+            BenchmarkClient client = new BenchmarkClient();
+            NewServer.addConnection(client);
+            client.feed(("bench" + i + "\n").getBytes(StandardCharsets.UTF_8));
+            client.feed("READY\n".getBytes(StandardCharsets.UTF_8));
+            clients.add(client);
+        }
+        if (loop) {
+            awaitLoop(); // All READY events applied, so every room has started its game
+        }
+
+        int total = playerCount * updatesPerPlayer;
+        loopRecorder.reset(loop ? total : 0);
+        long[][] callNanos = new long[producerCount][];
+        Thread[] threads = new Thread[producerCount];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producerCount; p++) {
+            int producer = p;
+            List<BenchmarkClient> owned = new ArrayList<>();
+            for (int i = producer; i < playerCount; i += producerCount) {
+                owned.add(clients.get(i));
+            }
+            callNanos[producer] = new long[owned.size() * updatesPerPlayer];
+            threads[p] = new Thread(() -> {
+                byte[][] lines = new byte[16][];
+                for (int i = 0; i < lines.length; i++) {
+                    lines[i] = ("UPDATE_SCORE:" + (i * 125) + "\n").getBytes(StandardCharsets.UTF_8);
+                }
+                await(start);
+                long[] samples = callNanos[producer];
+                long interval = offeredPerSecond > 0 ? 1_000_000_000L * producerCount / offeredPerSecond : 0;
+                long next = System.nanoTime();
+                int n = 0;
+                for (int u = 0; u < updatesPerPlayer; u++) {
+                    for (BenchmarkClient client : owned) {
+                        if (interval > 0) {
+                            next += interval;
+                            long wait = next - System.nanoTime();
+                            if (wait > 0) {
+                                LockSupport.parkNanos(wait);
+                            }
+                        }
+                        long begin = System.nanoTime();
+                        client.feed(lines[(u + n) & 15]);
+                        samples[n++] = System.nanoTime() - begin;
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] latencies;
+        if (loop) {
+            loopRecorder.await();
+            latencies = loopRecorder.samples;
+        } else {
+            latencies = new long[total];
+            int n = 0;
+            for (long[] samples : callNanos) {
+                System.arraycopy(samples, 0, latencies, n, samples.length);
+                n += samples.length;
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        // Let the rooms end so the next run starts from an empty lobby
+        for (BenchmarkClient client : clients) {
+            client.handleDisconnect();
+        }
+        if (loop) {
+            awaitLoop();
+        }
+        return new Result(total * 1e9 / elapsed, latencies);
+    }
+
+    // Returns once the loop has applied everything posted before this call
+    private static void awaitLoop() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        NewServer.lobbyLoop().post(LobbyEventLoop.Event.timerTick(done::countDown));
+        done.await();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Result {
+        final double eventsPerSecond;
+        final long[] latencies;
+
+        Result(double eventsPerSecond, long[] latencies) {
+            this.eventsPerSecond = eventsPerSecond;
+            this.latencies = latencies;
+            Arrays.sort(latencies);
+        }
+
+        long percentile(double p) {
+            return latencies[Math.min(latencies.length - 1, (int) (latencies.length * p))];
+        }
+    }
+
+    // Collects post-to-applied latencies from the loop thread once a measured run has been armed
+    private static final class Recorder implements LongConsumer {
+        private long[] samples = new long[0];
+        private volatile int recorded = 0;
+        private volatile boolean armed = false;
+
+        void reset(int expected) {
+            armed = false;
+            samples = new long[expected];
+            recorded = 0;
+            armed = expected > 0;
+        }
+
+        // Called on the loop thread only
+        @Override
+        public void accept(long nanos) {
+            if (armed && recorded < samples.length) {
+                samples[recorded] = nanos;
+                recorded = recorded + 1;
+            }
+        }
+
+        void await() throws InterruptedException {
+            while (recorded < samples.length) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    // A connection without a socket: commands are fed in directly and outgoing messages are dropped
+    private static final class BenchmarkClient extends NewServer.ClientHandler {
+        private volatile boolean open = true;
+
+        void feed(byte[] line) {
+            onBytesReceived(line, 0, line.length);
+        }
+
+        @Override
+        protected boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        protected void write(OutboundMessage message) {
+            onWritten(message.bytes(false).length); // Counts as delivered right away
+        }
+
+        @Override
+        int outboundQueueDepth() {
+            return 0;
+        }
+
+        @Override
+        protected String describeConnection() {
+            return "benchmark";
+        }
+
+        @Override
+        protected void closeResources() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+// Single-writer mode for lobby and game state (-Dserver.lobby=loop). Connection threads and the
+// timer wheel only post immutable events; one lobby thread applies them in arrival order, so room
+// membership, countdowns and scoreboards are never touched by two threads and need no locks.
+// Events from one connection are handled in the order that connection posted them.
+final class LobbyEventLoop implements Runnable {
+
+    enum Kind { READY, LEAVE, SCORE_UPDATE, FINISHED, SCORES_RESYNC, DISCONNECTED, TIMER_TICK, VALIDATED_SCORES }
+
+    static final class Event {
+        final Kind kind;
+        final NewServer.ClientHandler client; // null for TIMER_TICK
+        final int score; // SCORE_UPDATE only
+        final Runnable task; // TIMER_TICK and VALIDATED_SCORES only
+        final long postedNanos = System.nanoTime();
+
+        private Event(Kind kind, NewServer.ClientHandler client, int score, Runnable task) {
+            this.kind = kind;
+            this.client = client;
+            this.score = score;
+            this.task = task;
+        }
+
+        static Event ready(NewServer.ClientHandler client) {
+            return new Event(Kind.READY, client, 0, null);
+        }
+
+        static Event leave(NewServer.ClientHandler client) {
+            return new Event(Kind.LEAVE, client, 0, null);
+        }
+
+        static Event scoreUpdate(NewServer.ClientHandler client, int score) {
+            return new Event(Kind.SCORE_UPDATE, client, score, null);
+        }
+
+        static Event finished(NewServer.ClientHandler client) {
+            return new Event(Kind.FINISHED, client, 0, null);
+        }
+
+        static Event scoresResync(NewServer.ClientHandler client) {
+            return new Event(Kind.SCORES_RESYNC, client, 0, null);
+        }
+
+        static Event disconnected(NewServer.ClientHandler client) {
+            return new Event(Kind.DISCONNECTED, client, 0, null);
+        }
+
+        // Runs task on the lobby thread; used for timer callbacks and by tools that need to wait for the loop
+        static Event timerTick(Runnable task) {
+            return new Event(Kind.TIMER_TICK, null, 0, task);
+        }
+
+        // Applies a batch of scores checked by an AnswerValidator worker
+        static Event validatedScores(Runnable apply) {
+            return new Event(Kind.VALIDATED_SCORES, null, 0, apply);
+        }
+    }
+
+    // Stands in for a room's lock when the room is only ever touched by the lobby thread
+    static final GameRoom.RoomLock NO_LOCK = new GameRoom.RoomLock() {
+        @Override
+        public void lock() {
+        }
+
+        @Override
+        public void unlock() {
+        }
+    };
+
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    private final LongConsumer latencyRecorder; // Receives post-to-handled nanos for every event
+    private final Thread thread;
+    private volatile boolean parked = false;
+
+    LobbyEventLoop(LongConsumer latencyRecorder) {
+        this.latencyRecorder = latencyRecorder;
+        this.thread = new Thread(this, "lobby-loop");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    // Safe to call from any thread
+    void post(Event event) {
+        events.add(event);
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    boolean isLoopThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Event event = events.poll();
+            if (event == null) {
+                parked = true;
+                // Re-check after publishing parked, so a post that missed the flag is not lost
+                if (events.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                continue;
+            }
+            try {
+                handle(event);
+            } catch (RuntimeException e) {
+                // One bad event must not stop the lobby
+                ServerLog.error("Lobby event {} failed", event.kind, e);
+            }
+            latencyRecorder.accept(System.nanoTime() - event.postedNanos);
+        }
+    }
+
+    private void handle(Event event) {
+        NewServer.ClientHandler client = event.client;
+        switch (event.kind) {
+            case READY:
+                NewServer.ready(client);
+                break;
+            case LEAVE:
+                GameRoom room = client.getRoom();
+                if (room != null) {
+                    room.remove(client);
+                }
+                break;
+            case SCORE_UPDATE:
+                NewServer.updateScore(client, event.score);
+                break;
+            case FINISHED:
+                NewServer.gameFinished(client);
+                break;
+            case SCORES_RESYNC:
+                NewServer.scoresResync(client);
+                break;
+            case DISCONNECTED:
+                NewServer.disconnected(client);
+                break;
+            case TIMER_TICK:
+            case VALIDATED_SCORES:
+                event.task.run();
+                break;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Backend for a node whose hub runs in another process on the same machine: one loopback socket
+// per node carries the ClusterBackend calls to the hub and the Listener calls back. Messages are a
+// type byte followed by DataOutputStream fields, and a message goes out as soon as it is written.
+// No call waits for the hub: a claim is answered by the reader thread, or with null by a timer after
+// CLAIM_TIMEOUT_MILLIS. serve() is the hub's end.
+final class LoopbackClusterBackend implements ClusterBackend {
+    private static final long CLAIM_TIMEOUT_MILLIS = 2000;
+
+    // Node to hub
+    private static final byte JOIN = 1; // node, address
+    private static final byte CLAIM = 2; // request id, name
+    private static final byte RELEASE = 3; // name
+    private static final byte ENQUEUE = 4; // name, rating
+    private static final byte PUBLISH = 5; // scores, winners
+    // Hub to node
+    private static final byte CLAIMED = 11; // request id, name ("" if the node is unknown)
+    private static final byte MATCHED = 12; // id, host, address, names with tickets
+    private static final byte MATCH_ENDED = 13; // scores, winners
+
+    private final int hubPort;
+    private final AtomicInteger nextRequest = new AtomicInteger();
+    private final Map<Integer, Consumer<String>> claims = new ConcurrentHashMap<>(); // Unanswered, by request id
+    private Socket socket;
+    private DataOutputStream out; // Guarded by itself
+    private final AtomicBoolean broken = new AtomicBoolean(false); // Set once, when the hub is lost
+    private volatile Listener listener;
+
+    LoopbackClusterBackend(int hubPort) {
+        this.hubPort = hubPort;
+    }
+
+    @Override
+    public void join(String node, String address, Listener listener) throws IOException {
+        this.listener = listener;
+        socket = new Socket(InetAddress.getLoopbackAddress(), hubPort);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        send(JOIN, node, address);
+        Thread reader = new Thread(() -> read(in, listener), "cluster-backend");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void claimName(String requested, Consumer<String> claimed) {
+        if (broken.get()) {
+            claimed.accept(null);
+            return;
+        }
+        int request = nextRequest.incrementAndGet();
+        claims.put(request, claimed);
+        TimerService.shared().schedule(() -> {
+            Consumer<String> unanswered = claims.remove(request);
+            if (unanswered != null) {
+                ServerLog.warn("Cluster hub did not answer a claim for {} within {} ms", requested, CLAIM_TIMEOUT_MILLIS);
+                unanswered.accept(null);
+            }
+        }, CLAIM_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            synchronized (out) {
+                out.writeByte(CLAIM);
+                out.writeInt(request);
+                out.writeUTF(requested);
+                out.flush();
+            }
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void releaseName(String name) {
+        send(RELEASE, name);
+    }
+
+    @Override
+    public boolean enqueue(String name, double rating) {
+        if (broken.get()) {
+            return false;
+        }
+        try {
+            synchronized (out) {
+                out.writeByte(ENQUEUE);
+                out.writeUTF(name);
+                out.writeDouble(rating);
+                out.flush();
+            }
+            return true;
+        } catch (IOException e) {
+            failed(e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean publishMatch(Map<String, Integer> finalScores, List<String> winners) {
+        if (broken.get()) {
+            return false;
+        }
+        try {
+            synchronized (out) {
+                out.writeByte(PUBLISH);
+                writeResult(out, finalScores, winners);
+                out.flush();
+            }
+            return true;
+        } catch (IOException e) {
+            failed(e);
+            return false;
+        }
+    }
+
+    private void send(byte type, String... fields) {
+        if (broken.get()) {
+            return; // The hub forgot this node's names already
+        }
+        try {
+            synchronized (out) {
+                out.writeByte(type);
+                for (String field : fields) {
+                    out.writeUTF(field);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    // Reader thread: answers to claims and the hub's Listener calls
+    private void read(DataInputStream in, Listener listener) {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == CLAIMED) {
+                    int request = in.readInt();
+                    String name = in.readUTF();
+                    Consumer<String> claimed = claims.remove(request);
+                    if (claimed != null) {
+                        claimed.accept(name.isEmpty() ? null : name);
+                    } else if (!name.isEmpty()) {
+                        releaseName(name); // Answered after the timeout; the player went on without it
+                    }
+                } else if (type == MATCHED) {
+                    listener.matched(readMatch(in));
+                } else if (type == MATCH_ENDED) {
+                    Map<String, Integer> finalScores = new LinkedHashMap<>();
+                    List<String> winners = new ArrayList<>();
+                    readResult(in, finalScores, winners);
+                    listener.matchEnded(finalScores, winners);
+                } else {
+                    throw new IOException("Unknown cluster message " + type);
+                }
+            }
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void failed(Exception e) {
+        boolean first = broken.compareAndSet(false, true);
+        if (first) {
+            ServerLog.error("Lost the cluster hub on port {}", hubPort, e);
+        }
+        try {
+            socket.close();
+        } catch (IOException closing) {
+            // Already closed
+        }
+        for (Integer request : claims.keySet()) {
+            Consumer<String> claimed = claims.remove(request);
+            if (claimed != null) {
+                claimed.accept(null); // Waiting claims fail now instead of at their timeout
+            }
+        }
+        if (first) {
+            listener.lost();
+        }
+    }
+
+    // Serves the hub to nodes in other processes on a loopback port, one thread per node
+    static void serve(ClusterHub hub, int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket node = serverSocket.accept();
+                    node.setTcpNoDelay(true);
+                    Thread thread = new Thread(() -> serveNode(hub, node), "cluster-hub-" + node.getPort());
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    ServerLog.error("Cluster hub stopped accepting nodes", e);
+                    return;
+                }
+            }
+        }, "cluster-hub");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        ServerLog.info("Cluster hub listening on loopback port {}", port);
+    }
+
+    private static void serveNode(ClusterHub hub, Socket socket) {
+        String node = null;
+        Listener listener = null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readByte() != JOIN) {
+                throw new IOException("Expected JOIN");
+            }
+            node = in.readUTF();
+            listener = new RemoteNode(out);
+            hub.join(node, in.readUTF(), listener);
+            while (true) {
+                byte type = in.readByte();
+                if (type == CLAIM) {
+                    int request = in.readInt();
+                    String name = hub.claimName(node, in.readUTF());
+                    synchronized (out) {
+                        out.writeByte(CLAIMED);
+                        out.writeInt(request);
+                        out.writeUTF(name != null ? name : "");
+                        out.flush();
+                    }
+                } else if (type == RELEASE) {
+                    hub.releaseName(node, in.readUTF());
+                } else if (type == ENQUEUE) {
+                    hub.enqueue(node, in.readUTF(), in.readDouble());
+                } else if (type == PUBLISH) {
+                    Map<String, Integer> finalScores = new LinkedHashMap<>();
+                    List<String> winners = new ArrayList<>();
+                    readResult(in, finalScores, winners);
+                    hub.publishMatch(finalScores, winners);
+                } else {
+                    throw new IOException("Unknown cluster message " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // The node closed its end
+        } catch (IOException e) {
+            ServerLog.warn("Cluster node {} failed: {}", node, e.toString());
+        } finally {
+            if (node != null) {
+                hub.leave(node, listener);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    // The hub's Listener for a node in another process: writes the calls to its socket
+    private static final class RemoteNode implements Listener {
+        private final DataOutputStream out;
+
+        RemoteNode(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void matched(ClusterHub.Match match) {
+            try {
+                synchronized (out) {
+                    out.writeByte(MATCHED);
+                    out.writeLong(match.id);
+                    out.writeUTF(match.host);
+                    out.writeUTF(match.hostAddress);
+                    out.writeInt(match.names.size());
+                    for (int i = 0; i < match.names.size(); i++) {
+                        out.writeUTF(match.names.get(i));
+                        out.writeUTF(match.tickets.get(i));
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                ServerLog.warn("Could not send match {} to a cluster node: {}", match.id, e.toString());
+            }
+        }
+
+        @Override
+        public void matchEnded(Map<String, Integer> finalScores, List<String> winners) {
+            try {
+                synchronized (out) {
+                    out.writeByte(MATCH_ENDED);
+                    writeResult(out, finalScores, winners);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                ServerLog.warn("Could not send a match result to a cluster node: {}", e.toString());
+            }
+        }
+
+        @Override
+        public void lost() {
+            // Only a node's own backend loses the hub; the node notices its socket closing
+        }
+    }
+
+    private static ClusterHub.Match readMatch(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String host = in.readUTF();
+        String address = in.readUTF();
+        int size = in.readInt();
+        List<String> names = new ArrayList<>(size);
+        List<String> tickets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            names.add(in.readUTF());
+            tickets.add(in.readUTF());
+        }
+        return new ClusterHub.Match(id, host, address, names, tickets);
+    }
+
+    private static void writeResult(DataOutputStream out, Map<String, Integer> finalScores, List<String> winners) throws IOException {
+        out.writeInt(finalScores.size());
+        for (Map.Entry<String, Integer> entry : finalScores.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+        out.writeInt(winners.size());
+        for (String winner : winners) {
+            out.writeUTF(winner);
+        }
+    }
+
+    private static void readResult(DataInputStream in, Map<String, Integer> finalScores, List<String> winners) throws IOException {
+        int scores = in.readInt();
+        for (int i = 0; i < scores; i++) {
+            finalScores.put(in.readUTF(), in.readInt());
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            winners.add(in.readUTF());
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+// Append-only history of every match: when it started and with whom, every score change, how it
+// ended and who won. Game code only queues a record and returns; a background thread writes the
+// records into memory-mapped segment files and rolls over to a new file when one is full. When the
+// queue is full, records are dropped and counted instead of blocking the game. Writes are forced
+// to disk in groups: after commitRecords records or once the oldest unforced record is
+// commitMillis old, whichever comes first. Every server start begins a new segment.
+//
+// Segment file "<index>.journal": int MAGIC, int VERSION, then records, then zeros. Each record is
+//   int length, int crc32 (of the payload), payload:
+//   byte type, long timeMillis, int room, short count, count x (short nameLength, UTF-8 name, int score)
+// Counts and name lengths are unsigned. A zero length ends a segment; a record whose checksum does
+// not match (a torn write) ends it too.
+//   -Dserver.journal=false                  keep no journal
+//   -Dserver.journal.dir=<path>             directory of the segment files (default "journal")
+//   -Dserver.journal.segmentBytes=<n>       size of each segment file (default 16 MiB)
+//   -Dserver.journal.commitRecords=<n>      force after this many records (default 256; 0 leaves it to the OS)
+//   -Dserver.journal.commitMillis=<n>       force once the oldest unforced record is this old (default 10)
+//   -Dserver.journal.buffer=<records>       records queued before new ones are dropped (default 65536)
+final class MatchJournal {
+    enum Type {
+        MATCH_STARTED, // The players, all at score 0
+        SCORE_CHANGED, // One player and their new score
+        PLAYER_LEFT, // One player, score 0
+        MATCH_FINISHED, // A player answered every question; final scores
+        MATCH_ABANDONED, // Too few players left to continue; final scores
+        WINNER // The winners (several on a tie) and their score
+    }
+
+    static final int MAGIC = 0x4D4A4E4C; // "MJNL"
+    static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8; // length and crc32
+    private static final int FIXED_PAYLOAD_BYTES = 1 + 8 + 4 + 2;
+    private static final String SUFFIX = ".journal";
+
+    private static volatile MatchJournal shared;
+
+    // One journal entry, as queued by the game and as read back by a Reader. Immutable.
+    static final class Record {
+        final Type type;
+        final long timeMillis;
+        final int room;
+        final List<String> players;
+        private final int[] scores;
+
+        Record(Type type, long timeMillis, int room, List<String> players, int[] scores) {
+            this.type = type;
+            this.timeMillis = timeMillis;
+            this.room = room;
+            this.players = players;
+            this.scores = scores;
+        }
+
+        int score(int index) {
+            return scores[index];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(timeMillis).append(" room ").append(room).append(' ').append(type);
+            for (int i = 0; i < players.size(); i++) {
+                text.append(i == 0 ? " " : ",").append(players.get(i)).append(':').append(scores[i]);
+            }
+            return text.toString();
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int commitRecords;
+    private final long commitNanos;
+    private final int capacity;
+    private final boolean enabled;
+
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private volatile long written = 0; // Records in the mapped segments, writer only
+    private volatile long bytesWritten = 0;
+    private volatile long commits = 0;
+    private volatile boolean closing = false;
+    private final Thread writer;
+
+    // Writer thread only
+    private MappedByteBuffer segment;
+    private long segmentIndex;
+    private volatile long segmentsOpened = 0;
+    private int uncommitted = 0;
+    private long oldestUncommittedNanos;
+    private final CRC32 crc = new CRC32();
+
+    // Opens a new segment in the directory (created if missing) and starts the writer thread
+    MatchJournal(Path directory, long segmentBytes, int commitRecords, long commitMillis, int capacity) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = Math.max(SEGMENT_HEADER_BYTES + 1024, segmentBytes);
+        this.commitRecords = Math.max(0, commitRecords);
+        this.commitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, commitMillis));
+        this.capacity = Math.max(1, capacity);
+        this.enabled = true;
+        Files.createDirectories(directory);
+        List<Path> existing = segments(directory);
+        segmentIndex = existing.isEmpty() ? 0 : indexOf(existing.get(existing.size() - 1));
+        openNextSegment();
+        writer = new Thread(this::runWriter, "match-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // A journal that records nothing
+    private MatchJournal() {
+        directory = null;
+        segmentBytes = 0;
+        commitRecords = 0;
+        commitNanos = 0;
+        capacity = 0;
+        enabled = false;
+        writer = null;
+    }
+
+    // The server-wide journal, opened on first use; records nothing when disabled or when the
+    // directory cannot be opened
+    static MatchJournal shared() {
+        MatchJournal journal = shared;
+        if (journal == null) {
+            synchronized (MatchJournal.class) {
+                journal = shared;
+                if (journal == null) {
+                    journal = openShared();
+                    shared = journal;
+                }
+            }
+        }
+        return journal;
+    }
+
+    private static MatchJournal openShared() {
+        if (!Boolean.parseBoolean(System.getProperty("server.journal", "true"))) {
+            return new MatchJournal();
+        }
+        Path directory = Paths.get(System.getProperty("server.journal.dir", "journal"));
+        try {
+            MatchJournal journal = new MatchJournal(directory,
+                    Long.getLong("server.journal.segmentBytes", 16L * 1024 * 1024),
+                    Integer.getInteger("server.journal.commitRecords", 256),
+                    Long.getLong("server.journal.commitMillis", 10),
+                    Integer.getInteger("server.journal.buffer", 65536));
+            // Write and force what is still queued when the server exits normally
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "match-journal-close"));
+            ServerLog.info("Match journal: {}", directory.toAbsolutePath());
+            return journal;
+        } catch (IOException e) {
+            ServerLog.error("Cannot open the match journal in {}. Matches are not recorded.", directory, e);
+            return new MatchJournal();
+        }
+    }
+
+    void matchStarted(int room, List<String> players) {
+        append(Type.MATCH_STARTED, room, new ArrayList<>(players), new int[players.size()]);
+    }
+
+    void scoreChanged(int room, String player, int score) {
+        append(Type.SCORE_CHANGED, room, Collections.singletonList(player), new int[] {score});
+    }
+
+    void playerLeft(int room, String player) {
+        append(Type.PLAYER_LEFT, room, Collections.singletonList(player), new int[1]);
+    }
+
+    // MATCH_FINISHED when a player completed the questions, MATCH_ABANDONED otherwise
+    void matchEnded(int room, boolean completed, Map<String, Integer> finalScores) {
+        List<String> players = new ArrayList<>(finalScores.size());
+        int[] scores = new int[finalScores.size()];
+        for (Map.Entry<String, Integer> entry : finalScores.entrySet()) {
+            scores[players.size()] = entry.getValue();
+            players.add(entry.getKey());
+        }
+        append(completed ? Type.MATCH_FINISHED : Type.MATCH_ABANDONED, room, players, scores);
+    }
+
+    void winners(int room, List<String> winners, int score) {
+        int[] scores = new int[winners.size()];
+        Arrays.fill(scores, score);
+        append(Type.WINNER, room, new ArrayList<>(winners), scores);
+    }
+
+    // Queues a record for the writer. Never blocks; returns false if the record was dropped
+    // because the queue is full or the journal is closed or disabled.
+    boolean append(Type type, int room, List<String> players, int[] scores) {
+        if (!enabled || closing) {
+            return false;
+        }
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+        queue.add(new Record(type, System.currentTimeMillis(), room, players, scores));
+        return true;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    // Records written to the segments so far
+    long written() {
+        return written;
+    }
+
+    // Bytes of those records, headers included
+    long bytesWritten() {
+        return bytesWritten;
+    }
+
+    // Records dropped because the queue was full
+    long dropped() {
+        return dropped.sum();
+    }
+
+    // Times the segment was forced to disk
+    long commits() {
+        return commits;
+    }
+
+    long segmentsOpened() {
+        return segmentsOpened;
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    // Stops taking records, writes and forces everything queued, and waits for the writer to finish
+    void close() {
+        if (!enabled || closing) {
+            return;
+        }
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            Record record = queue.poll();
+            if (record != null) {
+                queued.decrementAndGet();
+                try {
+                    write(record);
+                } catch (IOException | RuntimeException e) {
+                    ServerLog.error("Match journal write failed; record dropped", e);
+                    dropped.increment();
+                }
+                if (commitRecords > 0 && uncommitted >= commitRecords) {
+                    commit();
+                }
+            } else if (closing) {
+                commit();
+                return;
+            } else {
+                // Idle: wait for records, but no longer than the next time-based commit is due
+                long wait = TimeUnit.MILLISECONDS.toNanos(1);
+                if (uncommitted > 0 && commitRecords > 0) {
+                    long due = oldestUncommittedNanos + commitNanos - System.nanoTime();
+                    if (due <= 0) {
+                        commit();
+                        continue;
+                    }
+                    wait = Math.min(wait, due);
+                }
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            if (uncommitted > 0 && commitRecords > 0 && System.nanoTime() - oldestUncommittedNanos >= commitNanos) {
+                commit();
+            }
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        int count = record.players.size();
+        byte[][] names = new byte[count][];
+        int payload = FIXED_PAYLOAD_BYTES;
+        int longestName = 0;
+        for (int i = 0; i < count; i++) {
+            names[i] = record.players.get(i).getBytes(StandardCharsets.UTF_8);
+            payload += 2 + names[i].length + 4;
+            longestName = Math.max(longestName, names[i].length);
+        }
+        int size = RECORD_HEADER_BYTES + payload;
+        if (size > segmentBytes - SEGMENT_HEADER_BYTES || count > 0xFFFF || longestName > 0xFFFF) {
+            ServerLog.warn("Match journal record of {} bytes does not fit in a segment; dropped", size);
+            dropped.increment();
+            return;
+        }
+        if (segment.remaining() < size) {
+            commit(); // The rest of this segment stays zero, which marks its end
+            openNextSegment();
+        }
+
+        int start = segment.position();
+        segment.position(start + RECORD_HEADER_BYTES);
+        segment.put((byte) record.type.ordinal());
+        segment.putLong(record.timeMillis);
+        segment.putInt(record.room);
+        segment.putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            segment.putShort((short) names[i].length);
+            segment.put(names[i]);
+            segment.putInt(record.scores[i]);
+        }
+        int end = segment.position();
+
+        ByteBuffer body = segment.duplicate();
+        body.position(start + RECORD_HEADER_BYTES).limit(end);
+        crc.reset();
+        crc.update(body);
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, payload); // Written last: a reader sees the length only after the rest
+
+        if (uncommitted++ == 0) {
+            oldestUncommittedNanos = System.nanoTime();
+        }
+        written++;
+        bytesWritten += size;
+    }
+
+    private void commit() {
+        if (uncommitted == 0) {
+            return;
+        }
+        if (commitRecords > 0) {
+            segment.force();
+            commits++;
+        }
+        uncommitted = 0;
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentIndex++;
+        Path file = directory.resolve(String.format("%010d%s", segmentIndex, SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes); // The mapping outlives the channel
+        }
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segmentsOpened++;
+    }
+
+    // Segment files in the directory, oldest first
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                if (indexOf(file) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort((a, b) -> Long.compare(indexOf(a), indexOf(b)));
+        return files;
+    }
+
+    private static long indexOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Reads every record in the directory's segments, oldest first. Safe to use while the server
+    // is writing: a record still being written is not returned.
+    static Reader read(Path directory) throws IOException {
+        return new Reader(segments(directory));
+    }
+
+    static final class Reader implements Iterator<Record> {
+        private final List<Path> files;
+        private int nextFile = 0;
+        private ByteBuffer segment;
+        private Record next;
+        private final CRC32 crc = new CRC32();
+
+        private Reader(List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (segment != null) {
+                    next = readRecord();
+                    if (next != null) {
+                        break;
+                    }
+                    segment = null; // End of this segment
+                }
+                if (nextFile >= files.size()) {
+                    return false;
+                }
+                segment = openSegment(files.get(nextFile++));
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record record = next;
+            next = null;
+            return record;
+        }
+
+        private static ByteBuffer openSegment(Path file) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < SEGMENT_HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    ServerLog.warn("Skipping {}: not a match journal segment", file);
+                    return null;
+                }
+                return buffer;
+            } catch (IOException e) {
+                ServerLog.warn("Skipping {}: {}", file, e);
+                return null;
+            }
+        }
+
+        // The next complete record of the current segment, or null at its end
+        private Record readRecord() {
+            if (segment.remaining() < RECORD_HEADER_BYTES + FIXED_PAYLOAD_BYTES) {
+                return null;
+            }
+            int start = segment.position();
+            int length = segment.getInt(start);
+            int checksum = segment.getInt(start + 4);
+            if (length < FIXED_PAYLOAD_BYTES || length > segment.remaining() - RECORD_HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer body = segment.duplicate();
+            body.position(start + RECORD_HEADER_BYTES).limit(start + RECORD_HEADER_BYTES + length);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                return null; // Torn or not yet complete
+            }
+            try {
+                segment.position(start + RECORD_HEADER_BYTES);
+                Type type = Type.values()[segment.get()];
+                long timeMillis = segment.getLong();
+                int room = segment.getInt();
+                int count = segment.getShort() & 0xFFFF;
+                List<String> players = new ArrayList<>(count);
+                int[] scores = new int[count];
+                for (int i = 0; i < count; i++) {
+                    byte[] name = new byte[segment.getShort() & 0xFFFF];
+                    segment.get(name);
+                    players.add(new String(name, StandardCharsets.UTF_8));
+                    scores[i] = segment.getInt();
+                }
+                segment.position(start + RECORD_HEADER_BYTES + length);
+                return new Record(type, timeMillis, room, Collections.unmodifiableList(players), scores);
+            } catch (RuntimeException e) {
+                return null; // A checksum collision on garbage; treat as the end
+            }
+        }
+    }
+
+    // Prints the journal in a directory: MatchJournal [directory]
+    public static void main(String[] args) throws IOException {
+        Reader reader = read(Paths.get(args.length > 0 ? args[0] : "journal"));
+        while (reader.hasNext()) {
+            System.out.println(reader.next());
+        }
+    }
+}
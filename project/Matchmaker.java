@@ -0,0 +1,212 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+// Skill-based matchmaking queue. Waiting players are kept ordered by rating; a player only
+// accepts others within their window, which starts narrow and widens the longer they wait. A group
+// is formed when every member is within every other member's window, that is when the rating
+// spread of the group is at most the smallest window in it. Full groups (max players) are formed
+// as soon as they exist; a smaller group (at least min players) once one of its members has
+// waited partialAfter, so a quiet server still gets games going.
+// Each enqueue looks for a group around the new player by walking outwards through its nearest
+// neighbours in rating order: O(log n) plus a bounded number of neighbours. Players whose window
+// grew are retried by tick(), each at most once per RETRY_NANOS, in the order they fall due.
+// Not tied to connections, so the simulation benchmark runs it with plain objects. Thread-safe;
+// formed groups are returned to the caller, which starts them outside the queue's lock.
+// The server's queue (see NewServer.ready) rates players with NewServer.rating and is set up by:
+//   -Dserver.matchmaking=fifo                 fill rooms in arrival order instead, with a countdown
+//                                             per room rather than per queued player
+//   -Dserver.match.baseWindow=<n>             rating difference accepted at first (default 100, the
+//                                             average player is rated 1000)
+//   -Dserver.match.widenPerSecond=<n>         added to the window per second waited (default 50)
+//   -Dserver.match.partialAfterSeconds=<n>    wait before a group of fewer than 4 may start (default 30)
+final class Matchmaker<P> {
+    static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final double BASE_WINDOW = Double.parseDouble(System.getProperty("server.match.baseWindow", "100"));
+    static final double WIDEN_PER_SECOND = Double.parseDouble(System.getProperty("server.match.widenPerSecond", "50"));
+    static final long PARTIAL_AFTER_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("server.match.partialAfterSeconds", 30));
+    private static final int NEIGHBOURS = 16; // Candidates looked at per attempt, both sides together
+
+    private final int minPlayers;
+    private final int maxPlayers;
+    private final long partialAfterNanos;
+    private final double baseWindow;
+    private final double widenPerSecond;
+
+    // Guarded by this
+    private final TreeSet<Entry<P>> byRating = new TreeSet<>((a, b) -> a.rating != b.rating
+            ? Double.compare(a.rating, b.rating) : Long.compare(a.sequence, b.sequence));
+    private final Map<P, Entry<P>> entries = new HashMap<>();
+    // By nextRetry, then join order; removed entries are skipped lazily
+    private final PriorityQueue<Entry<P>> retries = new PriorityQueue<>((a, b) -> a.nextRetry != b.nextRetry
+            ? Long.compare(a.nextRetry, b.nextRetry) : Long.compare(a.sequence, b.sequence));
+    private long nextSequence = 0;
+
+    private static final class Entry<P> {
+        final P player;
+        final double rating;
+        final long sequence;
+        final long enqueuedAt;
+        long nextRetry;
+        boolean queued = true;
+
+        Entry(P player, double rating, long sequence, long enqueuedAt) {
+            this.player = player;
+            this.rating = rating;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+            this.nextRetry = enqueuedAt + RETRY_NANOS;
+        }
+    }
+
+    // A formed group, in rating order, and how long its longest-waiting member waited
+    static final class Match<P> {
+        final List<P> players;
+        final long longestWaitNanos;
+        final double ratingSpread;
+
+        Match(List<P> players, long longestWaitNanos, double ratingSpread) {
+            this.players = players;
+            this.longestWaitNanos = longestWaitNanos;
+            this.ratingSpread = ratingSpread;
+        }
+    }
+
+    Matchmaker(int minPlayers, int maxPlayers, long partialAfterNanos, double baseWindow, double widenPerSecond) {
+        this.minPlayers = minPlayers;
+        this.maxPlayers = maxPlayers;
+        this.partialAfterNanos = partialAfterNanos;
+        this.baseWindow = baseWindow;
+        this.widenPerSecond = widenPerSecond;
+    }
+
+    // Queues a player and returns the group it completes, or null if it has to wait. A player
+    // already queued is left where it is.
+    synchronized Match<P> enqueue(P player, double rating, long nowNanos) {
+        if (entries.containsKey(player)) {
+            return null;
+        }
+        Entry<P> entry = new Entry<>(player, rating, nextSequence++, nowNanos);
+        entries.put(player, entry);
+        byRating.add(entry);
+        retries.add(entry);
+        return tryMatch(entry, nowNanos);
+    }
+
+    // Takes a player out of the queue; false if it was not queued (already matched, or never was)
+    synchronized boolean remove(P player) {
+        Entry<P> entry = entries.remove(player);
+        if (entry == null) {
+            return false;
+        }
+        entry.queued = false;
+        byRating.remove(entry);
+        return true;
+    }
+
+    // Retries the players due since their last attempt, oldest first; returns the groups formed
+    synchronized List<Match<P>> tick(long nowNanos) {
+        List<Match<P>> matches = new ArrayList<>();
+        List<Entry<P>> unmatched = new ArrayList<>();
+        while (!retries.isEmpty() && retries.peek().nextRetry <= nowNanos) {
+            Entry<P> entry = retries.poll();
+            if (!entry.queued) {
+                continue;
+            }
+            Match<P> match = tryMatch(entry, nowNanos);
+            if (match != null) {
+                matches.add(match);
+            } else {
+                unmatched.add(entry);
+            }
+        }
+        for (Entry<P> entry : unmatched) {
+            // From now rather than from the missed slot, so a late tick does not retry twice
+            entry.nextRetry = nowNanos + RETRY_NANOS;
+            retries.add(entry);
+        }
+        return matches;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    // Queued players, each with how long it has waited. Copied under the lock, so the caller may
+    // send to them without holding it.
+    synchronized List<Map.Entry<P, Long>> waiting(long now) {
+        List<Map.Entry<P, Long>> waiting = new ArrayList<>(entries.size());
+        for (Entry<P> entry : entries.values()) {
+            waiting.add(new AbstractMap.SimpleImmutableEntry<>(entry.player, now - entry.enqueuedAt));
+        }
+        return waiting;
+    }
+
+    // Rating difference a player accepts after waiting this long
+    double window(long waitedNanos) {
+        return baseWindow + widenPerSecond * waitedNanos / 1e9;
+    }
+
+    // Builds the tightest group around the anchor from its nearest neighbours. Caller holds this.
+    private Match<P> tryMatch(Entry<P> anchor, long now) {
+        List<Entry<P>> group = new ArrayList<>(maxPlayers);
+        group.add(anchor);
+        double low = anchor.rating;
+        double high = anchor.rating;
+        double window = window(now - anchor.enqueuedAt); // Smallest window in the group
+        long oldest = anchor.enqueuedAt;
+        Entry<P> below = byRating.lower(anchor);
+        Entry<P> above = byRating.higher(anchor);
+        for (int looked = 0; group.size() < maxPlayers && (below != null || above != null) && looked < NEIGHBOURS; looked++) {
+            boolean takeBelow = above == null || (below != null && anchor.rating - below.rating <= above.rating - anchor.rating);
+            Entry<P> candidate = takeBelow ? below : above;
+            if (Math.abs(candidate.rating - anchor.rating) > window) {
+                // Everyone further out on this side is further from the anchor than the group accepts
+                if (takeBelow) {
+                    below = null;
+                } else {
+                    above = null;
+                }
+                continue;
+            }
+            double candidateWindow = Math.min(window, window(now - candidate.enqueuedAt));
+            double candidateLow = Math.min(low, candidate.rating);
+            double candidateHigh = Math.max(high, candidate.rating);
+            if (candidateHigh - candidateLow <= candidateWindow) {
+                group.add(candidate);
+                low = candidateLow;
+                high = candidateHigh;
+                window = candidateWindow;
+                oldest = Math.min(oldest, candidate.enqueuedAt);
+            }
+            if (takeBelow) {
+                below = byRating.lower(candidate);
+            } else {
+                above = byRating.higher(candidate);
+            }
+        }
+        if (group.size() < maxPlayers && (group.size() < minPlayers || now - oldest < partialAfterNanos)) {
+            return null;
+        }
+        group.sort((a, b) -> Double.compare(a.rating, b.rating));
+        List<P> players = new ArrayList<>(group.size());
+        for (Entry<P> entry : group) {
+            entries.remove(entry.player);
+            byRating.remove(entry);
+            entry.queued = false;
+            players.add(entry.player);
+        }
+        return new Match<>(players, now - oldest, high - low);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Simulation of the matchmaking queue against first-come grouping (what -Dserver.matchmaking=fifo
+// does, without its countdown). Players with ratings drawn around 1000 arrive at random at a fixed
+// rate on a simulated clock; the queue is ticked once per simulated second as the server does. Reports:
+//   matches/s        groups formed per second of real time spent in enqueue and tick (queue cost only)
+//   enqueue ns       real time per enqueue, including the group search
+//   time to match    simulated milliseconds from enqueue to game start, p50/p99/p999/max over all players
+//   rating spread    highest minus lowest rating in a group, p50/p99 over all groups
+// Usage: MatchmakingBenchmark [players] [arrivalsPerSecond] [ratingDeviation]
+//   defaults 200000, 500, 200; -Dserver.match.* tune the queue as on the server (see Matchmaker)
+class MatchmakingBenchmark {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long DRAIN_NANOS = TimeUnit.MINUTES.toNanos(10); // Simulated time allowed after the last arrival
+
+    private static final class Player {
+        final double rating;
+        final long arrivedAt;
+
+        Player(double rating, long arrivedAt) {
+            this.rating = rating;
+            this.arrivedAt = arrivedAt;
+        }
+    }
+
+    private static final class Result {
+        final Histogram waitMillis = new Histogram();
+        final Histogram spread = new Histogram();
+        long matches;
+        long matched;
+        long queueNanos;
+        long enqueueNanos;
+    }
+
+    public static void main(String[] args) {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        double arrivalsPerSecond = args.length > 1 ? Double.parseDouble(args[1]) : 500;
+        double deviation = args.length > 2 ? Double.parseDouble(args[2]) : 200;
+        // Keeps benchmark players out of leaderboard.dat and journal/ in the working directory
+        System.setProperty("server.leaderboard.persist", "false");
+        System.setProperty("server.journal", "false");
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("%d players, %.0f arrivals/s, ratings 1000 +- %.0f; window %.0f + %.0f/s, partial groups after %d s%n",
+                players, arrivalsPerSecond, deviation, Matchmaker.BASE_WINDOW, Matchmaker.WIDEN_PER_SECOND,
+                TimeUnit.NANOSECONDS.toSeconds(Matchmaker.PARTIAL_AFTER_NANOS));
+        List<Player> arrivals = arrivals(players, arrivalsPerSecond, deviation, 42);
+        runRating(arrivals(Math.min(players, 20_000), arrivalsPerSecond, deviation, 7)); // Warm-up
+
+        System.out.println("queue     matches  matched   matches/s  enqueue ns  wait p50 ms   p99 ms  p999 ms   max ms  spread p50   p99");
+        print("fifo", runFifo(arrivals), players);
+        print("rating", runRating(arrivals), players);
+    }
+
+    // Poisson arrivals: exponential gaps on the simulated clock, normally distributed ratings
+    private static List<Player> arrivals(int players, double perSecond, double deviation, long seed) {
+        Random random = new Random(seed);
+        List<Player> arrivals = new ArrayList<>(players);
+        double now = 0;
+        for (int i = 0; i < players; i++) {
+            now += -Math.log(1 - random.nextDouble()) / perSecond * SECOND;
+            arrivals.add(new Player(Math.max(0, 1000 + deviation * random.nextGaussian()), (long) now));
+        }
+        return arrivals;
+    }
+
+    private static Result runRating(List<Player> arrivals) {
+        Matchmaker<Player> queue = new Matchmaker<>(GameRoom.MIN_PLAYERS_TO_CONTINUE, GameRoom.MAX_PLAYERS_FOR_GAME,
+                Matchmaker.PARTIAL_AFTER_NANOS, Matchmaker.BASE_WINDOW, Matchmaker.WIDEN_PER_SECOND);
+        Result result = new Result();
+        long nextTick = SECOND;
+        for (Player player : arrivals) {
+            while (nextTick <= player.arrivedAt) {
+                tick(queue, nextTick, result);
+                nextTick += SECOND;
+            }
+            long start = System.nanoTime();
+            Matchmaker.Match<Player> match = queue.enqueue(player, player.rating, player.arrivedAt);
+            long spent = System.nanoTime() - start;
+            result.enqueueNanos += spent;
+            result.queueNanos += spent;
+            record(match, player.arrivedAt, result);
+        }
+        long end = arrivals.get(arrivals.size() - 1).arrivedAt + DRAIN_NANOS;
+        for (; nextTick <= end && queue.size() > 0; nextTick += SECOND) {
+            tick(queue, nextTick, result);
+        }
+        return result;
+    }
+
+    private static void tick(Matchmaker<Player> queue, long now, Result result) {
+        long start = System.nanoTime();
+        List<Matchmaker.Match<Player>> matches = queue.tick(now);
+        result.queueNanos += System.nanoTime() - start;
+        for (Matchmaker.Match<Player> match : matches) {
+            record(match, now, result);
+        }
+    }
+
+    private static void record(Matchmaker.Match<Player> match, long now, Result result) {
+        if (match == null) {
+            return;
+        }
+        result.matches++;
+        result.matched += match.players.size();
+        result.spread.record(Math.round(match.ratingSpread));
+        for (Player player : match.players) {
+            result.waitMillis.record(TimeUnit.NANOSECONDS.toMillis(now - player.arrivedAt));
+        }
+    }
+
+    // Groups of MAX_PLAYERS_FOR_GAME in arrival order, as the filling room does
+    private static Result runFifo(List<Player> arrivals) {
+        Result result = new Result();
+        ArrayDeque<Player> queue = new ArrayDeque<>();
+        for (Player player : arrivals) {
+            long start = System.nanoTime();
+            queue.add(player);
+            List<Player> group = null;
+            if (queue.size() == GameRoom.MAX_PLAYERS_FOR_GAME) {
+                group = new ArrayList<>(queue);
+                queue.clear();
+            }
+            long spent = System.nanoTime() - start;
+            result.enqueueNanos += spent;
+            result.queueNanos += spent;
+            if (group != null) {
+                double low = Double.MAX_VALUE;
+                double high = 0;
+                for (Player member : group) {
+                    low = Math.min(low, member.rating);
+                    high = Math.max(high, member.rating);
+                }
+                record(new Matchmaker.Match<>(group, player.arrivedAt - group.get(0).arrivedAt, high - low), player.arrivedAt, result);
+            }
+        }
+        return result;
+    }
+
+    private static void print(String name, Result result, int players) {
+        System.out.printf("%-8s %8d %8d %11.0f %11.1f %12d %8d %8d %8d %11d %5d%n", name, result.matches, result.matched,
+                result.matches / Math.max(1e-9, result.queueNanos / 1e9), (double) result.enqueueNanos / players,
+                result.waitMillis.percentile(0.5), result.waitMillis.percentile(0.99), result.waitMillis.percentile(0.999),
+                result.waitMillis.max(), result.spread.percentile(0.5), result.spread.percentile(0.99));
+        if (result.matched < players) {
+            System.out.printf("         %d players still waiting at the end%n", players - result.matched);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+// Read-only MBean whose attributes are suppliers, read when a JMX client asks for them, so nothing
+// is computed or copied on the server's hot paths. Operations take no arguments. Built with
+// attribute()/operation() and registered by ServerMetrics.registerMBeans.
+final class MetricsMBean implements DynamicMBean {
+    private final String description;
+    private final Map<String, Metric> attributes = new LinkedHashMap<>();
+    private final Map<String, Metric> operations = new LinkedHashMap<>();
+    private MBeanInfo info;
+
+    private static final class Metric {
+        final String description;
+        final Class<?> type;
+        final Supplier<?> value;
+
+        Metric(String description, Class<?> type, Supplier<?> value) {
+            this.description = description;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    MetricsMBean(String description) {
+        this.description = description;
+    }
+
+    // type is the value's class as JMX clients should see it: Long, Integer, Double, Boolean, String or String[]
+    <T> MetricsMBean attribute(String name, String description, Class<T> type, Supplier<? extends T> value) {
+        attributes.put(name, new Metric(description, type, value));
+        return this;
+    }
+
+    <T> MetricsMBean operation(String name, String description, Class<T> type, Supplier<? extends T> value) {
+        operations.put(name, new Metric(description, type, value));
+        return this;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Metric metric = attributes.get(attribute);
+        if (metric == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return metric.value.get();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            Metric metric = attributes.get(name);
+            if (metric != null) {
+                list.add(new Attribute(name, metric.value.get()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList(); // Nothing is writable
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        Metric metric = operations.get(actionName);
+        if (metric == null || (params != null && params.length > 0)) {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+        return metric.value.get();
+    }
+
+    @Override
+    public synchronized MBeanInfo getMBeanInfo() {
+        if (info == null) {
+            List<MBeanAttributeInfo> attributeInfo = new ArrayList<>();
+            for (Map.Entry<String, Metric> entry : attributes.entrySet()) {
+                attributeInfo.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().type.getName(),
+                        entry.getValue().description, true, false, false));
+            }
+            List<MBeanOperationInfo> operationInfo = new ArrayList<>();
+            for (Map.Entry<String, Metric> entry : operations.entrySet()) {
+                operationInfo.add(new MBeanOperationInfo(entry.getKey(), entry.getValue().description,
+                        new MBeanParameterInfo[0], entry.getValue().type.getName(), MBeanOperationInfo.INFO));
+            }
+            info = new MBeanInfo(MetricsMBean.class.getName(), description,
+                    attributeInfo.toArray(new MBeanAttributeInfo[0]), null,
+                    operationInfo.toArray(new MBeanOperationInfo[0]), null);
+        }
+        return info;
+    }
+}
@@ -5,487 +5,1165 @@
 package network.project;
 
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap; // Consider Concurrent Collections for thread safety
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
 
 public class NewServer {
     private static final int PORT = 12345;
-    // Using synchronizedList for thread-safe list access
-    private static List<ClientHandler> connectedPlayers = Collections.synchronizedList(new ArrayList<>());
-    private static List<String> waitingRoom = Collections.synchronizedList(new ArrayList<>());
-    private static List<String> gamePlayers = Collections.synchronizedList(new ArrayList<>()); // Players currently in game
-    private static final int MIN_PLAYERS_TO_CONTINUE = 2;
-    private static final int MAX_PLAYERS_FOR_GAME = 4; // Added for clarity
+    // Every connection, indexed by connection and by name, with its lobby state
+    private static final PlayerRegistry players = new PlayerRegistry();
+    // Player list sent to clients; follows every registry change
+    private static final Roster roster = new Roster(players);
 
-    private static boolean isTimerRunning = false;
-    private static Timer timer; // Timer for waiting room countdown
-    private static int countdownSeconds = 30;
+    static {
+        players.setListener(roster);
+    }
+
+    // The room that READY players are currently sent to. Replaced once its game starts, so any
+    // number of rooms can be playing at the same time while new players fill the next one.
+    private static final AtomicReference<GameRoom> fillingRoom = new AtomicReference<>();
+
+    // READY players queue here and are grouped by rating; null with -Dserver.matchmaking=fifo,
+    // where they go to the filling room instead
+    private static final Matchmaker<ClientHandler> matchmaker = "fifo".equals(System.getProperty("server.matchmaking")) ? null
+            : new Matchmaker<>(GameRoom.MIN_PLAYERS_TO_CONTINUE, GameRoom.MAX_PLAYERS_FOR_GAME, Matchmaker.PARTIAL_AFTER_NANOS,
+                    Matchmaker.BASE_WINDOW, Matchmaker.WIDEN_PER_SECOND);
+    private static final AtomicBoolean matchTicking = new AtomicBoolean(false);
+    private static final int PRIOR_MATCHES = 3; // Matches' worth of league average mixed into every rating
 
-    // Using ConcurrentHashMap for thread-safe map access
-    private static Map<String, Integer> scoreboard = new ConcurrentHashMap<>();
+    // Thread.startVirtualThread, looked up reflectively so the server still runs on JDKs without Loom
+    private static final Method START_VIRTUAL_THREAD = findStartVirtualThread();
+    private static volatile boolean useVirtualThreads = false;
 
-    // Flag to indicate if a game is currently active
-    private static volatile boolean isGameActive = false; // Use volatile as it's accessed by multiple threads
+    // Set when lobby and game state are owned by a single event-loop thread (-Dserver.lobby=loop),
+    // null when connection threads apply commands under per-room locks
+    private static volatile LobbyEventLoop lobbyLoop;
 
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server started on port " + PORT + ". Waiting for players...");
+        // Optional first argument selects the connection model: "thread" (default), "virtual" or "nio"
+        String mode = args.length > 0 ? args[0] : "thread";
+        // Optional second argument sets the number of reactor threads in "nio" mode
+        int reactors = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        try {
+            runServer(mode, Integer.getInteger("server.port", PORT), reactors);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Runs the accept loop for the given connection model. Blocks until the server socket fails.
+    static void runServer(String mode, int port, int reactors) throws IOException {
+        ServerMetrics.registerMBeans();
+        if ("loop".equals(System.getProperty("server.lobby"))) {
+            startLobbyLoop(ServerMetrics::recordLobbyEvent);
+        }
+        Leaderboard.shared(); // Load the last snapshot now rather than when the first game ends
+        Cluster.start(port);
+        if ("nio".equals(mode)) {
+            ServerMetrics.startReporter();
+            new NioServer(port, reactors).run();
+        } else {
+            runBlocking(port, "virtual".equals(mode));
+        }
+    }
+
+    // Blocking model: one thread per connected client, either a platform thread or a virtual thread
+    private static void runBlocking(int port, boolean virtualThreads) throws IOException {
+        if (virtualThreads && START_VIRTUAL_THREAD == null) {
+            ServerLog.warn("Virtual threads are not available on this JDK. Using platform threads.");
+            virtualThreads = false;
+        }
+        useVirtualThreads = virtualThreads;
+        ServerMetrics.startReporter();
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Server started on port " + port + (virtualThreads ? " (virtual threads)" : "") + ". Waiting for players...");
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("ServerLog: New client connected: " + clientSocket);
+                ServerLog.info("New client connected: {}", clientSocket);
                 ClientHandler clientHandler = new ClientHandler(clientSocket);
-                connectedPlayers.add(clientHandler); // Add to list of all connected clients
-                new Thread(clientHandler).start(); // Start a new thread for the client
+                addConnection(clientHandler); // Add to list of all connected clients
+                startConnectionThread(clientHandler); // Start a new thread for the client
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
-    // Broadcasts current connected and waiting lists to all connected clients
-    private static void updateAllClients() {
-        String connectedListMsg = "CONNECTED:" + getConnectedPlayerNames();
-        String waitingListMsg = "WAITING:" + String.join(",", waitingRoom);
+    // Starts a per-connection thread (reader or writer) using the configured thread model
+    private static void startConnectionThread(Runnable task) {
+        if (useVirtualThreads) {
+            startVirtualThread(task);
+        } else {
+            new Thread(task).start();
+        }
+    }
+
+    private static Method findStartVirtualThread() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static void startVirtualThread(Runnable task) {
+        try {
+            START_VIRTUAL_THREAD.invoke(null, task);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not start virtual thread", e);
+        }
+    }
+
+    // Registers a newly accepted connection, regardless of which I/O model accepted it
+    static void addConnection(ClientHandler clientHandler) {
+        players.add(clientHandler);
+    }
+
+    static PlayerRegistry players() {
+        return players;
+    }
 
-        // Iterate over a copy to avoid ConcurrentModificationException if a client disconnects
-        List<ClientHandler> currentConnectedPlayers = new ArrayList<>(connectedPlayers);
-        for (ClientHandler client : currentConnectedPlayers) {
-            client.sendMessage(connectedListMsg);
-            client.sendMessage(waitingListMsg);
+    // Deepest outbound queue over all current connections
+    static int maxOutboundQueueDepth() {
+        int max = 0;
+        for (ClientHandler client : players.connections()) {
+            max = Math.max(max, client.outboundQueueDepth());
         }
+        return max;
     }
 
-    // Gets names of all currently connected players
-    private static String getConnectedPlayerNames() {
-        List<String> names = new ArrayList<>();
-        // Iterate over a copy for safety
-        List<ClientHandler> currentConnectedPlayers = new ArrayList<>(connectedPlayers);
-        for (ClientHandler client : currentConnectedPlayers) {
-            // Only add if player name is set (client finished initial name entry)
-            if (client.getPlayerName() != null) {
-                names.add(client.getPlayerName());
+    // The connections with the most queued messages, deepest first, as "name: depth"
+    static String[] deepestOutboundQueues(int limit) {
+        // Depths are read once, since they keep changing while the heap orders them
+        PriorityQueue<Map.Entry<ClientHandler, Integer>> deepest = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (ClientHandler client : players.connections()) {
+            deepest.add(new AbstractMap.SimpleImmutableEntry<>(client, client.outboundQueueDepth()));
+            if (deepest.size() > limit) {
+                deepest.poll();
             }
         }
-        return String.join(",", names);
+        String[] lines = new String[deepest.size()];
+        for (int i = lines.length - 1; i >= 0; i--) {
+            Map.Entry<ClientHandler, Integer> entry = deepest.poll();
+            String name = entry.getKey().getPlayerName();
+            lines[i] = (name != null ? name : entry.getKey().describeConnection()) + ": " + entry.getValue();
+        }
+        return lines;
+    }
+
+    // The room READY players currently join, or null if none is open
+    static GameRoom fillingRoom() {
+        return fillingRoom.get();
+    }
+
+    // Number of currently registered connections (named or not)
+    static int connectionCount() {
+        return players.size();
     }
 
-    // Starts the game with players from the waiting room
-    private static synchronized void startGame() {
-        if (isGameActive) {
-            System.out.println("ServerLog: Game is already active. Cannot start a new one.");
-            return; // Prevent starting a new game if one is already running
+    // Puts a READY player into the room that is currently filling, opening a new room when needed
+    private static GameRoom joinRoom(ClientHandler client) {
+        while (true) {
+            GameRoom room = fillingRoom.get();
+            if (room == null) {
+                GameRoom created = new GameRoom(lobbyLoop);
+                if (fillingRoom.compareAndSet(null, created)) {
+                    ServerLog.info("Opened room {}", created.getId());
+                }
+                continue;
+            }
+            if (room.tryJoin(client)) {
+                return room;
+            }
+            // Room started or filled up in the meantime; retire it and try the next one
+            fillingRoom.compareAndSet(room, null);
         }
-        isGameActive = true; // Set game state to active
-        System.out.println("ServerLog: Starting game with players in waiting room: " + waitingRoom);
+    }
 
-        // Move players from waiting room to game players list
-        gamePlayers.clear(); // Clear previous game players
-        gamePlayers.addAll(waitingRoom); // Add all from waiting room
-        waitingRoom.clear(); // Clear the waiting room
+    // Called by a room once its game starts so that later READY players go to a new room
+    static void roomStarted(GameRoom room) {
+        fillingRoom.compareAndSet(room, null);
+    }
 
-        // Initialize scores for players in the game
-        for (String player : gamePlayers) {
-            scoreboard.put(player, 0); // Set initial score to 0
+    // Matchmaking rating from the leaderboard: points per match, pulled towards the league average
+    // for players with few matches (new players get the average), scaled so the average is 1000
+    static double rating(String name) {
+        Leaderboard leaderboard = Leaderboard.shared();
+        double average = leaderboard.averagePoints();
+        if (average <= 0) {
+            return 1000;
         }
+        Leaderboard.Standing standing = leaderboard.find(name);
+        long points = standing != null ? standing.points : 0;
+        int matches = standing != null ? standing.matches : 0;
+        return 1000 * (points + PRIOR_MATCHES * average) / ((matches + PRIOR_MATCHES) * average);
+    }
 
-        // Notify players that the game has started
-        String startMessage = "GAME_STARTED";
-        // Iterate over a copy for safety
-        List<ClientHandler> currentConnectedPlayers = new ArrayList<>(connectedPlayers);
-        for (ClientHandler client : currentConnectedPlayers) {
-            if (gamePlayers.contains(client.getPlayerName())) {
-                client.sendMessage(startMessage); // Send game start message to players in the game
+    // Starts a group formed by the matchmaker in a new room. Members that disconnected meanwhile
+    // are left out; if too few remain, they are queued again.
+    private static void startMatch(Matchmaker.Match<ClientHandler> match) {
+        if (match == null) {
+            return;
+        }
+        List<ClientHandler> group = new ArrayList<>(match.players.size());
+        for (ClientHandler client : match.players) {
+            if (players.state(client) == PlayerRegistry.State.WAITING) {
+                group.add(client);
+            }
+        }
+        if (group.size() < GameRoom.MIN_PLAYERS_TO_CONTINUE) {
+            for (ClientHandler client : group) {
+                startMatch(matchmaker.enqueue(client, rating(client.getPlayerName()), System.nanoTime()));
             }
+            return;
         }
+        ServerMetrics.recordMatchmaking(match.longestWaitNanos);
+        GameRoom room = new GameRoom(lobbyLoop);
+        ServerLog.info("Room {}: matched after {} ms, rating spread {}", room.getId(),
+                TimeUnit.NANOSECONDS.toMillis(match.longestWaitNanos), Math.round(match.ratingSpread));
+        room.startMatched(group);
+    }
+
+    // Retries queued players once a second, so their widened windows are used
+    private static void matchTick() {
+        runOnLobby(() -> {
+            long now = System.nanoTime();
+            for (Matchmaker.Match<ClientHandler> match : matchmaker.tick(now)) {
+                startMatch(match);
+            }
+            sendQueueCountdowns(now);
+        });
+        TimerService.shared().schedule(NewServer::matchTick, Matchmaker.RETRY_NANOS, TimeUnit.NANOSECONDS);
+    }
 
-        // Broadcast initial scores (all are 0)
-        broadcastScores();
-        // Update connected/waiting lists on all clients
-        updateAllClients();
+    // The room countdown of fifo matchmaking, for players in the queue: once enough are queued for
+    // a game, each gets TIMER with the seconds until a smaller group may start with them (a full
+    // group may start sooner), so clients that only know TIMER see the wait going down. Ends
+    // after the 0.
+    private static void sendQueueCountdowns(long now) {
+        if (matchmaker.size() < GameRoom.MIN_PLAYERS_TO_CONTINUE) {
+            return;
+        }
+        OutboundMessage[] timers = new OutboundMessage[(int) TimeUnit.NANOSECONDS.toSeconds(Matchmaker.PARTIAL_AFTER_NANOS) + 1];
+        for (Map.Entry<ClientHandler, Long> waiting : matchmaker.waiting(now)) {
+            long leftNanos = Matchmaker.PARTIAL_AFTER_NANOS - waiting.getValue();
+            if (leftNanos <= -Matchmaker.RETRY_NANOS) {
+                continue; // Already shown 0
+            }
+            int seconds = (int) Math.max(0, (leftNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+            if (timers[seconds] == null) {
+                timers[seconds] = OutboundMessage.timer(seconds); // Shared by players with the same wait
+            }
+            waiting.getKey().sendMessage(timers[seconds]);
+        }
+    }
 
-        System.out.println("ServerLog: Game started.");
+    // Runs a task that changes rooms from a timer or cluster thread: on the lobby loop if there is
+    // one, otherwise right here under the rooms' locks
+    static void runOnLobby(Runnable task) {
+        LobbyEventLoop loop = lobbyLoop;
+        if (loop != null) {
+            loop.post(LobbyEventLoop.Event.timerTick(task));
+        } else {
+            task.run();
+        }
     }
 
-    // Handles ending the game prematurely if players leave or game cannot continue
-    private static synchronized void endGamePrematurely() {
-         System.out.println("ServerLog: endGamePrematurely called.");
-         if (!isGameActive) {
-             System.out.println("ServerLog: No game active to end prematurely. Returning.");
-             return; // Only end if a game is active
-         }
-         isGameActive = false; // Set game state to inactive
-         System.out.println("ServerLog: Game ending prematurely. Current gamePlayers size: " + gamePlayers.size());
-
-         String endMessageText;
-         if (gamePlayers.size() == 1) {
-             // Exactly one player remains - they win by default
-             String winnerName = gamePlayers.get(0);
-             Integer winnerScore = scoreboard.get(winnerName); // Get their current score
-             System.out.println("ServerLog: Only one player left. Winner: " + winnerName + ", Score: " + winnerScore);
-             endMessageText = winnerName + " wins by default as all other players left! Final Score: " + winnerScore + " points.";
-         } else if (gamePlayers.isEmpty()) {
-             // All players left
-             System.out.println("ServerLog: All players left.");
-             endMessageText = "Game ended because all players left. No winner.";
-         } else {
-             // More than one player left, but not enough to continue
-              System.out.println("ServerLog: Not enough players (" + gamePlayers.size() + ") to continue.");
-              endMessageText = "Game ended due to insufficient players remaining.";
-         }
+    // Starts a game this node hosts for the cluster (see Cluster), once its players are here
+    static void startClusterMatch(long matchId, List<ClientHandler> group) {
+        GameRoom room = new GameRoom(lobbyLoop);
+        ServerLog.info("Room {}: cluster match {} with {} players", room.getId(), matchId, group.size());
+        room.startMatched(group);
+    }
 
-         // Construct the full message including final scores before cleanup
-         String fullEndMessage = "GAME_ENDED:" + endMessageText + " Final Scores: " + getFormattedScores();
+    // Players waiting in the matchmaking queue
+    static int matchmakingQueueSize() {
+        return matchmaker != null ? matchmaker.size() : 0;
+    }
 
-         System.out.println("ServerLog: Broadcasting GAME_ENDED message (premature): " + fullEndMessage);
+    // Lobby operations. Called by connection threads in the default mode, or only by the lobby
+    // thread when the lobby loop is running.
 
-         // Notify all players (including the winner if applicable)
-         // Iterate over a copy for safety
-         List<ClientHandler> currentConnectedPlayers = new ArrayList<>(connectedPlayers);
-         for (ClientHandler client : currentConnectedPlayers) {
-              client.sendMessage(fullEndMessage);
+    static void ready(ClientHandler client) {
+         // Only a player in the lobby may join; the move also stops a repeated READY joining twice
+         if (players.move(client, PlayerRegistry.State.LOBBY, PlayerRegistry.State.WAITING)) {
+             if (Cluster.enabled() && client.supportsRedirect()) {
+                 client.sendMessage(OutboundMessage.waiting(Collections.singletonList(client.getPlayerName())));
+                 if (Cluster.queue(client, rating(client.getPlayerName()))) { // May redirect the client at once
+                     ServerLog.info("{} is waiting for a cluster match", client.getPlayerName());
+                     return;
+                 }
+             }
+             matchLocally(client);
+         } else {
+             // Player is already in waiting or game
+              ServerLog.debug("{} is already in waiting or game.", client.getPlayerName());
          }
+    }
 
+    // Matches a WAITING player on this node: in the queue, or in the filling room with fifo.
+    // Also used for cluster players when the hub cannot be reached.
+    static void matchLocally(ClientHandler client) {
+         if (matchmaker == null) {
+             GameRoom joined = joinRoom(client);
+             ServerLog.info("{} is waiting in room {}", client.getPlayerName(), joined.getId());
+             return;
+         }
+         if (matchTicking.compareAndSet(false, true)) {
+             TimerService.shared().schedule(NewServer::matchTick, Matchmaker.RETRY_NANOS, TimeUnit.NANOSECONDS);
+         }
+         client.sendMessage(OutboundMessage.waiting(Collections.singletonList(client.getPlayerName())));
+         ServerLog.info("{} is waiting for a match", client.getPlayerName());
+         startMatch(matchmaker.enqueue(client, rating(client.getPlayerName()), System.nanoTime()));
+    }
 
-         // Reset game state on the server
-         gamePlayers.clear();
-         scoreboard.clear();
+    static void updateScore(ClientHandler client, int score) {
+         GameRoom currentRoom = client.getRoom();
+         if (currentRoom != null) {
+             currentRoom.updateScore(client, score);
+         } else {
+              ServerLog.debug("Received score update from player not in active game: {}", client.getPlayerName());
+         }
+    }
 
-         // Update client GUIs after game ends
-         updateAllClients();
-         broadcastScores(); // Broadcast empty scores
+    static void scoresResync(ClientHandler client) {
+         GameRoom currentRoom = client.getRoom();
+         if (currentRoom != null) {
+             currentRoom.resyncScores(client);
+         }
+    }
 
-         System.out.println("ServerLog: Premature game end processed.");
+    static void gameFinished(ClientHandler client) {
+         GameRoom currentRoom = client.getRoom();
+         if (currentRoom != null) {
+             currentRoom.playerFinished(client);
+         } else {
+             ServerLog.debug("Game is not active. Ignoring GAME_FINISHED from {}", client.getPlayerName());
+         }
     }
 
+    // Removes a closed connection from its room and tells everyone it left
+    static void disconnected(ClientHandler client) {
+        // Leaving the room also ends its game if too few players remain
+        GameRoom currentRoom = client.getRoom();
+        if (currentRoom != null) {
+            currentRoom.remove(client);
+        } else if (matchmaker != null) {
+            matchmaker.remove(client); // Still waiting for a match
+        }
 
-    // Checks if game should start based on waiting room size and timer
-    private static synchronized void checkAndStartGame() {
-        if (isGameActive) {
-             System.out.println("ServerLog: Game is already active. Skipping checkAndStartGame.");
-             return; // Don't check or start if game is active
-        }
-
-        if (waitingRoom.size() >= MAX_PLAYERS_FOR_GAME) {
-            // If max players reached, start game immediately and cancel timer
-            if (timer != null) {
-                timer.cancel();
-                isTimerRunning = false;
-                System.out.println("ServerLog: Timer cancelled. Max players reached.");
-            }
-            startGame();
-        } else if (waitingRoom.size() >= MIN_PLAYERS_TO_CONTINUE && !isTimerRunning) {
-            // If min players reached and timer is not running, start timer
-            startCountdownTimer();
-        }
-        // If less than MIN_PLAYERS_TO_CONTINUE, do nothing or stop timer if running (optional)
-         if (waitingRoom.size() < MIN_PLAYERS_TO_CONTINUE && isTimerRunning) {
-             if (timer != null) {
-                 timer.cancel();
-                 isTimerRunning = false;
-                 System.out.println("ServerLog: Timer cancelled. Not enough players.");
-                  // Notify clients timer stopped? Optional
-             }
+        String playerName = client.getPlayerName();
+        Cluster.release(playerName);
+        OutboundMessage leaveMessage = OutboundMessage.playerLeft(playerName != null ? playerName : "Unknown");
+        long start = System.nanoTime();
+        int recipients = 0;
+         for (ClientHandler other : players.connections()) {
+             other.sendMessage(leaveMessage);
+             recipients++;
          }
+        ServerMetrics.recordBroadcast(recipients, System.nanoTime() - start);
+        // The roster already sent the player's removal when the connection was unregistered
     }
 
-    // Starts the countdown timer for game start
-    private static void startCountdownTimer() {
-        if (isTimerRunning) return; // Prevent starting timer if already running
-        isTimerRunning = true;
-        countdownSeconds = 30; // Reset countdown time
-        System.out.println("ServerLog: Countdown timer started: " + countdownSeconds + " seconds.");
-
-        timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                 // Check flag inside task to ensure it stops if game starts/ends via other means
-                 if (!isTimerRunning || isGameActive) {
-                     timer.cancel();
-                     System.out.println("ServerLog: Timer task cancelled due to flag or game active.");
-                     return;
-                 }
+    // Switches lobby and game state to the single-writer event loop. Must be called before clients connect.
+    static void startLobbyLoop(LongConsumer latencyRecorder) {
+        LobbyEventLoop loop = new LobbyEventLoop(latencyRecorder);
+        loop.start();
+        lobbyLoop = loop;
+        ServerLog.info("Lobby event loop started.");
+    }
 
-                // Broadcast timer update to all connected clients
-                List<ClientHandler> currentConnectedPlayers = new ArrayList<>(connectedPlayers);
-                for (ClientHandler client : currentConnectedPlayers) {
-                    client.sendMessage("TIMER:" + countdownSeconds);
-                }
-                System.out.println("ServerLog: Timer: " + countdownSeconds + " seconds remaining"); // Server console log
+    static LobbyEventLoop lobbyLoop() {
+        return lobbyLoop;
+    }
 
-                if (countdownSeconds > 0) {
-                    countdownSeconds--; // Decrement time
-                } else {
-                    // Timer reached zero
-                    timer.cancel(); // Stop the timer
-                    isTimerRunning = false; // Reset timer flag
-                    System.out.println("ServerLog: Countdown timer finished.");
-
-                    // Check player count again before starting
-                    if (waitingRoom.size() >= MIN_PLAYERS_TO_CONTINUE) {
-                         startGame(); // Start game if enough players
+    // Inner class to handle each client connection.
+    // The game protocol lives in COMMANDS/onNameReceived/handleDisconnect so that other I/O models
+    // (see NioServer) can reuse it by feeding received bytes and overriding the transport hooks.
+    static class ClientHandler implements Runnable, InboundDecoder.Handler {
+        private static final int READ_BUFFER_SIZE = 4096;
+        static final int DEFAULT_LEADERBOARD_ENTRIES = 10;
+        static final int MAX_LEADERBOARD_ENTRIES = 100;
+        static final int RANK_RADIUS = 5; // Players shown above and below in a RANK reply
+        static final String RESUME_PREFIX = "RESUME:"; // Sent instead of a name to take back a held player
+        static final String JOIN_PREFIX = "JOIN:"; // Sent instead of a name by a client redirected here (see Cluster)
+
+        // Commands a client can send after its name, in text and (where an opcode is given) binary form.
+        // A handler returns false to close the connection.
+        static final CommandRegistry COMMANDS = new CommandRegistry()
+                .register("READY", BinaryCodec.READY, (client, args) -> {
+                    client.onReady();
+                    return true;
+                })
+                .register("LEAVE", BinaryCodec.LEAVE, (client, args) -> client.onLeave())
+                .register("UPDATE_SCORE", BinaryCodec.UPDATE_SCORE, (client, args) -> {
+                    client.onUpdateScore(args.nextInt());
+                    return true;
+                })
+                .register("CAPS", CommandRegistry.NO_OPCODE, (client, args) -> {
+                    client.onCapabilities(args.remainingText());
+                    return true;
+                })
+                .register("SCORES_RESYNC", BinaryCodec.SCORES_RESYNC, (client, args) -> {
+                    client.onScoresResync();
+                    return true;
+                })
+                .register("GAME_FINISHED", BinaryCodec.GAME_FINISHED, (client, args) -> {
+                    client.onGameFinished();
+                    return true;
+                })
+                .register("ROSTER_RESYNC", BinaryCodec.ROSTER_RESYNC, (client, args) -> {
+                    roster.resync(client);
+                    return true;
+                })
+                .register("ANSWER", BinaryCodec.ANSWER, (client, args) -> {
+                    client.onAnswer(args.nextInt(), args.nextInt());
+                    return true;
+                })
+                .register("LEADERBOARD", BinaryCodec.LEADERBOARD, (client, args) -> {
+                    client.onLeaderboard(args.hasMore() ? args.nextInt() : DEFAULT_LEADERBOARD_ENTRIES);
+                    return true;
+                })
+                .register("RANK", BinaryCodec.RANK, (client, args) -> {
+                    client.onRank(args.hasMore() ? args.nextString() : client.playerName);
+                    return true;
+                })
+                .register("PONG", BinaryCodec.PONG, (client, args) -> true); // Reading it already counted as activity
+
+        // Queued after the last message to tell the writer thread to flush and close the socket
+        private static final OutboundMessage CLOSE_SIGNAL = OutboundMessage.serverMessage("CLOSE");
+        private static final int DRAIN_BATCH = 64; // Messages a SocketWriters thread writes per turn
+
+        private Socket socket;
+        private OutputStream out;
+        private InputStream in;
+        private String playerName;
+        private volatile GameRoom room; // Room this player is waiting or playing in, null in the lobby
+        private volatile boolean scoreDeltas = false; // Client sent CAPS:SCORE_DELTA
+        private volatile boolean serverQuestions = false; // Client sent CAPS:QUESTIONS; the server keeps its score
+        private volatile boolean redirects = false; // Client sent CAPS:REDIRECT and follows REDIRECT to another node
+        private final InboundDecoder decoder = new InboundDecoder(this);
+        private final CommandRegistry.Args args = new CommandRegistry.Args(); // Reused by every dispatched command
+        private volatile boolean nameReceived = false; // Also cleared by a timer when a JOIN ticket is refused
+        // Lines received while the cluster reserves this player's name, applied once it has one.
+        // Non-null only while a claim is out; changed under heldLock.
+        private volatile List<byte[]> heldLines;
+        private final Object heldLock = new Object();
+        private volatile Session session; // Set once the client sent CAPS:RESUME
+        private volatile ClientHandler carried; // Player this connection took over with RESUME, if any
+        private volatile Heartbeat.Monitor heartbeat; // Set once the client sent CAPS:HEARTBEAT
+
+        // Outbound messages for this client. Senders only enqueue, so a client with a full TCP
+        // window never stalls them: with virtual threads a writer thread per connection drains
+        // the queue, with platform threads, where a second thread per connection is too costly,
+        // the shared SocketWriters pool does (see drainQueue).
+        private final BlockingQueue<OutboundMessage> outbound = new LinkedBlockingQueue<>();
+        private volatile boolean closing = false;
+        private volatile boolean writerStopped = false;
+        private boolean writerThread; // Set before the first message is queued
+        private final AtomicBoolean draining = new AtomicBoolean(false); // Set while queued on or drained by SocketWriters
+        private boolean binaryOutput = false; // Switched after the PROTOCOL message; only the draining thread uses it
+
+        // Caps what may be queued for a client that reads slowly or not at all. Admission and
+        // queueing happen together under sendLock so both see messages in the same order.
+        private final OutboundBudget budget = new OutboundBudget();
+        private final ReentrantLock sendLock = new ReentrantLock();
+
+        public ClientHandler(Socket socket) {
+            this.socket = socket;
+        }
+
+        // Used by subclasses that bring their own transport
+        protected ClientHandler() {
+        }
+
+        public String getPlayerName() {
+            return playerName;
+        }
+
+        GameRoom getRoom() {
+            return room;
+        }
+
+        // Whether the client understands SCORE_SNAPSHOT/SCORE_DELTA/SCORE_REMOVE instead of full SCORES lines
+        boolean supportsScoreDeltas() {
+            return scoreDeltas;
+        }
+
+        // Whether the client gets QUESTIONS and sends ANSWER instead of reporting its own score
+        boolean supportsServerQuestions() {
+            return serverQuestions;
+        }
+
+        // Whether a cluster match may be hosted by another node
+        boolean supportsRedirect() {
+            return redirects;
+        }
+
+        // Set by GameRoom when the player joins, and cleared when they leave or the game ends
+        void setRoom(GameRoom room) {
+            this.room = room;
+        }
+
+        // Method to send a message to this specific client. Never blocks on the socket.
+        // Broadcasts pass the same instance to every recipient.
+        public void sendMessage(OutboundMessage message) {
+            ServerLog.trace("Sending message to {}: {}", playerName, message);
+            long start = System.nanoTime();
+            OutboundBudget.Decision decision;
+            sendLock.lock();
+            try {
+                Session resumable = session;
+                if (resumable != null) {
+                    ClientHandler transport = resumable.transport();
+                    if (transport == null) {
+                        resumable.record(null, message); // Disconnected: kept for the replay on resume
+                        return;
+                    }
+                    if (transport != this) {
+                        transport.sendMessage(message); // Resumed on another connection
+                        return;
+                    }
+                }
+                if (!isOpen()) {
+                    if (resumable != null) {
+                        resumable.record(this, message); // Closing; the client may still resume
                     } else {
-                         System.out.println("ServerLog: Timer finished, but not enough players to start game.");
-                          // Notify clients that game didn't start? Optional
+                        ServerLog.debug("Attempted to send message to closed socket for {}", playerName);
                     }
+                    return;
+                }
+                decision = budget.admit(message);
+                if (decision == OutboundBudget.Decision.SEND) {
+                    deliver(message);
                 }
+            } finally {
+                sendLock.unlock();
             }
-        }, 0, 1000); // Start immediately, repeat every 1000ms (1 second)
-    }
+            ServerMetrics.recordEnqueue(System.nanoTime() - start);
+            scheduleDrain();
+            if (decision == OutboundBudget.Decision.EVICT) {
+                evict();
+            }
+        }
 
-    // Broadcasts current scores of players in the game
-    private static synchronized void broadcastScores() {
-        String scoreMessage = "SCORES:" + getFormattedScores();
+        // Called by the transport for every message it has written, with its encoded size
+        protected final void onWritten(int bytes) {
+            if (budget.release(bytes)) {
+                sendLock.lock();
+                try {
+                    for (OutboundMessage message : budget.resume()) {
+                        deliver(message); // Latest held messages, now that the client caught up
+                    }
+                } finally {
+                    sendLock.unlock();
+                }
+            }
+        }
 
-        List<ClientHandler> currentConnectedPlayers = new ArrayList<>(connectedPlayers);
-        for (ClientHandler client : currentConnectedPlayers) {
-             client.sendMessage(scoreMessage);
+        // Queues an admitted message. With a session, this is where the message gets its number,
+        // so numbers follow queue order. Caller holds the send lock.
+        private void deliver(OutboundMessage message) {
+            ClientHandler player = carried != null ? carried : this;
+            Session resumable = player.session;
+            if (resumable != null && !resumable.record(this, message)) {
+                return; // A resumed connection has replaced this one
+            }
+            write(message);
         }
-    }
 
-    // Helper method to format scores string from the current scoreboard
-     private static String getFormattedScores() {
-         StringBuilder sb = new StringBuilder();
-         boolean first = true;
-         for (Map.Entry<String, Integer> entry : scoreboard.entrySet()) {
-             if (!first) {
-                 sb.append(",");
-             }
-             sb.append(entry.getKey()).append(":").append(entry.getValue());
-             first = false;
-         }
-         return sb.toString();
-     }
+        // Queues messages from a session's replay buffer on this connection. They are numbered
+        // already, and the client needs all of them, so they are queued whatever the budget allows.
+        private void replay(List<OutboundMessage> messages) {
+            sendLock.lock();
+            try {
+                for (OutboundMessage message : messages) {
+                    budget.force(message);
+                    write(message);
+                }
+            } finally {
+                sendLock.unlock();
+            }
+        }
 
+        // Closes a connection that stopped reading. Runs on whichever thread was sending, which
+        // may hold a room lock, so the transport only aborts the connection here; the usual
+        // disconnect handling follows on the connection's own thread.
+        private void evict() {
+            ServerMetrics.recordBackpressureEviction();
+            ServerLog.warn("Disconnecting {}: client is not reading ({} bytes queued, policy {})",
+                    playerName, budget.queuedBytes(), OutboundBudget.POLICY);
+            abort();
+        }
 
-    // Handles the logic when a player finishes the game (completes all questions)
-     private static synchronized void handlePlayerFinishedGame(String playerName) {
-         System.out.println("ServerLog: " + playerName + " has finished the game (completed all questions).");
+        // Transport hook: closes the connection from any thread without waiting for queued messages
+        protected void abort() {
+            closing = true;
+            try {
+                if (socket != null) socket.close(); // Fails the reader's and the writer's blocked calls
+            } catch (IOException e) {
+                ServerLog.debug("Aborting connection of {} failed: {}", playerName, e.getMessage());
+            }
+        }
 
-         if (!isGameActive) {
-             System.out.println("ServerLog: Game is not active. Ignoring GAME_FINISHED from " + playerName);
-             return; // Only proceed if a game is active
-         }
+        // Transport hook: whether the connection can still accept outgoing messages
+        protected boolean isOpen() {
+            return out != null && !closing && !socket.isClosed();
+        }
 
-         // End the game immediately when the first player finishes
-         endGameDueToFinish();
-     }
+        // Transport hook: queues one protocol line for the client
+        protected void write(OutboundMessage message) {
+            outbound.add(message);
+            ServerMetrics.queueDepthChanged(1);
+        }
 
-     // Handles the game ending specifically when a player finishes all questions
-     private static synchronized void endGameDueToFinish() {
-         System.out.println("ServerLog: endGameDueToFinish called.");
-         if (!isGameActive) {
-             System.out.println("ServerLog: No game active to end due to finish. Returning.");
-             return; // Only end if a game is active
-         }
-         isGameActive = false; // Set game state to inactive
-         System.out.println("ServerLog: Game ending because a player finished all questions.");
+        // Transport hook: number of messages queued but not yet written to the socket
+        int outboundQueueDepth() {
+            return outbound.size();
+        }
 
 
-         // Calculate the winner(s) based on highest score among players who were in the game
-         String winnerInfoText = calculateWinnerInfo();
+        @Override
+        public void run() {
+            try {
+                in = socket.getInputStream();
+                out = new BufferedOutputStream(socket.getOutputStream()); // Flushed whenever the queue drains
+                writerThread = useVirtualThreads;
+                if (writerThread) {
+                    startConnectionThread(this::writeLoop);
+                }
+
+                 sendMessage(OutboundMessage.enterName());
+
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (!onBytesReceived(buffer, 0, read)) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                ServerLog.info("Connection lost with {}: {}", playerName != null ? playerName : "null (before name set)", e.getMessage());
+            } finally {
+                handleDisconnect();
+            }
+        }
 
-         // Construct the game over message
-         String fullEndMessage = "GAME_ENDED:" + winnerInfoText;
+        // Writer thread (virtual threads): drains the outbound queue, flushing whenever it runs empty
+        private void writeLoop() {
+            try {
+                while (writeQueued(outbound.take())) {
+                    if (outbound.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // Socket is broken; closing it also unblocks the reader thread
+                ServerLog.info("Write failed for {}: {}", playerName, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stopWriting();
+            }
+        }
 
-         System.out.println("ServerLog: Broadcasting GAME_ENDED message (player finished): " + fullEndMessage);
+        // Platform threads: hands the connection to SocketWriters unless it is queued there or
+        // being written already, in which case that writer takes the new messages too
+        private void scheduleDrain() {
+            if (writerThread || out == null) {
+                return; // A writer thread drains, or the transport is not a stream
+            }
+            if (!outbound.isEmpty() && !writerStopped && draining.compareAndSet(false, true)) {
+                SocketWriters.shared().submit(this);
+            }
+        }
 
+        // Runs on a SocketWriters thread: writes up to DRAIN_BATCH queued messages and flushes,
+        // then goes back behind the other connections if more are queued, so one busy client
+        // cannot keep a writer to itself
+        void drainQueue() {
+            boolean open = true;
+            try {
+                OutboundMessage message;
+                for (int i = 0; open && i < DRAIN_BATCH && (message = outbound.poll()) != null; i++) {
+                    open = writeQueued(message);
+                }
+                if (open) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                ServerLog.info("Write failed for {}: {}", playerName, e.getMessage());
+                open = false;
+            } finally {
+                if (!open) {
+                    stopWriting();
+                }
+                draining.set(false);
+            }
+            scheduleDrain(); // Messages queued after the batch, or while draining was still set
+        }
 
-         // Notify all players
-          List<ClientHandler> currentConnectedPlayers = new ArrayList<>(connectedPlayers);
-          for (ClientHandler client : currentConnectedPlayers) {
-              client.sendMessage(fullEndMessage);
-          }
+        // Writes one message taken from the queue. Returns false for the close signal.
+        private boolean writeQueued(OutboundMessage message) throws IOException {
+            ServerMetrics.queueDepthChanged(-1);
+            if (message == CLOSE_SIGNAL) {
+                return false;
+            }
+            byte[] bytes = message.bytes(binaryOutput); // Shared encoded bytes, no per-recipient copy
+            out.write(bytes);
+            if (message.type() == OutboundMessage.Type.PROTOCOL) {
+                binaryOutput = true; // Queue order decides the format
+            }
+            onWritten(bytes.length);
+            return true;
+        }
 
+        private void stopWriting() {
+            writerStopped = true;
+            ServerMetrics.queueDepthChanged(-outbound.size());
+            outbound.clear();
+            closeStreams();
+        }
 
-         // Reset game state on the server
-         gamePlayers.clear();
-         scoreboard.clear(); // Clear scoreboard for the next game
+        // Feeds bytes read from the client to the decoder. Returns false when the connection should close.
+        boolean onBytesReceived(byte[] data, int offset, int count) {
+            Heartbeat.Monitor monitor = heartbeat;
+            if (monitor != null) {
+                monitor.received();
+            }
+            return decoder.feed(data, offset, count);
+        }
 
-         // Update client GUIs after game ends
-         updateAllClients();
-         broadcastScores(); // Broadcast empty scores
+        // The first line is the reply to ENTER_NAME (a name, or RESUME), every later one a command
+        @Override
+        public boolean onLine(byte[] data, int offset, int length) {
+            if (!nameReceived) {
+                nameReceived = true;
+                String reply = new String(data, offset, length, InboundDecoder.CHARSET);
+                if (reply.startsWith(RESUME_PREFIX)) {
+                    onResume(reply.substring(RESUME_PREFIX.length()));
+                } else if (reply.startsWith(JOIN_PREFIX) && Cluster.enabled()) {
+                    onJoin(reply.substring(JOIN_PREFIX.length()).trim());
+                } else {
+                    onNameReceived(reply);
+                }
+                return true;
+            }
+            if (heldLines != null) {
+                synchronized (heldLock) {
+                    if (heldLines != null) {
+                        heldLines.add(Arrays.copyOfRange(data, offset, offset + length));
+                        return true;
+                    }
+                }
+            }
+            return onCommandLine(data, offset, length);
+        }
 
-         System.out.println("ServerLog: Game ended (player finished). Winner info sent: " + winnerInfoText);
+        private boolean onCommandLine(byte[] data, int offset, int length) {
+            CommandRegistry.Command command = COMMANDS.findText(data, offset, length);
+            if (command == null) {
+                ServerMetrics.recordUnknownCommand();
+                ServerLog.warn("Unknown command from {}: {}", playerName, new String(data, offset, length, InboundDecoder.CHARSET));
+                return true;
+            }
+            if (ServerLog.isEnabled(ServerLog.Level.TRACE)) {
+                ServerLog.trace("Received from {}: {}", playerName, new String(data, offset, length, InboundDecoder.CHARSET));
+            }
+            args.text(data, offset, length, command);
+            return dispatch(command);
+        }
 
-     }
+        // Handles one binary frame, sent after the client switched to BinaryCodec.VERSION
+        @Override
+        public boolean onFrame(byte type, byte[] data, int offset, int length) {
+            CommandRegistry.Command command = COMMANDS.findOpcode(type);
+            if (command == null) {
+                ServerMetrics.recordUnknownCommand();
+                ServerLog.warn("Unknown frame type {} from {}", type, playerName);
+                return true;
+            }
+            ServerLog.trace("Received {} from {}", command.name, playerName);
+            args.binary(data, offset, length);
+            return dispatch(command);
+        }
 
-     // Calculates the winner(s) based on the current scoreboard for game completion scenario
-     private static synchronized String calculateWinnerInfo() {
-         System.out.println("ServerLog: Calculating winner info based on scores. Scoreboard size: " + scoreboard.size());
-         if (scoreboard.isEmpty()) {
-             return "No players participated or scored.";
-         }
+        // Commands on a resumed connection act on the player it carries; only CAPS, which sets up
+        // the connection itself, stays here
+        private boolean dispatch(CommandRegistry.Command command) {
+            command.countDispatch();
+            ClientHandler player = carried;
+            try {
+                return command.handler.handle(player != null && !"CAPS".equals(command.name) ? player : this, args);
+            } catch (IllegalArgumentException e) {
+                // Includes NumberFormatException from a bad argument
+                ServerLog.warn("Invalid {} arguments received from {}: {}", command.name, playerName, e.getMessage());
+                return true;
+            }
+        }
 
-         int maxScore = -1;
-         List<String> winners = new ArrayList<>();
+        @Override
+        public void onProtocolError(String reason) {
+            ServerLog.warn("{} from {}. Closing connection.", reason, playerName);
+        }
 
-         System.out.println("ServerLog: Current Scoreboard: " + scoreboard);
-         for (int score : scoreboard.values()) {
-             if (score > maxScore) {
-                 maxScore = score;
+        // Handles the reply to ENTER_NAME
+        void onNameReceived(String name) {
+             String requested = name;
+             if (requested == null || requested.trim().isEmpty()) {
+                 requested = "UnknownPlayer" + (int)(Math.random() * 1000);
              }
-         }
-          System.out.println("ServerLog: Max score found: " + maxScore);
+             // Names are unique, across the cluster if there is one; a taken name gets a "#2", "#3", ... suffix
+             if (Cluster.enabled()) {
+                 heldLines = new ArrayList<>(); // Commands wait for the name instead of the connection's thread
+                 String asked = requested;
+                 Cluster.claimName(asked, reserved -> onNameReserved(asked, reserved));
+                 return;
+             }
+             takeName(requested, players.claimName(this, requested));
+        }
+
+        // The cluster answered for a requested name. The name it reserved is the only one this
+        // player may have; if the hub did not answer (null), the name is only unique on this node.
+        private void onNameReserved(String requested, String reserved) {
+            String claimed;
+            if (reserved == null) {
+                claimed = players.claimName(this, requested);
+            } else {
+                claimed = players.claimExactName(this, reserved);
+                if (claimed == null && players.state(this) == PlayerRegistry.State.CONNECTED) {
+                    // Taken by a player named here while the hub did not answer, so the hub rightly
+                    // keeps it for this node; ask for the next one
+                    Cluster.claimName(requested, next -> onNameReserved(requested, next));
+                    return;
+                }
+            }
+            if (claimed == null) {
+                Cluster.release(reserved); // Disconnected while the claim was out
+                releaseHeldLines(false);
+                return;
+            }
+            takeName(requested, claimed);
+            if (!players.contains(this)) {
+                Cluster.release(claimed); // Disconnected as it got the name
+            }
+            releaseHeldLines(true);
+        }
 
-         for (Map.Entry<String, Integer> entry : scoreboard.entrySet()) {
-             if (entry.getValue() == maxScore) {
-                 winners.add(entry.getKey());
+        private void takeName(String requested, String claimed) {
+             playerName = claimed != null ? claimed : requested;
+             if (!playerName.equals(requested)) {
+                 ServerLog.info("Name {} is taken. Client {} is {}", requested, describeConnection(), playerName);
              }
-         }
-         System.out.println("ServerLog: Winners found: " + winners);
+             ServerLog.info("Client {} set name to {}", describeConnection(), playerName);
+             // Claiming the name added the player to the roster, which told everyone
+        }
 
-         StringBuilder winnerInfo = new StringBuilder();
-         if (winners.size() == 1) {
-             winnerInfo.append(winners.get(0)).append(" wins with ").append(maxScore).append(" points!");
-         } else {
-             winnerInfo.append("It's a tie between: ").append(String.join(" and ", winners))
-                       .append(" with ").append(maxScore).append(" points each!");
-         }
+        // Applies the lines held while the name was claimed, then lets later lines through. Lines
+        // that arrive meanwhile are appended and applied here too, so their order is kept.
+        private void releaseHeldLines(boolean apply) {
+            while (true) {
+                byte[] line;
+                synchronized (heldLock) {
+                    if (heldLines.isEmpty() || !apply) {
+                        heldLines = null;
+                        return;
+                    }
+                    line = heldLines.remove(0);
+                }
+                if (!onCommandLine(line, 0, line.length)) {
+                    apply = false;
+                    abort(); // LEAVE, or a command that closes the connection
+                }
+            }
+        }
 
-         winnerInfo.append(". Final Scores: ").append(getFormattedScores());
-          System.out.println("ServerLog: Formatted winner info: " + winnerInfo.toString());
+        // Handles JOIN:<ticket> sent instead of a name by a client another node redirected here
+        private void onJoin(String ticket) {
+            Cluster.arrive(this, ticket);
+        }
 
+        // The JOIN ticket belongs to no match here: asks for a name, as after a failed RESUME
+        void refuseTicket() {
+            ServerLog.info("Client {} sent an unknown or expired cluster ticket", describeConnection());
+            nameReceived = false; // The next line is a name again
+            sendMessage(OutboundMessage.enterName());
+        }
 
-         return winnerInfo.toString();
-     }
+        // Takes the name a cluster ticket carries, already WAITING for its match. Returns false if
+        // the connection closed meanwhile.
+        boolean takeClusterName(String name) {
+            String claimed = players.claimExactName(this, name);
+            if (claimed == null) {
+                return false;
+            }
+            playerName = claimed;
+            ServerLog.info("Client {} joined as {}", describeConnection(), playerName);
+            return players.move(this, PlayerRegistry.State.LOBBY, PlayerRegistry.State.WAITING);
+        }
 
+        // Handles RESUME:<token>,<last number received> sent instead of a name
+        private void onResume(String arguments) {
+            int comma = arguments.lastIndexOf(',');
+            Session resumable = comma > 0 ? Session.find(arguments.substring(0, comma).trim()) : null;
+            long lastReceived = -1;
+            if (resumable != null) {
+                try {
+                    lastReceived = Long.parseLong(arguments.substring(comma + 1).trim());
+                } catch (NumberFormatException e) {
+                    resumable = null;
+                }
+            }
+            if (resumable == null || !resumable.player.resumeOn(this, resumable, lastReceived)) {
+                ServerMetrics.recordResumeFailure();
+                ServerLog.info("Client {} could not resume a session", describeConnection());
+                sendMessage(OutboundMessage.resumeFailed());
+                sendMessage(OutboundMessage.enterName());
+                nameReceived = false; // The next line is a name again
+            }
+        }
 
-    // Inner class to handle each client connection
-    static class ClientHandler implements Runnable {
-        private Socket socket;
-        private PrintWriter out;
-        private BufferedReader in;
-        private String playerName;
+        // Moves this player onto a new connection and replays what the client missed. Returns
+        // false if the session ended in the meantime. Runs on the new connection's thread.
+        private boolean resumeOn(ClientHandler connection, Session resumable, long lastReceived) {
+            // Broadcasts must reach the new connection only through this player, numbered
+            players.remove(connection);
+            Session.Resumed resumed;
+            sendLock.lock();
+            try {
+                resumed = resumable.attach(connection, lastReceived);
+                if (resumed != null) {
+                    connection.playerName = playerName;
+                    connection.carried = this;
+                    connection.sendMessage(OutboundMessage.resumed(resumed.from));
+                    connection.replay(resumed.missed);
+                }
+            } finally {
+                sendLock.unlock();
+            }
+            connection.scheduleDrain(); // The replay was only queued
+            if (resumed == null) {
+                players.add(connection);
+                return false;
+            }
+            if (resumed.previous != null) {
+                resumed.previous.abort(); // The old connection had not noticed it was gone
+            }
+            ServerMetrics.recordSessionResumed(resumed.missed.size());
+            ServerLog.info("{} resumed after message {}, {} replayed", playerName, resumed.from, resumed.missed.size());
+            return true;
+        }
 
-        public ClientHandler(Socket socket) {
-            this.socket = socket;
+        // Optional features announced by newer clients right after their name
+        private void onCapabilities(String capabilities) {
+             boolean binary = false;
+             boolean rosterDeltas = false;
+             boolean resumable = false;
+             boolean heartbeats = false;
+             for (String capability : capabilities.split(",")) {
+                 if ("SCORE_DELTA".equals(capability.trim())) {
+                     scoreDeltas = true;
+                 } else if ("QUESTIONS".equals(capability.trim())) {
+                     serverQuestions = true;
+                 } else if ("ROSTER_DELTA".equals(capability.trim())) {
+                     rosterDeltas = true;
+                 } else if ("RESUME".equals(capability.trim())) {
+                     resumable = true;
+                 } else if ("HEARTBEAT".equals(capability.trim())) {
+                     heartbeats = true;
+                 } else if ("REDIRECT".equals(capability.trim())) {
+                     redirects = true;
+                 } else if (BinaryCodec.VERSION.equals(capability.trim())) {
+                     binary = true;
+                 }
+             }
+             if (carried != null) {
+                 // A resumed connection keeps the player's features; only its own framing and
+                 // heartbeats can change
+                 rosterDeltas = false;
+                 resumable = false;
+             }
+             if (binary) {
+                 // The client sends frames from the next byte on; our output switches after this message
+                 sendMessage(OutboundMessage.protocol(BinaryCodec.VERSION));
+                 decoder.switchToBinary();
+             }
+             if (rosterDeltas) {
+                 roster.subscribe(this); // Snapshot now, ROSTER_ADD/ROSTER_REMOVE/ROSTER_MOVE from then on
+             }
+             if (heartbeats && heartbeat == null) {
+                 startHeartbeat(Heartbeat.shared());
+             }
+             if (resumable && session == null) {
+                 sendLock.lock();
+                 try {
+                     session = Session.open(this);
+                     sendMessage(OutboundMessage.session(session.token)); // Numbering starts after this message
+                 } finally {
+                     sendLock.unlock();
+                 }
+             }
         }
 
-        public String getPlayerName() {
-            return playerName;
+        private boolean onLeave() {
+            ServerLog.info("{} requested to leave.", playerName);
+            Session resumable = session;
+            if (resumable != null) {
+                resumable.leave(); // No seat is held for a player who left
+            }
+            if (lobbyLoop != null) {
+                lobbyLoop.post(LobbyEventLoop.Event.leave(this)); // Leave the room before the socket closes
+            }
+            return false;
         }
 
-        // Method to send a message to this specific client
-        public void sendMessage(String message) {
-             System.out.println("ServerLog: Sending message to " + playerName + ": " + message);
-            if (out != null && !socket.isClosed()) {
-                out.println(message);
+        // The on* handlers below either apply a command directly under the room locks or, in
+        // lobby loop mode, post it as an event for the lobby thread to apply
+        private void onReady() {
+            if (lobbyLoop != null) {
+                lobbyLoop.post(LobbyEventLoop.Event.ready(this));
             } else {
-                System.out.println("ServerLog: Attempted to send message to closed socket for " + playerName);
+                ready(this);
             }
         }
 
+        private void onUpdateScore(int score) {
+            if (serverQuestions) {
+                ServerLog.debug("Ignoring self-reported score from {}; its answers are checked by the server", playerName);
+                return;
+            }
+            if (lobbyLoop != null) {
+                lobbyLoop.post(LobbyEventLoop.Event.scoreUpdate(this, score));
+            } else {
+                updateScore(this, score);
+            }
+        }
 
-        @Override
-        public void run() {
-            try {
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true);
+        // Checked on an AnswerValidator worker, which sends ANSWER_RESULT and updates the room
+        private void onAnswer(int index, int value) {
+            GameRoom currentRoom = room;
+            AnswerValidator.Match match = currentRoom != null ? currentRoom.currentMatch() : null;
+            if (match == null || !serverQuestions) {
+                ServerLog.debug("Ignoring ANSWER from {}: no game with server-checked questions", playerName);
+                return;
+            }
+            AnswerValidator.shared().submit(match, this, index, value);
+        }
 
-                 sendMessage("ENTER_NAME");
-                 playerName = in.readLine();
-                 if (playerName == null || playerName.trim().isEmpty()) {
-                     playerName = "UnknownPlayer" + (int)(Math.random() * 1000);
-                 }
-                 System.out.println("ServerLog: Client " + socket + " set name to " + playerName);
-
-                 scoreboard.put(playerName, 0); // Add to scoreboard upon connection
-
-                updateAllClients();
-
-
-                String input;
-                while ((input = in.readLine()) != null) {
-                    System.out.println("ServerLog: Received from " + playerName + ": " + input);
-
-                    if ("READY".equals(input)) {
-                         synchronized (waitingRoom) {
-                             // Prevent joining waiting room if a game is active
-                             if (isGameActive) {
-                                 System.out.println("ServerLog: " + playerName + " attempted to join waiting room while game active.");
-                                 sendMessage("SERVER_MESSAGE:A game is currently active. Please wait for it to finish."); // Inform client
-                             } else if (!waitingRoom.contains(playerName) && !gamePlayers.contains(playerName)) {
-                                 waitingRoom.add(playerName);
-                                 System.out.println("ServerLog: " + playerName + " joined waiting room. Current waiting: " + waitingRoom.size());
-                                 updateAllClients();
-                                 checkAndStartGame();
-                             } else {
-                                 // Player is already in waiting or game
-                                  System.out.println("ServerLog: " + playerName + " is already in waiting or game.");
-                             }
-                         }
-                    } else if ("LEAVE".equals(input)) {
-                        System.out.println("ServerLog: " + playerName + " requested to leave.");
-                        break;
-                    } else if (input.startsWith("UPDATE_SCORE:")) {
-                         if (isGameActive && gamePlayers.contains(playerName)) {
-                             try {
-                                 int newScore = Integer.parseInt(input.substring(13).trim());
-                                 scoreboard.put(playerName, newScore);
-                                 System.out.println("ServerLog: Score updated for " + playerName + ": " + newScore);
-                                 broadcastScores();
-                             } catch (NumberFormatException e) {
-                                 System.err.println("ServerLog: Invalid score format received from " + playerName + ": " + input);
-                             }
-                         } else {
-                              System.out.println("ServerLog: Received score update from player not in active game: " + playerName);
-                         }
-                    } else if ("GAME_FINISHED".equals(input)) {
-                         handlePlayerFinishedGame(playerName);
-                    } else {
-                          System.out.println("ServerLog: Unknown command from " + playerName + ": " + input);
-                     }
+        // All-time standings; answered on the calling thread, since they do not touch any room
+        private void onLeaderboard(int entries) {
+            Leaderboard leaderboard = Leaderboard.shared();
+            int count = Math.max(0, Math.min(entries, MAX_LEADERBOARD_ENTRIES));
+            sendMessage(OutboundMessage.leaderboard(leaderboard.size(), leaderboard.top(count)));
+        }
+
+        private void onRank(String name) {
+            Leaderboard leaderboard = Leaderboard.shared();
+            String player = name.trim();
+            List<Leaderboard.Standing> around = leaderboard.around(player, RANK_RADIUS);
+            long rank = 0;
+            for (Leaderboard.Standing standing : around) {
+                if (standing.name.equals(player)) {
+                    rank = standing.rank;
                 }
-            } catch (IOException e) {
-                System.out.println("ServerLog: Connection lost with " + playerName + (playerName != null ? "" : " (before name set)") + ": " + e.getMessage());
-            } finally {
-                handleDisconnect();
             }
+            sendMessage(OutboundMessage.rank(leaderboard.size(), rank, around));
         }
 
-        private void handleDisconnect() {
-            System.out.println("ServerLog: Cleaning up connection for " + playerName);
-            connectedPlayers.remove(this);
+        private void onScoresResync() {
+            if (lobbyLoop != null) {
+                lobbyLoop.post(LobbyEventLoop.Event.scoresResync(this));
+            } else {
+                scoresResync(this);
+            }
+        }
 
-            synchronized (waitingRoom) {
-                waitingRoom.remove(playerName);
+        private void onGameFinished() {
+            if (lobbyLoop != null) {
+                lobbyLoop.post(LobbyEventLoop.Event.finished(this));
+            } else {
+                gameFinished(this);
             }
+        }
 
-            boolean wasInGame = gamePlayers.remove(playerName);
+        // Transport hook: describes the remote end for log messages
+        protected String describeConnection() {
+            return String.valueOf(socket);
+        }
 
-            // Remove the player's score from the scoreboard
-             System.out.println("ServerLog: Removing " + playerName + " from scoreboard.");
-            scoreboard.remove(playerName);
+        // Watches this connection for a client that went away without closing it
+        void startHeartbeat(Heartbeat heartbeats) {
+            heartbeat = heartbeats.watch(this);
+        }
 
-            String leaveMessage = "PLAYER_LEFT:" + (playerName != null ? playerName : "Unknown");
-             List<ClientHandler> currentConnectedPlayers = new ArrayList<>(connectedPlayers);
-             for (ClientHandler client : currentConnectedPlayers) {
-                 client.sendMessage(leaveMessage);
-             }
+        void handleDisconnect() {
+            ServerLog.info("Cleaning up connection for {}", playerName);
+            Heartbeat.Monitor monitor = heartbeat;
+            if (monitor != null) {
+                monitor.stop();
+            }
+            ClientHandler player = carried != null ? carried : this;
+            if (player.session == null || player.connectionClosed(this)) {
+                player.removePlayer();
+            }
+            closeResources();
+        }
 
-            // If the player who left *was* in the game, check if the game should now end prematurely
-            if (wasInGame && isGameActive) {
-                 System.out.println("ServerLog: Player " + playerName + " left during active game. Checking if game should end prematurely.");
-                 System.out.println("ServerLog: Current gamePlayers size after removal: " + gamePlayers.size());
-                 if (gamePlayers.size() < MIN_PLAYERS_TO_CONTINUE) {
-                      endGamePrematurely();
-                 }
-            } else if (wasInGame && !isGameActive) {
-                System.out.println("ServerLog: Player " + playerName + " left, they were in game but game was not active.");
+        // Whether the player should be removed now that one of its session's connections closed.
+        // Otherwise the seat is held for the grace period, or a resumed connection took over.
+        private boolean connectionClosed(ClientHandler connection) {
+            sendLock.lock();
+            try {
+                return session.transportClosed(connection);
+            } finally {
+                sendLock.unlock();
             }
+        }
 
-            updateAllClients();
-            broadcastScores();
+        // Unregisters the player, removes them from their room and tells everyone they left
+        void removePlayer() {
+            players.remove(this);
+            if (lobbyLoop != null) {
+                lobbyLoop.post(LobbyEventLoop.Event.disconnected(this));
+            } else {
+                disconnected(this);
+            }
+        }
+
+        // Transport hook: releases the connection. Messages already queued are still written
+        // before the writer thread closes the socket.
+        protected void closeResources() {
+            closing = true;
+            if (out == null) {
+                closeStreams(); // The writer thread was never started
+                return;
+            }
+            outbound.add(CLOSE_SIGNAL);
+            ServerMetrics.queueDepthChanged(1);
+            scheduleDrain(); // Without a writer thread; the pool closes once it reaches the signal
+            if (writerStopped && outbound.remove(CLOSE_SIGNAL)) {
+                ServerMetrics.queueDepthChanged(-1); // Writer already exited after a failed write
+            }
+        }
 
+        private void closeStreams() {
             try {
                 if (out != null) out.close();
+            } catch (IOException e) {
+                // Final flush failed because the peer is already gone; nothing left to deliver
+            }
+            try {
                 if (in != null) in.close();
                 if (socket != null && !socket.isClosed()) socket.close();
-                System.out.println("ServerLog: Resources closed for " + playerName);
+                ServerLog.debug("Resources closed for {}", playerName);
             } catch (IOException e) {
-                e.printStackTrace();
+                ServerLog.error("Closing connection of {} failed", playerName, e);
             }
         }
     }
@@ -0,0 +1,314 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Non-blocking server mode: one acceptor plus a fixed set of reactor threads, each owning a Selector.
+// Connections reuse NewServer.ClientHandler for the game protocol, so the wire format is unchanged.
+class NioServer {
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final long CLOSE_FLUSH_MILLIS = 5000; // Longest a closing connection may take to write what it has queued
+
+    private final int port;
+    private final Reactor[] reactors;
+    private int nextReactor = 0;
+
+    NioServer(int port, int reactorCount) throws IOException {
+        this.port = port;
+        this.reactors = new Reactor[Math.max(1, reactorCount)];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+        }
+    }
+
+    // Accepts connections on the calling thread and hands them to reactors round-robin
+    void run() throws IOException {
+        for (Reactor reactor : reactors) {
+            Thread thread = new Thread(reactor, "nio-reactor-" + reactor.id);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("Server started on port " + port + " (NIO, " + reactors.length + " reactors). Waiting for players...");
+            while (true) {
+                SocketChannel channel = serverChannel.accept(); // Blocking accept; reads/writes are non-blocking
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                ServerLog.info("New client connected: {}", channel.getRemoteAddress());
+                Reactor reactor = reactors[nextReactor];
+                nextReactor = (nextReactor + 1) % reactors.length;
+                reactor.register(channel);
+            }
+        }
+    }
+
+    // One selector loop. All reads, writes and key changes for its connections happen on this thread.
+    static class Reactor implements Runnable {
+        private final int id;
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        Reactor(int id) throws IOException {
+            this.id = id;
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        // Called from any thread when a connection has new outbound data or is to be aborted
+        void requestWrite(NioConnection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    registerPending();
+                    enableWrites();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (RuntimeException e) {
+                            // Never let one connection take the whole reactor down
+                            ServerLog.error("Reactor {} failed handling a connection", id, e);
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    ServerLog.warn("Reactor {} error: {}", id, e.getMessage());
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                NioConnection connection = new NioConnection(this, channel);
+                try {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException e) {
+                    continue;
+                }
+                NewServer.addConnection(connection);
+                connection.sendMessage(OutboundMessage.enterName());
+            }
+        }
+
+        private void enableWrites() {
+            NioConnection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                if (connection.abortRequested) {
+                    connection.close(); // Without writing what is still queued
+                    continue;
+                }
+                SelectionKey key = connection.key;
+                if (key != null && key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        }
+    }
+
+    // A client connection driven by a reactor: per-connection read buffer and write queue.
+    // Framing of the received bytes is done by the shared InboundDecoder in ClientHandler.
+    static class NioConnection extends NewServer.ClientHandler {
+        private final Reactor reactor;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final Queue<OutboundMessage> writeQueue = new ConcurrentLinkedQueue<>();
+        private ByteBuffer writing; // Partly written head of the queue, reactor thread only
+        private boolean binaryOutput = false; // Set once the PROTOCOL message has been written
+        // Set while the reactor has this connection's writes in hand: queued in pendingWrites or
+        // with OP_WRITE on. Only the message that finds it clear wakes the selector.
+        private final AtomicBoolean writeRequested = new AtomicBoolean();
+        private volatile boolean closed = false;
+        private volatile boolean abortRequested = false; // Closed by the reactor on its next wakeup
+        private boolean flushing = false; // Closed, writing out the queue before the channel closes; reactor thread only
+        private boolean channelClosed = false; // Reactor thread only
+
+        NioConnection(Reactor reactor, SocketChannel channel) {
+            this.reactor = reactor;
+            this.channel = channel;
+        }
+
+        @Override
+        protected boolean isOpen() {
+            return !closed && channel.isOpen();
+        }
+
+        // May be called from any thread; the reactor performs the actual socket write
+        @Override
+        protected void write(OutboundMessage message) {
+            writeQueue.add(message); // Encoded by the reactor in this connection's current format
+            ServerMetrics.queueDepthChanged(1);
+            if (writeRequested.compareAndSet(false, true)) {
+                reactor.requestWrite(this);
+            }
+        }
+
+        @Override
+        int outboundQueueDepth() {
+            return writeQueue.size();
+        }
+
+        // May be called from any thread; the reactor closes the channel
+        @Override
+        protected void abort() {
+            abortRequested = true;
+            reactor.requestWrite(this);
+        }
+
+        @Override
+        protected String describeConnection() {
+            return String.valueOf(channel.socket());
+        }
+
+        private void onReadable() {
+            if (closed) {
+                return; // Selected together with OP_WRITE while flushing
+            }
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                lost(e);
+                return;
+            }
+            if (read < 0) {
+                close();
+                return;
+            }
+
+            boolean keepReading = onBytesReceived(readBuffer.array(), 0, readBuffer.position());
+            readBuffer.clear();
+            if (!keepReading) {
+                close();
+            }
+        }
+
+        private void onWritable() {
+            try {
+                while (true) {
+                    if (writing == null) {
+                        OutboundMessage message = writeQueue.poll();
+                        if (message == null) {
+                            break;
+                        }
+                        writing = message.buffer(binaryOutput); // Read-only view over the shared encoded bytes
+                        if (message.type() == OutboundMessage.Type.PROTOCOL) {
+                            binaryOutput = true;
+                        }
+                    }
+                    channel.write(writing);
+                    if (writing.hasRemaining()) {
+                        return; // Socket buffer is full; wait for the next OP_WRITE
+                    }
+                    onWritten(writing.limit());
+                    writing = null;
+                    ServerMetrics.queueDepthChanged(-1);
+                }
+                if (flushing) {
+                    closeChannel(); // Everything queued before the close is written
+                    return;
+                }
+                writeRequested.set(false);
+                // A writer may have queued data after the loop saw an empty queue but before the
+                // flag was cleared, without requesting a write; keep OP_WRITE on for it
+                if (writeQueue.isEmpty()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                } else {
+                    writeRequested.set(true);
+                }
+            } catch (IOException e) {
+                lost(e);
+            }
+        }
+
+        // The channel failed, so nothing queued can be written any more
+        private void lost(IOException e) {
+            ServerLog.info("Connection lost with {}: {}", getPlayerName(), e.getMessage());
+            abortRequested = true;
+            close();
+        }
+
+        private void close() {
+            if (closed) {
+                if (abortRequested) {
+                    closeChannel(); // Gives up on a flush
+                }
+                return;
+            }
+            closed = true;
+            handleDisconnect();
+        }
+
+        // Like the writer thread of the blocking modes, writes what was queued before the close
+        // (the reply to LEAVE, say) and then closes the channel. An aborted or failed connection,
+        // or one still flushing after CLOSE_FLUSH_MILLIS, is closed at once.
+        @Override
+        protected void closeResources() {
+            if (abortRequested || (writing == null && writeQueue.isEmpty()) || key == null || !key.isValid()) {
+                closeChannel();
+                return;
+            }
+            flushing = true;
+            key.interestOps(SelectionKey.OP_WRITE); // No more reads
+            TimerService.shared().schedule(this::abort, CLOSE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void closeChannel() {
+            if (channelClosed) {
+                return;
+            }
+            channelClosed = true;
+            try {
+                if (key != null) key.cancel();
+                channel.close();
+                ServerMetrics.queueDepthChanged(-writeQueue.size() - (writing != null ? 1 : 0));
+                writeQueue.clear();
+                writing = null;
+                ServerLog.debug("Resources closed for {}", getPlayerName());
+            } catch (IOException e) {
+                ServerLog.error("Closing connection of {} failed", getPlayerName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Limits how much a connection may have queued but not yet written, so one client that stops
+// reading cannot grow the server's memory or slow down broadcasts to everyone else. Bytes are
+// counted in the format the connection receives (text or binary). Once the budget is used up
+// the configured policy applies:
+//   DROP        messages that a newer one of the same type replaces (TIMER, SCORES, CONNECTED,
+//               WAITING) are held back; only the latest of each type is sent once the queue has
+//               drained to half the budget. Everything else is still queued.
+//   PAUSE       like DROP, and until the queue has drained to half the budget score and roster
+//               deltas are dropped too; the client resyncs when it sees the gap in sequence numbers.
+//   DISCONNECT  the connection is closed.
+// With DROP and PAUSE a connection is still closed once it has twice the budget queued.
+//   -Dserver.outbound.maxMessages=<n>             (default 1024)
+//   -Dserver.outbound.maxBytes=<n>                (default 262144)
+//   -Dserver.outbound.policy=DROP|PAUSE|DISCONNECT (default DROP)
+final class OutboundBudget {
+    enum Policy { DROP, PAUSE, DISCONNECT }
+
+    enum Decision {
+        SEND, // Queue the message
+        HOLD, // Held back or dropped by the policy
+        EVICT // Close the connection
+    }
+
+    static final int MAX_MESSAGES = Integer.getInteger("server.outbound.maxMessages", 1024);
+    static final long MAX_BYTES = Long.getLong("server.outbound.maxBytes", 256 * 1024);
+    static final Policy POLICY = parsePolicy(System.getProperty("server.outbound.policy", "DROP"));
+
+    // Updated by senders when queueing and by the writer once a message is on the wire
+    private final AtomicInteger queuedMessages = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private volatile boolean throttled = false; // Paused or holding messages; lets the writer skip the lock
+
+    // Admission state. Guarded by the owning connection's send lock, which also keeps admission
+    // order and queue order the same.
+    private boolean binary = false; // Messages after PROTOCOL are sent (and counted) as binary frames
+    private boolean paused = false;
+    private boolean evicted = false;
+    private final Map<OutboundMessage.Type, OutboundMessage> held = new EnumMap<>(OutboundMessage.Type.class);
+
+    // Decides what to do with a message about to be queued; a SEND is counted against the budget
+    Decision admit(OutboundMessage message) {
+        if (evicted) {
+            return Decision.HOLD; // Closing; nothing more is delivered
+        }
+        int messages = queuedMessages.get();
+        long bytes = queuedBytes.get();
+        boolean over = messages >= MAX_MESSAGES || bytes >= MAX_BYTES;
+        if (over && POLICY == Policy.DISCONNECT) {
+            evicted = true;
+            return Decision.EVICT;
+        }
+        if (over && POLICY == Policy.PAUSE && !paused) {
+            paused = true;
+            throttled = true;
+            ServerMetrics.recordBackpressurePause();
+        }
+
+        OutboundMessage.Type type = message.type();
+        if (type.superseded) {
+            if (over || paused) {
+                if (held.put(type, message) != null) {
+                    ServerMetrics.recordBackpressureDrop(); // The older held message is stale now
+                }
+                throttled = true;
+                return Decision.HOLD;
+            }
+            if (held.remove(type) != null) {
+                ServerMetrics.recordBackpressureDrop(); // Superseded before it could be sent
+            }
+        } else if (type.resyncable && paused) {
+            ServerMetrics.recordBackpressureDrop();
+            return Decision.HOLD;
+        }
+
+        if (messages >= 2 * MAX_MESSAGES || bytes >= 2 * MAX_BYTES) {
+            evicted = true;
+            return Decision.EVICT;
+        }
+        charge(message);
+        return Decision.SEND;
+    }
+
+    // Called by the writer for every message it finished writing. Returns true when the queue has
+    // drained far enough that resume() has work to do.
+    boolean release(int bytes) {
+        int messages = queuedMessages.decrementAndGet();
+        long remaining = queuedBytes.addAndGet(-bytes);
+        return throttled && messages <= MAX_MESSAGES / 2 && remaining <= MAX_BYTES / 2;
+    }
+
+    // Ends a pause once the queue has drained and returns the held messages to send now, each
+    // already counted against the budget. Caller holds the send lock.
+    List<OutboundMessage> resume() {
+        if (evicted || queuedMessages.get() > MAX_MESSAGES / 2 || queuedBytes.get() > MAX_BYTES / 2) {
+            return Collections.emptyList();
+        }
+        if (paused) {
+            paused = false;
+            ServerMetrics.recordBackpressureResume();
+        }
+        throttled = false;
+        if (held.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<OutboundMessage> released = new ArrayList<>(held.values());
+        held.clear();
+        for (OutboundMessage message : released) {
+            charge(message);
+        }
+        return released;
+    }
+
+    // Counts a message that is queued whatever the budget allows, such as the replay to a resumed
+    // session the client cannot do without. Caller holds the send lock.
+    void force(OutboundMessage message) {
+        charge(message);
+    }
+
+    int queuedMessages() {
+        return queuedMessages.get();
+    }
+
+    long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    private void charge(OutboundMessage message) {
+        queuedMessages.incrementAndGet();
+        queuedBytes.addAndGet(message.bytes(binary).length); // Encoded once and shared with the writer
+        if (message.type() == OutboundMessage.Type.PROTOCOL) {
+            binary = true;
+        }
+    }
+
+    static Policy parsePolicy(String name) {
+        try {
+            return Policy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            ServerLog.warn("Unknown outbound policy {}. Using DROP.", name);
+            return Policy.DROP;
+        }
+    }
+}
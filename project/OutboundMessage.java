@@ -0,0 +1,471 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+// One server -> client message. A broadcast creates one OutboundMessage and hands the same instance
+// to every recipient. Each wire format (text line or binary frame) is encoded at most once, the
+// first time a recipient using that format needs it, and the bytes are then shared without copying.
+final class OutboundMessage {
+    // Same charset the PrintWriter-based writers used for the text protocol
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    // Message types with their text prefix and binary type code. For OutboundBudget, superseded
+    // types carry complete state that the next message of the type replaces, and resyncable ones
+    // are deltas whose loss the client detects and repairs with a resync request.
+    enum Type {
+        ENTER_NAME(0x01, "ENTER_NAME"),
+        CONNECTED(0x02, "CONNECTED:", true, false),
+        WAITING(0x03, "WAITING:", true, false),
+        TIMER(0x04, "TIMER:", true, false),
+        GAME_STARTED(0x05, "GAME_STARTED"),
+        SCORES(0x06, "SCORES:", true, false),
+        SCORE_SNAPSHOT(0x07, "SCORE_SNAPSHOT:"),
+        SCORE_DELTA(0x08, "SCORE_DELTA:", false, true),
+        SCORE_REMOVE(0x09, "SCORE_REMOVE:", false, true),
+        PLAYER_LEFT(0x0A, "PLAYER_LEFT:"),
+        GAME_ENDED(0x0B, "GAME_ENDED:"),
+        SERVER_MESSAGE(0x0C, "SERVER_MESSAGE:"),
+        // Always sent as text: tells the client that everything after it uses the named protocol
+        PROTOCOL(0x0D, "PROTOCOL:"),
+        ROSTER(0x0E, "ROSTER:"),
+        ROSTER_ADD(0x0F, "ROSTER_ADD:", false, true),
+        ROSTER_REMOVE(0x10, "ROSTER_REMOVE:", false, true),
+        ROSTER_MOVE(0x11, "ROSTER_MOVE:", false, true),
+        QUESTIONS(0x12, "QUESTIONS:"),
+        ANSWER_RESULT(0x13, "ANSWER_RESULT:"),
+        LEADERBOARD(0x14, "LEADERBOARD:"),
+        RANK(0x15, "RANK:"),
+        // Session control (see Session); not numbered for replay
+        SESSION(0x16, "SESSION:"),
+        RESUMED(0x17, "RESUMED:"),
+        RESUME_FAILED(0x18, "RESUME_FAILED"),
+        // Heartbeat probe (see Heartbeat); not numbered for replay
+        PING(0x19, "PING"),
+        // Cluster match hosted by another node (see Cluster)
+        REDIRECT(0x1A, "REDIRECT:");
+
+        final byte code;
+        final String prefix;
+        final boolean superseded;
+        final boolean resyncable;
+
+        Type(int code, String prefix) {
+            this(code, prefix, false, false);
+        }
+
+        Type(int code, String prefix, boolean superseded, boolean resyncable) {
+            this.code = (byte) code;
+            this.prefix = prefix;
+            this.superseded = superseded;
+            this.resyncable = resyncable;
+        }
+    }
+
+    private final Type type;
+    private final long number; // Countdown seconds, sequence number, roster version, question index or leaderboard size
+    private final String value; // Player name or free text
+    private final int score; // Score, or 1 for a correct ANSWER_RESULT
+    private final List<String> names; // CONNECTED/WAITING/ROSTER lists, QUESTIONS prompts
+    private final String[] scoreNames; // SCORES/SCORE_SNAPSHOT entries, in scoreboard order
+    private final int[] scoreValues;
+    private final PlayerRegistry.State state; // ROSTER_ADD/ROSTER_MOVE
+    private final PlayerRegistry.State[] states; // ROSTER, one per name
+    private final List<Leaderboard.Standing> standings; // LEADERBOARD/RANK entries
+    private final long rank; // RANK: the player's rank, 0 if not ranked
+
+    // Lazily encoded forms. Racing threads may both encode, but they produce identical bytes. Each
+    // format's bytes come with one read-only view that channel writers duplicate.
+    private volatile String text;
+    private volatile byte[] textBytes;
+    private volatile byte[] binaryBytes;
+    private volatile ByteBuffer textBuffer;
+    private volatile ByteBuffer binaryBuffer;
+
+    private OutboundMessage(Type type, long number, String value, int score, List<String> names, Map<String, Integer> scores) {
+        this.type = type;
+        this.number = number;
+        this.value = value;
+        this.score = score;
+        this.names = names;
+        if (scores != null) {
+            scoreNames = new String[scores.size()];
+            scoreValues = new int[scores.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+                scoreNames[i] = entry.getKey();
+                scoreValues[i] = entry.getValue();
+                i++;
+            }
+        } else {
+            scoreNames = null;
+            scoreValues = null;
+        }
+        this.state = null;
+        this.states = null;
+        this.standings = null;
+        this.rank = 0;
+    }
+
+    private OutboundMessage(Type type, long version, String name, PlayerRegistry.State state, List<String> names,
+            PlayerRegistry.State[] states) {
+        this.type = type;
+        this.number = version;
+        this.value = name;
+        this.score = 0;
+        this.names = names;
+        this.scoreNames = null;
+        this.scoreValues = null;
+        this.state = state;
+        this.states = states;
+        this.standings = null;
+        this.rank = 0;
+    }
+
+    private OutboundMessage(Type type, long players, long rank, List<Leaderboard.Standing> standings) {
+        this.type = type;
+        this.number = players;
+        this.value = null;
+        this.score = 0;
+        this.names = null;
+        this.scoreNames = null;
+        this.scoreValues = null;
+        this.state = null;
+        this.states = null;
+        this.standings = standings;
+        this.rank = rank;
+    }
+
+    static OutboundMessage enterName() {
+        return new OutboundMessage(Type.ENTER_NAME, 0, null, 0, null, null);
+    }
+
+    // names is kept by reference; callers pass a list they no longer modify
+    static OutboundMessage connected(List<String> names) {
+        return new OutboundMessage(Type.CONNECTED, 0, null, 0, names, null);
+    }
+
+    static OutboundMessage waiting(List<String> names) {
+        return new OutboundMessage(Type.WAITING, 0, null, 0, names, null);
+    }
+
+    static OutboundMessage timer(int secondsLeft) {
+        return new OutboundMessage(Type.TIMER, secondsLeft, null, 0, null, null);
+    }
+
+    static OutboundMessage gameStarted() {
+        return new OutboundMessage(Type.GAME_STARTED, 0, null, 0, null, null);
+    }
+
+    // Full scoreboard in the original format; scores is copied
+    static OutboundMessage scores(Map<String, Integer> scores) {
+        return new OutboundMessage(Type.SCORES, 0, null, 0, null, scores);
+    }
+
+    static OutboundMessage scoreSnapshot(long sequence, Map<String, Integer> scores) {
+        return new OutboundMessage(Type.SCORE_SNAPSHOT, sequence, null, 0, null, scores);
+    }
+
+    static OutboundMessage scoreDelta(long sequence, String playerName, int score) {
+        return new OutboundMessage(Type.SCORE_DELTA, sequence, playerName, score, null, null);
+    }
+
+    static OutboundMessage scoreRemove(long sequence, String playerName) {
+        return new OutboundMessage(Type.SCORE_REMOVE, sequence, playerName, 0, null, null);
+    }
+
+    static OutboundMessage playerLeft(String playerName) {
+        return new OutboundMessage(Type.PLAYER_LEFT, 0, playerName, 0, null, null);
+    }
+
+    static OutboundMessage gameEnded(String info) {
+        return new OutboundMessage(Type.GAME_ENDED, 0, info, 0, null, null);
+    }
+
+    static OutboundMessage serverMessage(String message) {
+        return new OutboundMessage(Type.SERVER_MESSAGE, 0, message, 0, null, null);
+    }
+
+    static OutboundMessage protocol(String version) {
+        return new OutboundMessage(Type.PROTOCOL, 0, version, 0, null, null);
+    }
+
+    // The match's questions in order, sent to clients that let the server check their answers
+    static OutboundMessage questions(List<String> prompts) {
+        return new OutboundMessage(Type.QUESTIONS, 0, null, 0, prompts, null);
+    }
+
+    static OutboundMessage answerResult(int index, boolean correct) {
+        return new OutboundMessage(Type.ANSWER_RESULT, index, null, correct ? 1 : 0, null, null);
+    }
+
+    // Full roster at a version; names and states are kept by reference and must not change
+    static OutboundMessage roster(long version, List<String> names, PlayerRegistry.State[] states) {
+        return new OutboundMessage(Type.ROSTER, version, null, null, names, states);
+    }
+
+    static OutboundMessage rosterAdd(long version, PlayerRegistry.State state, String playerName) {
+        return new OutboundMessage(Type.ROSTER_ADD, version, playerName, state, null, null);
+    }
+
+    static OutboundMessage rosterRemove(long version, String playerName) {
+        return new OutboundMessage(Type.ROSTER_REMOVE, version, playerName, null, null, null);
+    }
+
+    static OutboundMessage rosterMove(long version, PlayerRegistry.State state, String playerName) {
+        return new OutboundMessage(Type.ROSTER_MOVE, version, playerName, state, null, null);
+    }
+
+    // The leading players; players is the number of players on the leaderboard
+    static OutboundMessage leaderboard(long players, List<Leaderboard.Standing> top) {
+        return new OutboundMessage(Type.LEADERBOARD, players, 0, top);
+    }
+
+    // A player's rank (0 if not ranked) and the players around them
+    static OutboundMessage rank(long players, long rank, List<Leaderboard.Standing> around) {
+        return new OutboundMessage(Type.RANK, players, rank, around);
+    }
+
+    // Resume token of a new session
+    static OutboundMessage session(String token) {
+        return new OutboundMessage(Type.SESSION, 0, token, 0, null, null);
+    }
+
+    // Where to play a cluster match: address is "host:port", the ticket goes back in JOIN:<ticket>
+    static OutboundMessage redirect(String address, String ticket) {
+        return new OutboundMessage(Type.REDIRECT, 0, address + "," + ticket, 0, null, null);
+    }
+
+    // Resume accepted; number is the last message the client has before the replay that follows
+    static OutboundMessage resumed(long number) {
+        return new OutboundMessage(Type.RESUMED, number, null, 0, null, null);
+    }
+
+    static OutboundMessage resumeFailed() {
+        return new OutboundMessage(Type.RESUME_FAILED, 0, null, 0, null, null);
+    }
+
+    static OutboundMessage ping() {
+        return new OutboundMessage(Type.PING, 0, null, 0, null, null);
+    }
+
+    Type type() {
+        return type;
+    }
+
+    // The text protocol line without its terminator; also used for logging
+    String text() {
+        String result = text;
+        if (result == null) {
+            result = buildText();
+            text = result;
+        }
+        return result;
+    }
+
+    // Used when the message is passed to ServerLog
+    @Override
+    public String toString() {
+        return text();
+    }
+
+    // Encoded message for stream writers. Callers must not modify the array.
+    byte[] bytes(boolean binary) {
+        if (binary && type != Type.PROTOCOL) {
+            byte[] result = binaryBytes;
+            if (result == null) {
+                result = buildBinary();
+                binaryBuffer = ByteBuffer.wrap(result).asReadOnlyBuffer(); // Set before the bytes, see buffer()
+                binaryBytes = result;
+            }
+            return result;
+        }
+        byte[] result = textBytes;
+        if (result == null) {
+            result = (text() + "\n").getBytes(CHARSET);
+            textBuffer = ByteBuffer.wrap(result).asReadOnlyBuffer();
+            textBytes = result;
+        }
+        return result;
+    }
+
+    // Read-only buffer with its own position over the shared bytes, for channel writers: one
+    // duplicate() of the view built at encoding, so a recipient costs a single small object
+    ByteBuffer buffer(boolean binary) {
+        bytes(binary); // Encodes on first use; the view is published before the bytes
+        return (binary && type != Type.PROTOCOL ? binaryBuffer : textBuffer).duplicate();
+    }
+
+    private String buildText() {
+        switch (type) {
+            case CONNECTED:
+            case WAITING:
+            case QUESTIONS:
+                return type.prefix + String.join(",", names);
+            case ANSWER_RESULT:
+                return type.prefix + number + ":" + (score != 0 ? "CORRECT" : "WRONG");
+            case TIMER:
+            case RESUMED:
+                return type.prefix + number;
+            case SCORES:
+                return type.prefix + formatScores();
+            case SCORE_SNAPSHOT:
+                return type.prefix + number + ":" + formatScores();
+            case SCORE_DELTA:
+                return type.prefix + number + ":" + value + ":" + score;
+            case SCORE_REMOVE:
+            case ROSTER_REMOVE:
+                return type.prefix + number + ":" + value;
+            case ROSTER:
+                return type.prefix + number + ":" + formatRoster();
+            case LEADERBOARD:
+                return type.prefix + number + ":" + formatStandings();
+            case RANK:
+                return type.prefix + number + ":" + rank + ":" + formatStandings();
+            case ROSTER_ADD:
+            case ROSTER_MOVE:
+                // The name goes last since it may contain ':'
+                return type.prefix + number + ":" + state + ":" + value;
+            case PLAYER_LEFT:
+            case GAME_ENDED:
+            case SERVER_MESSAGE:
+            case PROTOCOL:
+            case SESSION:
+            case REDIRECT:
+                return type.prefix + value;
+            default:
+                return type.prefix; // ENTER_NAME, GAME_STARTED, RESUME_FAILED, PING
+        }
+    }
+
+    // name:score pairs joined by commas, the format of the original SCORES message
+    private String formatScores() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < scoreNames.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(scoreNames[i]).append(":").append(scoreValues[i]);
+        }
+        return sb.toString();
+    }
+
+    // state:name pairs joined by commas, in join order
+    private String formatRoster() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < states.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(states[i]).append(":").append(names.get(i));
+        }
+        return sb.toString();
+    }
+
+    // rank:points:wins:matches:name entries joined by commas, best first
+    private String formatStandings() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < standings.size(); i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(standings.get(i));
+        }
+        return sb.toString();
+    }
+
+    private byte[] buildBinary() {
+        BinaryCodec.FrameBuilder frame = names != null
+                ? new BinaryCodec.FrameBuilder(type.code, namesSize()) : new BinaryCodec.FrameBuilder(type.code);
+        switch (type) {
+            case CONNECTED:
+            case WAITING:
+            case QUESTIONS:
+                frame.writeVarLong(names.size());
+                for (String name : names) {
+                    frame.writeString(name);
+                }
+                break;
+            case TIMER:
+            case RESUMED:
+                frame.writeVarLong(number);
+                break;
+            case ANSWER_RESULT:
+                frame.writeVarLong(number).writeByte(score);
+                break;
+            case SCORE_SNAPSHOT:
+                frame.writeVarLong(number);
+                writeScores(frame);
+                break;
+            case SCORES:
+                writeScores(frame);
+                break;
+            case SCORE_DELTA:
+                frame.writeVarLong(number).writeString(value).writeZigZag(score);
+                break;
+            case SCORE_REMOVE:
+            case ROSTER_REMOVE:
+                frame.writeVarLong(number).writeString(value);
+                break;
+            case ROSTER:
+                frame.writeVarLong(number).writeVarLong(states.length);
+                for (int i = 0; i < states.length; i++) {
+                    frame.writeByte(states[i].ordinal()).writeString(names.get(i));
+                }
+                break;
+            case ROSTER_ADD:
+            case ROSTER_MOVE:
+                frame.writeVarLong(number).writeByte(state.ordinal()).writeString(value);
+                break;
+            case LEADERBOARD:
+                frame.writeVarLong(number);
+                writeStandings(frame);
+                break;
+            case RANK:
+                frame.writeVarLong(number).writeVarLong(rank);
+                writeStandings(frame);
+                break;
+            case PLAYER_LEFT:
+            case GAME_ENDED:
+            case SERVER_MESSAGE:
+            case SESSION:
+            case REDIRECT:
+                frame.writeString(value);
+                break;
+            default:
+                break; // ENTER_NAME, GAME_STARTED, RESUME_FAILED, PING carry no fields
+        }
+        return frame.finish();
+    }
+
+    private void writeStandings(BinaryCodec.FrameBuilder frame) {
+        frame.writeVarLong(standings.size());
+        for (Leaderboard.Standing standing : standings) {
+            frame.writeVarLong(standing.rank).writeVarLong(standing.points).writeVarLong(standing.wins)
+                    .writeVarLong(standing.matches).writeString(standing.name);
+        }
+    }
+
+    // Payload size of a list of ASCII names of under 128 chars, which is every name in practice;
+    // a roster adds one state byte per name
+    private int namesSize() {
+        int size = 10 + 2 * names.size();
+        for (String name : names) {
+            size += name.length();
+        }
+        return size;
+    }
+
+    private void writeScores(BinaryCodec.FrameBuilder frame) {
+        frame.writeVarLong(scoreNames.length);
+        for (int i = 0; i < scoreNames.length; i++) {
+            frame.writeString(scoreNames[i]).writeZigZag(scoreValues[i]);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Every connection on the server, indexed by connection and by player name, with the player's
+// lobby state. Lookups and state changes are O(1) and lock-free; adding and removing a connection
+// also updates a join-ordered index (O(log n)) so rosters keep the order players arrived in.
+// Names are unique: a name that is already taken gets a "#2", "#3", ... suffix.
+final class PlayerRegistry {
+    enum State {
+        CONNECTED, // No name yet
+        LOBBY, // Named, not in a room
+        WAITING, // In a room's waiting list
+        IN_GAME
+    }
+
+    // Told about every change after it was applied, on the thread that made it. Changes to one
+    // connection can race, so listeners should read the current name and state back.
+    interface Listener {
+        void named(NewServer.ClientHandler client);
+
+        void stateChanged(NewServer.ClientHandler client);
+
+        void removed(NewServer.ClientHandler client);
+    }
+
+    private static final Listener NO_LISTENER = new Listener() {
+        @Override
+        public void named(NewServer.ClientHandler client) {
+        }
+
+        @Override
+        public void stateChanged(NewServer.ClientHandler client) {
+        }
+
+        @Override
+        public void removed(NewServer.ClientHandler client) {
+        }
+    };
+
+    private static final class Entry {
+        final NewServer.ClientHandler client;
+        final long joinOrder;
+        final AtomicReference<State> state = new AtomicReference<>(State.CONNECTED); // null once removed
+        volatile String name;
+
+        Entry(NewServer.ClientHandler client, long joinOrder) {
+            this.client = client;
+            this.joinOrder = joinOrder;
+        }
+    }
+
+    private final ConcurrentHashMap<NewServer.ClientHandler, Entry> byConnection = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, NewServer.ClientHandler> byName = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Entry> byJoinOrder = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextJoinOrder = new AtomicLong();
+    private final AtomicIntegerArray stateCounts = new AtomicIntegerArray(State.values().length);
+    private volatile Listener listener = NO_LISTENER;
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Registers a newly accepted connection in state CONNECTED
+    void add(NewServer.ClientHandler client) {
+        Entry entry = new Entry(client, nextJoinOrder.getAndIncrement());
+        if (byConnection.putIfAbsent(client, entry) == null) {
+            byJoinOrder.put(entry.joinOrder, entry);
+            stateCounts.incrementAndGet(State.CONNECTED.ordinal());
+        }
+    }
+
+    // Reserves a unique name for the connection and moves it to LOBBY. Returns the name it got,
+    // or null if the connection is not registered (it already disconnected).
+    String claimName(NewServer.ClientHandler client, String requested) {
+        Entry entry = byConnection.get(client);
+        if (entry == null || entry.name != null) {
+            return entry != null ? entry.name : null;
+        }
+        String name = requested;
+        for (int suffix = 2; byName.putIfAbsent(name, client) != null; suffix++) {
+            name = requested + "#" + suffix;
+        }
+        return named(entry, name);
+    }
+
+    // Gives the connection exactly this name, one the cluster reserved for it, and moves it to
+    // LOBBY. Returns null if another connection has the name, or if this one is not registered.
+    String claimExactName(NewServer.ClientHandler client, String name) {
+        Entry entry = byConnection.get(client);
+        if (entry == null || entry.name != null) {
+            return entry != null && name.equals(entry.name) ? name : null;
+        }
+        if (byName.putIfAbsent(name, client) != null) {
+            return null;
+        }
+        return named(entry, name);
+    }
+
+    // Finishes a claim once name is indexed for the entry's connection
+    private String named(Entry entry, String name) {
+        entry.name = name;
+        move(entry, State.CONNECTED, State.LOBBY);
+        listener.named(entry.client);
+        return name;
+    }
+
+    // Atomically changes the connection's state if it is currently from. Returns false otherwise,
+    // including when the connection is not registered.
+    boolean move(NewServer.ClientHandler client, State from, State to) {
+        Entry entry = byConnection.get(client);
+        if (entry == null || !move(entry, from, to)) {
+            return false;
+        }
+        listener.stateChanged(client);
+        return true;
+    }
+
+    // Sets the connection's state whatever it was; ignored for connections that are not registered
+    void setState(NewServer.ClientHandler client, State to) {
+        Entry entry = byConnection.get(client);
+        if (entry == null) {
+            return;
+        }
+        State from;
+        do {
+            from = entry.state.get();
+            if (from == null) {
+                return; // Removed concurrently
+            }
+        } while (!entry.state.compareAndSet(from, to));
+        stateCounts.decrementAndGet(from.ordinal());
+        stateCounts.incrementAndGet(to.ordinal());
+        listener.stateChanged(client);
+    }
+
+    // Current state, or null if the connection is not registered
+    State state(NewServer.ClientHandler client) {
+        Entry entry = byConnection.get(client);
+        return entry != null ? entry.state.get() : null;
+    }
+
+    // The name the connection claimed, or null before it entered one or once it is removed
+    String name(NewServer.ClientHandler client) {
+        Entry entry = byConnection.get(client);
+        return entry != null ? entry.name : null;
+    }
+
+    boolean contains(NewServer.ClientHandler client) {
+        return byConnection.containsKey(client);
+    }
+
+    NewServer.ClientHandler byName(String name) {
+        return byName.get(name);
+    }
+
+    // Unregisters the connection and frees its name. Returns false if it was not registered.
+    boolean remove(NewServer.ClientHandler client) {
+        Entry entry = byConnection.remove(client);
+        if (entry == null) {
+            return false;
+        }
+        byJoinOrder.remove(entry.joinOrder);
+        String name = entry.name;
+        if (name != null) {
+            byName.remove(name, client);
+        }
+        State last = entry.state.getAndSet(null); // Later moves on this entry fail
+        if (last != null) {
+            stateCounts.decrementAndGet(last.ordinal());
+        }
+        listener.removed(client);
+        return true;
+    }
+
+    int size() {
+        return byConnection.size();
+    }
+
+    int count(State state) {
+        return stateCounts.get(state.ordinal());
+    }
+
+    // Snapshot of all registered connections in join order
+    Collection<NewServer.ClientHandler> connections() {
+        List<NewServer.ClientHandler> result = new ArrayList<>(byJoinOrder.size());
+        for (Entry entry : byJoinOrder.values()) {
+            result.add(entry.client);
+        }
+        return result;
+    }
+
+    // Names of all players that have entered one, in join order
+    List<String> names() {
+        List<String> names = new ArrayList<>(byJoinOrder.size());
+        for (Entry entry : byJoinOrder.values()) {
+            String name = entry.name;
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private boolean move(Entry entry, State from, State to) {
+        if (!entry.state.compareAndSet(from, to)) {
+            return false;
+        }
+        stateCounts.decrementAndGet(from.ordinal());
+        stateCounts.incrementAndGet(to.ordinal());
+        return true;
+    }
+}
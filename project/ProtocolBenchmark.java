@@ -0,0 +1,140 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares the text protocol with BinaryCodec frames for the largest messages the server sends:
+// full scoreboards and the CONNECTED roster. Reports bytes on the wire and encode/decode time
+// per message. Decoding parses every field the way a client would.
+// Usage: ProtocolBenchmark [iterations]
+class ProtocolBenchmark {
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    // Sink so the JIT cannot drop the work being measured
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        System.out.println("message                text(B)  binary(B)  text enc/dec(ns)  binary enc/dec(ns)");
+        run("SCORE_SNAPSHOT x4", () -> OutboundMessage.scoreSnapshot(1234, scores(4)), iterations);
+        run("SCORE_SNAPSHOT x100", () -> OutboundMessage.scoreSnapshot(1234, scores(100)), iterations / 10);
+        run("SCORE_DELTA", () -> OutboundMessage.scoreDelta(1234, "player17", 3150), iterations);
+        run("CONNECTED x100", () -> OutboundMessage.connected(names(100)), iterations / 10);
+        run("CONNECTED x10000", () -> OutboundMessage.connected(names(10_000)), Math.max(10, iterations / 1000));
+        if (blackhole == 42) {
+            System.out.println();
+        }
+    }
+
+    interface MessageFactory {
+        OutboundMessage create();
+    }
+
+    private static void run(String label, MessageFactory factory, int iterations) {
+        OutboundMessage sample = factory.create();
+        byte[] text = sample.bytes(false);
+        byte[] binary = sample.bytes(true);
+
+        // Warm up both paths before measuring
+        for (int round = 0; round < 2; round++) {
+            long textEncode = encode(factory, false, iterations);
+            long binaryEncode = encode(factory, true, iterations);
+            long textDecode = decodeText(text, iterations);
+            long binaryDecode = decodeBinary(binary, iterations);
+            if (round == 1) {
+                System.out.printf("%-20s %9d  %9d  %7d / %-7d  %8d / %-7d%n", label, text.length, binary.length,
+                        textEncode, textDecode, binaryEncode, binaryDecode);
+            }
+        }
+    }
+
+    // Time to build a message and encode it in one format, without the cost of the input collections
+    private static long encode(MessageFactory factory, boolean binary, int iterations) {
+        OutboundMessage[] messages = new OutboundMessage[Math.min(iterations, 1024)];
+        long total = 0;
+        for (int done = 0; done < iterations; done += messages.length) {
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = factory.create();
+            }
+            long start = System.nanoTime();
+            for (OutboundMessage message : messages) {
+                blackhole += message.bytes(binary).length;
+            }
+            total += System.nanoTime() - start;
+        }
+        return total / roundUp(iterations, messages.length);
+    }
+
+    private static long decodeText(byte[] bytes, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            String line = new String(bytes, 0, bytes.length - 1, CHARSET);
+            String body = line.substring(line.indexOf(':') + 1);
+            for (String entry : body.split(",")) {
+                int colon = entry.lastIndexOf(':');
+                if (colon > 0) {
+                    blackhole += entry.substring(0, colon).length() + Integer.parseInt(entry.substring(colon + 1));
+                } else {
+                    blackhole += entry.length();
+                }
+            }
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static long decodeBinary(byte[] bytes, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            int length = (int) BinaryCodec.readVarLong(in);
+            byte type = in.get();
+            ByteBuffer payload = in.slice();
+            payload.limit(length - 1);
+            if (type == OutboundMessage.Type.SCORE_DELTA.code) {
+                blackhole += BinaryCodec.readVarLong(payload) + BinaryCodec.readString(payload).length()
+                        + BinaryCodec.readZigZag(payload);
+                continue;
+            }
+            if (type == OutboundMessage.Type.SCORE_SNAPSHOT.code) {
+                blackhole += BinaryCodec.readVarLong(payload);
+            }
+            long count = BinaryCodec.readVarLong(payload);
+            for (long n = 0; n < count; n++) {
+                blackhole += BinaryCodec.readString(payload).length();
+                if (type == OutboundMessage.Type.SCORE_SNAPSHOT.code) {
+                    blackhole += BinaryCodec.readZigZag(payload);
+                }
+            }
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static Map<String, Integer> scores(int players) {
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        for (int i = 0; i < players; i++) {
+            scores.put("player" + i, i * 37 % 5000);
+        }
+        return scores;
+    }
+
+    private static List<String> names(int count) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add("player" + i);
+        }
+        return names;
+    }
+
+    private static int roundUp(int iterations, int batch) {
+        return (iterations + batch - 1) / batch * batch;
+    }
+}
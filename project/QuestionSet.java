@@ -0,0 +1,64 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// The questions of one match: binary numbers to convert to decimal, like the stages the client
+// used to hard-code. Answers are computed when the set is generated, so checking an answer is a
+// single comparison. Immutable once generated.
+//   -Dserver.questionCount=<n>   questions per match (default 5)
+final class QuestionSet {
+    static final int DEFAULT_COUNT = Math.max(1, Integer.getInteger("server.questionCount", 5));
+
+    private static final int MIN_DIGITS = 4;
+    private static final int MAX_DIGITS = 6;
+
+    private final String[] prompts;
+    private final int[] answers;
+
+    private QuestionSet(String[] prompts, int[] answers) {
+        this.prompts = prompts;
+        this.answers = answers;
+    }
+
+    // A new set of count questions. The same seed gives the same questions.
+    static QuestionSet generate(int count, long seed) {
+        Random random = new Random(seed);
+        String[] prompts = new String[count];
+        int[] answers = new int[count];
+        char[] digits = new char[MAX_DIGITS];
+        for (int i = 0; i < count; i++) {
+            int width = MIN_DIGITS + random.nextInt(MAX_DIGITS - MIN_DIGITS + 1);
+            int value = 1 + random.nextInt((1 << width) - 1); // Leading zeros allowed, never all zeros
+            for (int bit = 0; bit < width; bit++) {
+                digits[width - 1 - bit] = (value & (1 << bit)) != 0 ? '1' : '0';
+            }
+            prompts[i] = new String(digits, 0, width);
+            answers[i] = value;
+        }
+        return new QuestionSet(prompts, answers);
+    }
+
+    int size() {
+        return answers.length;
+    }
+
+    boolean isCorrect(int index, int answer) {
+        return answers[index] == answer;
+    }
+
+    // Used by tools that play a match
+    int answer(int index) {
+        return answers[index];
+    }
+
+    List<String> prompts() {
+        return Collections.unmodifiableList(Arrays.asList(prompts));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The player list every client shows, kept up to date from PlayerRegistry changes. Each change
+// bumps the roster version. Clients that sent CAPS:ROSTER_DELTA get one ROSTER snapshot and then
+// only ROSTER_ADD/ROSTER_REMOVE/ROSTER_MOVE deltas carrying the new version, so a join costs one
+// small message per client instead of the whole list. Clients without delta support still get
+// the full CONNECTED list whenever a player joins or leaves.
+final class Roster implements PlayerRegistry.Listener {
+
+    private static final class Member {
+        final String name;
+        PlayerRegistry.State state; // Last state sent to clients
+        boolean deltas; // The client receives deltas instead of CONNECTED lists
+
+        Member(String name, PlayerRegistry.State state) {
+            this.name = name;
+            this.state = state;
+        }
+    }
+
+    private final PlayerRegistry registry;
+
+    // Guards everything below. Changes are sent while holding it, so every client receives them
+    // in version order. Sending only queues messages and never blocks on a socket: every transport
+    // writes on threads of its own (writer threads, SocketWriters, NIO reactors), so a client that
+    // stopped reading cannot keep the lock held.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<NewServer.ClientHandler, Member> members = new LinkedHashMap<>(); // Named players in join order
+    private long version = 0;
+    private int legacyMembers = 0; // Members without delta support
+
+    Roster(PlayerRegistry registry) {
+        this.registry = registry;
+    }
+
+    // A player entered a name. Reads the name and state back from the registry under the lock,
+    // so a change racing with this one is never sent out of order.
+    @Override
+    public void named(NewServer.ClientHandler client) {
+        lock.lock();
+        try {
+            String name = registry.name(client);
+            PlayerRegistry.State state = registry.state(client);
+            if (name == null || state == null || members.containsKey(client)) {
+                return; // Already disconnected, or already added
+            }
+            members.put(client, new Member(name, state));
+            legacyMembers++;
+            broadcast(OutboundMessage.rosterAdd(++version, state, name), true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void stateChanged(NewServer.ClientHandler client) {
+        lock.lock();
+        try {
+            Member member = members.get(client);
+            PlayerRegistry.State state = registry.state(client);
+            if (member == null || state == null || state == member.state) {
+                return; // Not named yet, already removed, or a change that was already sent
+            }
+            member.state = state;
+            broadcast(OutboundMessage.rosterMove(++version, state, member.name), false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removed(NewServer.ClientHandler client) {
+        lock.lock();
+        try {
+            Member member = members.remove(client);
+            if (member == null) {
+                return;
+            }
+            if (!member.deltas) {
+                legacyMembers--;
+            }
+            broadcast(OutboundMessage.rosterRemove(++version, member.name), true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Switches a client to deltas (CAPS:ROSTER_DELTA) and sends it the snapshot they start from
+    void subscribe(NewServer.ClientHandler client) {
+        lock.lock();
+        try {
+            Member member = members.get(client);
+            if (member == null || member.deltas) {
+                return;
+            }
+            member.deltas = true;
+            legacyMembers--;
+            client.sendMessage(snapshot());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sends a fresh snapshot to a client that found a gap in the version numbers (ROSTER_RESYNC)
+    void resync(NewServer.ClientHandler client) {
+        lock.lock();
+        try {
+            Member member = members.get(client);
+            if (member != null && member.deltas) {
+                client.sendMessage(snapshot());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the lock
+    private OutboundMessage snapshot() {
+        List<String> names = new ArrayList<>(members.size());
+        PlayerRegistry.State[] states = new PlayerRegistry.State[members.size()];
+        for (Member member : members.values()) {
+            states[names.size()] = member.state;
+            names.add(member.name);
+        }
+        return OutboundMessage.roster(version, names, states);
+    }
+
+    // Sends the delta to delta clients, and for joins and leaves the full CONNECTED list to the
+    // others; the list is only built if there is at least one of them. Caller holds the lock.
+    private void broadcast(OutboundMessage delta, boolean membershipChanged) {
+        OutboundMessage legacy = null;
+        if (membershipChanged && legacyMembers > 0) {
+            List<String> names = new ArrayList<>(members.size());
+            for (Member member : members.values()) {
+                names.add(member.name);
+            }
+            legacy = OutboundMessage.connected(names);
+        }
+        long start = System.nanoTime();
+        for (Map.Entry<NewServer.ClientHandler, Member> entry : members.entrySet()) {
+            if (entry.getValue().deltas) {
+                entry.getKey().sendMessage(delta);
+            } else if (legacy != null) {
+                entry.getKey().sendMessage(legacy);
+            }
+        }
+        ServerMetrics.recordBroadcast(members.size(), System.nanoTime() - start);
+    }
+}
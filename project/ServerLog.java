@@ -0,0 +1,225 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Server logging. Messages are patterns with "{}" placeholders and up to three arguments; nothing is
+// formatted unless the level is enabled, so a disabled call allocates nothing as long as the
+// arguments are already objects (guard calls that would box or build values with isEnabled).
+// By default records go into a fixed-size ring buffer and a background thread formats and prints
+// them, so connection threads never wait on stdout. When the buffer is full records are dropped
+// and counted instead of blocking. Arguments are formatted later on the log thread, so they must
+// not change after the call.
+//   -Dserver.logLevel=TRACE|DEBUG|INFO|WARN|ERROR|OFF   (default INFO; per-message logs are TRACE)
+//   -Dserver.logAsync=false                             print on the calling thread instead
+//   -Dserver.logBuffer=<records>                        ring buffer size (default 8192)
+final class ServerLog {
+    enum Level { TRACE, DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final String PREFIX = "ServerLog: ";
+    private static final PrintStream OUT = System.out;
+
+    private static volatile int threshold = parseLevel(System.getProperty("server.logLevel", "INFO")).ordinal();
+    private static final LongAdder dropped = new LongAdder(); // Initialized before the log thread starts
+    private static final RingBuffer BUFFER = Boolean.parseBoolean(System.getProperty("server.logAsync", "true"))
+            ? new RingBuffer(Integer.getInteger("server.logBuffer", 8192)) : null;
+
+    private ServerLog() {
+    }
+
+    static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    static Level level() {
+        return Level.values()[threshold];
+    }
+
+    static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    // Records lost because the ring buffer was full
+    static long droppedRecords() {
+        return dropped.sum();
+    }
+
+    static void trace(String pattern) { log(Level.TRACE, pattern, null, null, null, null); }
+    static void trace(String pattern, Object a) { log(Level.TRACE, pattern, a, null, null, null); }
+    static void trace(String pattern, Object a, Object b) { log(Level.TRACE, pattern, a, b, null, null); }
+    static void trace(String pattern, Object a, Object b, Object c) { log(Level.TRACE, pattern, a, b, c, null); }
+
+    static void debug(String pattern) { log(Level.DEBUG, pattern, null, null, null, null); }
+    static void debug(String pattern, Object a) { log(Level.DEBUG, pattern, a, null, null, null); }
+    static void debug(String pattern, Object a, Object b) { log(Level.DEBUG, pattern, a, b, null, null); }
+    static void debug(String pattern, Object a, Object b, Object c) { log(Level.DEBUG, pattern, a, b, c, null); }
+
+    static void info(String pattern) { log(Level.INFO, pattern, null, null, null, null); }
+    static void info(String pattern, Object a) { log(Level.INFO, pattern, a, null, null, null); }
+    static void info(String pattern, Object a, Object b) { log(Level.INFO, pattern, a, b, null, null); }
+    static void info(String pattern, Object a, Object b, Object c) { log(Level.INFO, pattern, a, b, c, null); }
+
+    static void warn(String pattern) { log(Level.WARN, pattern, null, null, null, null); }
+    static void warn(String pattern, Object a) { log(Level.WARN, pattern, a, null, null, null); }
+    static void warn(String pattern, Object a, Object b) { log(Level.WARN, pattern, a, b, null, null); }
+    static void warn(String pattern, Object a, Object b, Object c) { log(Level.WARN, pattern, a, b, c, null); }
+
+    static void error(String pattern, Throwable error) { log(Level.ERROR, pattern, null, null, null, error); }
+    static void error(String pattern, Object a, Throwable error) { log(Level.ERROR, pattern, a, null, null, error); }
+
+    private static void log(Level level, String pattern, Object a, Object b, Object c, Throwable error) {
+        if (level.ordinal() < threshold) {
+            return;
+        }
+        if (BUFFER == null) {
+            synchronized (OUT) {
+                print(new StringBuilder(), pattern, a, b, c, error);
+            }
+        } else if (!BUFFER.offer(pattern, a, b, c, error)) {
+            dropped.increment();
+        }
+    }
+
+    // Caller holds the OUT lock or is the log thread
+    private static void print(StringBuilder line, String pattern, Object a, Object b, Object c, Throwable error) {
+        line.setLength(0);
+        line.append(PREFIX);
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while ((placeholder = pattern.indexOf("{}", start)) >= 0) {
+            line.append(pattern, start, placeholder);
+            line.append(argument == 0 ? a : argument == 1 ? b : c);
+            argument++;
+            start = placeholder + 2;
+        }
+        line.append(pattern, start, pattern.length());
+        OUT.println(line);
+        if (error != null) {
+            error.printStackTrace(OUT);
+        }
+    }
+
+    static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println(PREFIX + "Unknown log level " + name + ". Using INFO.");
+            return Level.INFO;
+        }
+    }
+
+    // Bounded multi-producer, single-consumer ring buffer of preallocated record slots. A slot's
+    // sequence number says whose turn it is: equal to the claim position when free for a producer,
+    // one more than that once the record is published for the log thread.
+    private static final class RingBuffer {
+        private final int mask;
+        private final AtomicLongArray sequences;
+        private final String[] patterns;
+        private final Object[] first;
+        private final Object[] second;
+        private final Object[] third;
+        private final Throwable[] errors;
+        private final AtomicLong tail = new AtomicLong(); // Next position to claim
+        private long head = 0; // Next position to print, log thread only
+        private long lastReportedDrops = 0;
+
+        RingBuffer(int requestedSize) {
+            int size = Integer.highestOneBit(Math.max(2, requestedSize - 1)) << 1; // Round up to a power of two
+            mask = size - 1;
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            patterns = new String[size];
+            first = new Object[size];
+            second = new Object[size];
+            third = new Object[size];
+            errors = new Throwable[size];
+
+            Thread thread = new Thread(this::drain, "server-log");
+            thread.setDaemon(true);
+            thread.start();
+            // Print what is still buffered when the server exits normally
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "server-log-flush"));
+        }
+
+        boolean offer(String pattern, Object a, Object b, Object c, Throwable error) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    return false; // Full: the log thread has not printed this slot's previous record yet
+                } else {
+                    position = tail.get(); // Another producer claimed it first
+                }
+            }
+            int index = (int) (position & mask);
+            patterns[index] = pattern;
+            first[index] = a;
+            second[index] = b;
+            third[index] = c;
+            errors[index] = error;
+            sequences.set(index, position + 1); // Publishes the fields above to the log thread
+            return true;
+        }
+
+        private void drain() {
+            StringBuilder line = new StringBuilder(256);
+            while (true) {
+                if (!printAvailable(line)) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }
+        }
+
+        private void flush() {
+            printAvailable(new StringBuilder(256));
+        }
+
+        // Prints every published record; returns false if there was none
+        private synchronized boolean printAvailable(StringBuilder line) {
+            boolean printed = false;
+            synchronized (OUT) {
+                while (true) {
+                    int index = (int) (head & mask);
+                    if (sequences.get(index) != head + 1) {
+                        break;
+                    }
+                    print(line, patterns[index], first[index], second[index], third[index], errors[index]);
+                    patterns[index] = null;
+                    first[index] = null;
+                    second[index] = null;
+                    third[index] = null;
+                    errors[index] = null;
+                    sequences.set(index, head + mask + 1); // Free for the producer one lap later
+                    head++;
+                    printed = true;
+                }
+                long droppedNow = dropped.sum();
+                if (printed && droppedNow != lastReportedDrops) {
+                    OUT.println(PREFIX + (droppedNow - lastReportedDrops) + " log records dropped (buffer full).");
+                    lastReportedDrops = droppedNow;
+                }
+                if (printed) {
+                    OUT.flush();
+                }
+            }
+            return printed;
+        }
+    }
+}
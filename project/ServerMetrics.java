@@ -0,0 +1,398 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Server-wide counters. LongAdder keeps recording cheap when many threads update at once.
+// Set -Dserver.metricsInterval=<seconds> to print a summary periodically.
+// The same numbers, plus live gauges, are exported as MBeans under "network.project:type=..."
+// (Players, Commands, Broadcasts, Outbound, Rooms, Server) for jconsole or any JMX client; gauges
+// are only computed when read. -Dserver.jmx=false leaves them unregistered.
+class ServerMetrics {
+    private static final LongAdder messagesEnqueued = new LongAdder();
+    private static final LongAdder enqueueNanos = new LongAdder();
+    private static final LongAccumulator maxEnqueueNanos = new LongAccumulator(Math::max, 0);
+    private static final LongAdder outboundQueueDepth = new LongAdder(); // Sum over all connections
+    private static final LongAdder scoreFlushes = new LongAdder();
+    private static final LongAdder scoreUpdatesFlushed = new LongAdder();
+    private static final LongAccumulator maxUpdatesPerFlush = new LongAccumulator(Math::max, 0);
+    private static final LongAdder lobbyEvents = new LongAdder();
+    private static final LongAccumulator maxLobbyLatencyNanos = new LongAccumulator(Math::max, 0);
+    private static final LongAdder answersValidated = new LongAdder();
+    private static final LongAdder answerBatches = new LongAdder();
+    private static final LongAccumulator maxAnswerBatch = new LongAccumulator(Math::max, 0);
+    // OutboundBudget policy actions
+    private static final LongAdder backpressureDrops = new LongAdder();
+    private static final LongAdder backpressurePauses = new LongAdder();
+    private static final LongAdder backpressureResumes = new LongAdder();
+    private static final LongAdder backpressureEvictions = new LongAdder();
+    // Session resumption
+    private static final LongAdder sessionsResumed = new LongAdder();
+    private static final LongAdder resumeFailures = new LongAdder();
+    private static final LongAdder sessionsExpired = new LongAdder();
+    private static final LongAdder messagesReplayed = new LongAdder();
+    // Heartbeats
+    private static final LongAdder heartbeatPings = new LongAdder();
+    private static final LongAdder heartbeatTimeouts = new LongAdder();
+    // Broadcasts: recipients per message and time to hand it to all of them
+    private static final Histogram broadcastFanOut = new Histogram();
+    private static final Histogram broadcastMicros = new Histogram();
+    // Rooms and matches
+    private static final LongAdder countdownsStarted = new LongAdder();
+    private static final LongAdder countdownsRunning = new LongAdder();
+    private static final Meter matchesStarted = new Meter();
+    private static final Meter matchesEnded = new Meter();
+    private static final Histogram matchWaitMillis = new Histogram(); // Longest wait in each matchmade group
+    private static final LongAdder unknownCommands = new LongAdder();
+
+    private static boolean reporterStarted = false;
+    private static boolean mbeansRegistered = false;
+
+    private ServerMetrics() {
+    }
+
+    // Records one message handed to a connection's outbound queue
+    static void recordEnqueue(long nanos) {
+        messagesEnqueued.increment();
+        enqueueNanos.add(nanos);
+        maxEnqueueNanos.accumulate(nanos);
+    }
+
+    static void queueDepthChanged(int delta) {
+        outboundQueueDepth.add(delta);
+    }
+
+    // Records one score broadcast and how many UPDATE_SCOREs (or leaves) it covered
+    static void recordScoreFlush(int updates) {
+        scoreFlushes.increment();
+        scoreUpdatesFlushed.add(updates);
+        maxUpdatesPerFlush.accumulate(updates);
+    }
+
+    // Records one event applied by the lobby loop and how long it waited after being posted
+    static void recordLobbyEvent(long latencyNanos) {
+        lobbyEvents.increment();
+        maxLobbyLatencyNanos.accumulate(latencyNanos);
+    }
+
+    // Records one batch of answers checked by an AnswerValidator worker
+    static void recordAnswerBatch(int answers) {
+        answersValidated.add(answers);
+        answerBatches.increment();
+        maxAnswerBatch.accumulate(answers);
+    }
+
+    static long answersValidated() {
+        return answersValidated.sum();
+    }
+
+    static long answerBatches() {
+        return answerBatches.sum();
+    }
+
+    // A message held back or dropped because its connection was over its outbound budget
+    static void recordBackpressureDrop() {
+        backpressureDrops.increment();
+    }
+
+    static void recordBackpressurePause() {
+        backpressurePauses.increment();
+    }
+
+    static void recordBackpressureResume() {
+        backpressureResumes.increment();
+    }
+
+    // A connection closed for not reading its messages
+    static void recordBackpressureEviction() {
+        backpressureEvictions.increment();
+    }
+
+    static long backpressureDrops() {
+        return backpressureDrops.sum();
+    }
+
+    static long backpressurePauses() {
+        return backpressurePauses.sum();
+    }
+
+    static long backpressureEvictions() {
+        return backpressureEvictions.sum();
+    }
+
+    // A client took its player back with RESUME, and how many messages it was sent again
+    static void recordSessionResumed(int replayed) {
+        sessionsResumed.increment();
+        messagesReplayed.add(replayed);
+    }
+
+    // RESUME with an unknown or expired token
+    static void recordResumeFailure() {
+        resumeFailures.increment();
+    }
+
+    // A held seat was given up after the grace period
+    static void recordSessionExpired() {
+        sessionsExpired.increment();
+    }
+
+    static void recordHeartbeatPing() {
+        heartbeatPings.increment();
+    }
+
+    // A connection closed for not answering PING
+    static void recordHeartbeatTimeout() {
+        heartbeatTimeouts.increment();
+    }
+
+    // One message handed to a number of recipients, and how long that took
+    static void recordBroadcast(int recipients, long nanos) {
+        broadcastFanOut.record(recipients);
+        broadcastMicros.record(nanos / 1000);
+    }
+
+    static void recordCountdownStarted() {
+        countdownsStarted.increment();
+        countdownsRunning.increment();
+    }
+
+    // A countdown was cancelled or ran out
+    static void recordCountdownStopped() {
+        countdownsRunning.decrement();
+    }
+
+    static void recordMatchStarted() {
+        matchesStarted.mark();
+    }
+
+    static void recordMatchEnded() {
+        matchesEnded.mark();
+    }
+
+    // The matchmaker formed a group whose longest-waiting member waited this long
+    static void recordMatchmaking(long waitNanos) {
+        matchWaitMillis.record(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+
+    // A text line or binary frame that matched no command
+    static void recordUnknownCommand() {
+        unknownCommands.increment();
+    }
+
+    static long heartbeatPings() {
+        return heartbeatPings.sum();
+    }
+
+    static long heartbeatTimeouts() {
+        return heartbeatTimeouts.sum();
+    }
+
+    static long sessionsResumed() {
+        return sessionsResumed.sum();
+    }
+
+    static long messagesReplayed() {
+        return messagesReplayed.sum();
+    }
+
+    static long messagesEnqueued() {
+        return messagesEnqueued.sum();
+    }
+
+    static long outboundQueueDepth() {
+        return outboundQueueDepth.sum();
+    }
+
+    static String summary() {
+        long count = messagesEnqueued.sum();
+        long avgNanos = count == 0 ? 0 : enqueueNanos.sum() / count;
+        long flushes = scoreFlushes.sum();
+        String updatesPerFlush = flushes == 0 ? "0" : String.format("%.2f", scoreUpdatesFlushed.sum() / (double) flushes);
+        return "enqueued=" + count
+                + " avgEnqueueNs=" + avgNanos
+                + " maxEnqueueNs=" + maxEnqueueNanos.get()
+                + " queuedTotal=" + outboundQueueDepth.sum()
+                + " queuedMaxPerConnection=" + NewServer.maxOutboundQueueDepth()
+                + " scoreFlushes=" + flushes
+                + " updatesPerFlush=" + updatesPerFlush
+                + " maxUpdatesPerFlush=" + maxUpdatesPerFlush.get()
+                + " lobbyEvents=" + lobbyEvents.sum()
+                + " maxLobbyLatencyNs=" + maxLobbyLatencyNanos.get()
+                + " answersValidated=" + answersValidated.sum()
+                + " answerBatches=" + answerBatches.sum()
+                + " maxAnswerBatch=" + maxAnswerBatch.get()
+                + " backpressureDrops=" + backpressureDrops.sum()
+                + " backpressurePauses=" + backpressurePauses.sum()
+                + " backpressureResumes=" + backpressureResumes.sum()
+                + " backpressureEvictions=" + backpressureEvictions.sum()
+                + " sessionsResumed=" + sessionsResumed.sum()
+                + " resumeFailures=" + resumeFailures.sum()
+                + " sessionsExpired=" + sessionsExpired.sum()
+                + " messagesReplayed=" + messagesReplayed.sum()
+                + " heartbeatPings=" + heartbeatPings.sum()
+                + " heartbeatTimeouts=" + heartbeatTimeouts.sum()
+                + " broadcasts=" + broadcastFanOut.count()
+                + " p99FanOut=" + broadcastFanOut.percentile(0.99)
+                + " p99BroadcastUs=" + broadcastMicros.percentile(0.99)
+                + " matchesStarted=" + matchesStarted.count()
+                + " matchesEnded=" + matchesEnded.count();
+    }
+
+    // Starts the periodic summary thread if -Dserver.metricsInterval is set
+    static synchronized void startReporter() {
+        long intervalSeconds = Long.getLong("server.metricsInterval", 0);
+        if (intervalSeconds <= 0 || reporterStarted) {
+            return;
+        }
+        reporterStarted = true;
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalSeconds * 1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ServerLog.info("Metrics: {}", summary());
+            }
+        }, "metrics-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    // Registers the MBeans with the platform MBean server and starts ticking the match rates.
+    // Called once at server start; does nothing with -Dserver.jmx=false.
+    static synchronized void registerMBeans() {
+        if (mbeansRegistered || !Boolean.parseBoolean(System.getProperty("server.jmx", "true"))) {
+            return;
+        }
+        mbeansRegistered = true;
+        MetricsMBean players = new MetricsMBean("Connections by player state")
+                .attribute("Connections", "Registered connections, named or not", Integer.class, NewServer::connectionCount)
+                .attribute("Unnamed", "Connected, no name yet", Integer.class, () -> NewServer.players().count(PlayerRegistry.State.CONNECTED))
+                .attribute("Lobby", "Named, not in a room", Integer.class, () -> NewServer.players().count(PlayerRegistry.State.LOBBY))
+                .attribute("Waiting", "In a room's waiting list", Integer.class, () -> NewServer.players().count(PlayerRegistry.State.WAITING))
+                .attribute("InGame", "Playing a game", Integer.class, () -> NewServer.players().count(PlayerRegistry.State.IN_GAME));
+
+        MetricsMBean commands = new MetricsMBean("Commands received, text and binary")
+                .attribute("Unknown", "Lines or frames that matched no command", Long.class, unknownCommands::sum);
+        for (CommandRegistry.Command command : NewServer.ClientHandler.COMMANDS.commands()) {
+            commands.attribute(command.name, command.name + " commands dispatched", Long.class, command::dispatched);
+        }
+
+        MetricsMBean broadcasts = histogram(histogram(new MetricsMBean("Messages sent to many players: roster, room and leave broadcasts"),
+                "FanOut", "recipients per broadcast", broadcastFanOut), "DurationMicros", "microseconds to hand a broadcast to every recipient", broadcastMicros);
+
+        MetricsMBean outbound = new MetricsMBean("Outbound queues and backpressure")
+                .attribute("MessagesEnqueued", "Messages handed to connections", Long.class, messagesEnqueued::sum)
+                .attribute("QueuedTotal", "Messages queued over all connections", Long.class, outboundQueueDepth::sum)
+                .attribute("QueuedMaxPerConnection", "Deepest queue of one connection", Integer.class, NewServer::maxOutboundQueueDepth)
+                .attribute("MaxEnqueueNanos", "Longest enqueue", Long.class, maxEnqueueNanos::get)
+                .attribute("BackpressureDrops", "Messages dropped for connections over budget", Long.class, backpressureDrops::sum)
+                .attribute("BackpressurePauses", "Connections paused for being over budget", Long.class, backpressurePauses::sum)
+                .attribute("BackpressureEvictions", "Connections closed for not reading", Long.class, backpressureEvictions::sum)
+                .operation("deepestQueues", "The 20 connections with the most queued messages", String[].class,
+                        () -> NewServer.deepestOutboundQueues(20));
+
+        MetricsMBean rooms = new MetricsMBean("Matchmaking, countdowns and matches")
+                .attribute("MatchmakingQueue", "Players waiting for the matchmaker to group them", Integer.class, NewServer::matchmakingQueueSize)
+                .attribute("FillingRoom", "Id of the room new READY players join, 0 if none", Integer.class, () -> {
+                    GameRoom room = NewServer.fillingRoom();
+                    return room != null ? room.getId() : 0;
+                })
+                .attribute("CountdownSecondsLeft", "Countdown of the filling room, -1 if not counting down", Integer.class, () -> {
+                    GameRoom room = NewServer.fillingRoom();
+                    return room != null ? room.countdownSecondsLeft() : -1;
+                })
+                .attribute("CountdownsRunning", "Rooms counting down to a start", Long.class, countdownsRunning::sum)
+                .attribute("CountdownsStarted", "Countdowns started", Long.class, countdownsStarted::sum)
+                .attribute("MatchesStarted", "Games started", Long.class, matchesStarted::count)
+                .attribute("MatchesEnded", "Games ended, finished or abandoned", Long.class, matchesEnded::count)
+                .attribute("MatchesInProgress", "Games started and not yet ended", Long.class,
+                        () -> matchesStarted.count() - matchesEnded.count())
+                .attribute("MatchStartsPerMinute", "Starts per minute, one-minute moving average", Double.class, matchesStarted::perMinute)
+                .attribute("MatchEndsPerMinute", "Ends per minute, one-minute moving average", Double.class, matchesEnded::perMinute);
+        histogram(rooms, "MatchWaitMillis", "milliseconds the longest-waiting player of a matched group waited", matchWaitMillis);
+
+        MetricsMBean server = new MetricsMBean("Other server counters")
+                .attribute("ScoreFlushes", "Score broadcasts", Long.class, scoreFlushes::sum)
+                .attribute("LobbyEvents", "Events applied by the lobby loop", Long.class, lobbyEvents::sum)
+                .attribute("MaxLobbyLatencyNanos", "Longest wait of a lobby loop event", Long.class, maxLobbyLatencyNanos::get)
+                .attribute("AnswersValidated", "Answers checked by the validator pool", Long.class, answersValidated::sum)
+                .attribute("SessionsResumed", "Players taken back with RESUME", Long.class, sessionsResumed::sum)
+                .attribute("ResumeFailures", "RESUME with an unknown or expired token", Long.class, resumeFailures::sum)
+                .attribute("SessionsExpired", "Held seats given up after the grace period", Long.class, sessionsExpired::sum)
+                .attribute("MessagesReplayed", "Messages sent again on resume", Long.class, messagesReplayed::sum)
+                .attribute("HeartbeatPings", "PINGs sent", Long.class, heartbeatPings::sum)
+                .attribute("HeartbeatTimeouts", "Connections closed for not answering PING", Long.class, heartbeatTimeouts::sum)
+                .operation("summary", "All counters on one line, as the periodic report prints them", String.class, ServerMetrics::summary);
+
+        MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+        try {
+            platform.registerMBean(players, new ObjectName("network.project:type=Players"));
+            platform.registerMBean(commands, new ObjectName("network.project:type=Commands"));
+            platform.registerMBean(broadcasts, new ObjectName("network.project:type=Broadcasts"));
+            platform.registerMBean(outbound, new ObjectName("network.project:type=Outbound"));
+            platform.registerMBean(rooms, new ObjectName("network.project:type=Rooms"));
+            platform.registerMBean(server, new ObjectName("network.project:type=Server"));
+        } catch (JMException e) {
+            ServerLog.warn("Could not register metrics MBeans: {}", e.toString());
+            return;
+        }
+        TimerService.shared().schedule(ServerMetrics::tickMeters, Meter.TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static MetricsMBean histogram(MetricsMBean mbean, String prefix, String unit, Histogram histogram) {
+        return mbean.attribute(prefix + "Count", "Recorded " + unit, Long.class, histogram::count)
+                .attribute(prefix + "Mean", "Mean " + unit, Double.class, histogram::mean)
+                .attribute(prefix + "P50", "Median " + unit + " (upper bound of its power-of-two bucket)", Long.class, () -> histogram.percentile(0.50))
+                .attribute(prefix + "P99", "99th percentile " + unit + " (upper bound of its power-of-two bucket)", Long.class, () -> histogram.percentile(0.99))
+                .attribute(prefix + "P999", "99.9th percentile " + unit + " (upper bound of its power-of-two bucket)", Long.class, () -> histogram.percentile(0.999))
+                .attribute(prefix + "Max", "Largest " + unit, Long.class, histogram::max);
+    }
+
+    private static void tickMeters() {
+        matchesStarted.tick();
+        matchesEnded.tick();
+        TimerService.shared().schedule(ServerMetrics::tickMeters, Meter.TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Event count plus a one-minute exponentially weighted rate, updated every TICK_SECONDS the way
+    // the Unix load average is. mark() is a LongAdder increment.
+    static final class Meter {
+        static final long TICK_SECONDS = 5;
+        private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sinceTick = new LongAdder();
+        private volatile double perSecond = -1; // -1 until the first tick
+
+        void mark() {
+            count.increment();
+            sinceTick.increment();
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        double perMinute() {
+            return Math.max(0, perSecond) * 60;
+        }
+
+        // Timer thread only
+        void tick() {
+            double instant = sinceTick.sumThenReset() / (double) TICK_SECONDS;
+            double rate = perSecond;
+            perSecond = rate < 0 ? instant : rate + ALPHA * (instant - rate);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// A player's resumable session, opened when the client sends CAPS:RESUME and answered with
+// SESSION:<token>. From then on every message to the player is numbered in the order it is queued
+// (1, 2, ...; PROTOCOL, PING, SESSION and RESUMED do not count, so both ends can number them without a
+// field on the wire) and the latest ones are kept in a bounded replay buffer.
+// When the connection drops, the player keeps their name, room seat and score for a grace period.
+// Messages meanwhile only go into the buffer. A new connection that answers ENTER_NAME with
+// RESUME:<token>,<last number received> takes over the player: the server replies
+// RESUMED:<number> and sends the messages after it from the buffer. If the client is further
+// behind than the buffer reaches, <number> is the latest message instead and the client asks for
+// ROSTER_RESYNC/SCORES_RESYNC itself. Unknown or expired tokens get RESUME_FAILED and a new
+// ENTER_NAME. Once the grace period passes, or after LEAVE, the player is removed as usual.
+// A new connection starts out in text, so RESUMED and the replay are text lines; binary clients
+// send CAPS:BINARY/1 again after the replay.
+//   -Dserver.session.graceSeconds=<n>      seat held after a drop (default 30; 0 disables holding)
+//   -Dserver.session.replayMessages=<n>    messages kept for replay (default 512)
+final class Session {
+    static final long GRACE_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("server.session.graceSeconds", 30));
+    static final int REPLAY_MESSAGES = Math.max(1, Integer.getInteger("server.session.replayMessages", 512));
+
+    private static final ConcurrentHashMap<String, Session> byToken = new ConcurrentHashMap<>();
+    private static final SecureRandom random = new SecureRandom();
+
+    final String token;
+    final NewServer.ClientHandler player;
+
+    // Guarded by this. Changes of transport are also made under the player's send lock, so a send
+    // sees the same transport from its routing decision until the message is queued.
+    private final OutboundMessage[] replay = new OutboundMessage[REPLAY_MESSAGES];
+    private long sent = 0; // Number of the last message recorded
+    private NewServer.ClientHandler transport; // Connection delivering to the client; null while detached
+    private TimerService.Timeout expiry; // Pending end of the grace period
+    private boolean leaving = false; // LEAVE received: end with the connection instead of holding the seat
+    private boolean ended = false;
+
+    private Session(String token, NewServer.ClientHandler player) {
+        this.token = token;
+        this.player = player;
+        this.transport = player;
+    }
+
+    // Opens a session for a player on its first connection
+    static Session open(NewServer.ClientHandler player) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        Session session = new Session(token.toString(), player);
+        byToken.put(session.token, session);
+        return session;
+    }
+
+    // The session a RESUME token belongs to, or null if it is unknown or has ended
+    static Session find(String token) {
+        return byToken.get(token);
+    }
+
+    // Only game messages are numbered; the session's own control messages and the per-connection
+    // PROTOCOL switch and PING are not
+    static boolean isNumbered(OutboundMessage.Type type) {
+        return type != OutboundMessage.Type.PROTOCOL && type != OutboundMessage.Type.PING
+                && type != OutboundMessage.Type.SESSION
+                && type != OutboundMessage.Type.RESUMED && type != OutboundMessage.Type.RESUME_FAILED;
+    }
+
+    synchronized NewServer.ClientHandler transport() {
+        return transport;
+    }
+
+    // Numbers and keeps a message being queued on the given connection (null while detached).
+    // Returns false if that connection no longer carries the session, so the message must not be
+    // written there.
+    synchronized boolean record(NewServer.ClientHandler via, OutboundMessage message) {
+        if (via != transport || ended) {
+            return false;
+        }
+        if (isNumbered(message.type())) {
+            sent++;
+            replay[(int) (sent % replay.length)] = message;
+        }
+        return true;
+    }
+
+    // Moves the session to a new connection. Returns the messages the client has not received
+    // after lastReceived, with that number first, or null if the session ended. If the buffer no
+    // longer reaches back that far, the list starts at the latest number and is otherwise empty.
+    // Caller holds the player's send lock.
+    synchronized Resumed attach(NewServer.ClientHandler connection, long lastReceived) {
+        if (ended) {
+            return null;
+        }
+        if (expiry != null) {
+            expiry.cancel();
+            expiry = null;
+        }
+        NewServer.ClientHandler previous = transport;
+        transport = connection;
+        long oldest = Math.max(1, sent - replay.length + 1);
+        if (lastReceived < 0 || lastReceived > sent || lastReceived + 1 < oldest) {
+            return new Resumed(sent, Collections.emptyList(), previous); // Too far behind, or numbers that were never sent
+        }
+        List<OutboundMessage> missed = new ArrayList<>((int) (sent - lastReceived));
+        for (long number = lastReceived + 1; number <= sent; number++) {
+            missed.add(replay[(int) (number % replay.length)]);
+        }
+        return new Resumed(lastReceived, missed, previous);
+    }
+
+    static final class Resumed {
+        final long from; // Number of the last message the client has, before the replay
+        final List<OutboundMessage> missed;
+        final NewServer.ClientHandler previous; // Connection that carried the session until now, if any
+
+        Resumed(long from, List<OutboundMessage> missed, NewServer.ClientHandler previous) {
+            this.from = from;
+            this.missed = missed;
+            this.previous = previous;
+        }
+    }
+
+    // The player asked to leave; the session ends with its connection
+    synchronized void leave() {
+        leaving = true;
+    }
+
+    // Called when a connection of the session closed. Returns true if the player should be
+    // removed now: the session ended (LEAVE, or no grace period). Returns false if the seat is
+    // held for the grace period, or if the connection had already been replaced by a resumed one.
+    // Caller holds the player's send lock.
+    synchronized boolean transportClosed(NewServer.ClientHandler connection) {
+        if (ended || connection != transport) {
+            return false;
+        }
+        transport = null;
+        if (leaving || GRACE_MILLIS <= 0) {
+            end();
+            return true;
+        }
+        expiry = TimerService.shared().schedule(this::expire, GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        ServerLog.info("Holding the seat of {} for {} ms", player.getPlayerName(), GRACE_MILLIS);
+        return false;
+    }
+
+    // Grace period over without a resume: the player is removed as if they had just disconnected
+    private void expire() {
+        synchronized (this) {
+            if (ended || transport != null) {
+                return; // Resumed in time, or a stale timer
+            }
+            end();
+        }
+        ServerMetrics.recordSessionExpired();
+        ServerLog.info("Session of {} expired", player.getPlayerName());
+        player.removePlayer();
+    }
+
+    // Caller holds this
+    private void end() {
+        ended = true;
+        byToken.remove(token, this);
+        for (int i = 0; i < replay.length; i++) {
+            replay[i] = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Writes the outbound queues of platform-thread connections on a few shared threads, so the
+// server needs no writer thread per client and a sender only ever enqueues: rooms, the roster,
+// timers and the cluster backend may send while holding locks. A connection is queued here
+// whenever it has messages and no writer; a thread takes it, writes a batch, and queues it again
+// behind the others if more arrived. A client with a full TCP window holds one of these threads
+// until it reads or is closed, by its OutboundBudget or its heartbeat; the others keep writing.
+//   -Dserver.writerThreads=<n>   writer threads (default: number of processors, at least 4)
+final class SocketWriters {
+    private static volatile SocketWriters shared;
+
+    private final BlockingQueue<NewServer.ClientHandler> ready = new LinkedBlockingQueue<>();
+
+    SocketWriters(String name, int threadCount) {
+        for (int i = 0; i < Math.max(1, threadCount); i++) {
+            Thread thread = new Thread(this::run, name + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // The server-wide pool, started on first use
+    static SocketWriters shared() {
+        SocketWriters writers = shared;
+        if (writers == null) {
+            synchronized (SocketWriters.class) {
+                writers = shared;
+                if (writers == null) {
+                    int threads = Integer.getInteger("server.writerThreads", Math.max(4, Runtime.getRuntime().availableProcessors()));
+                    writers = new SocketWriters("socket-writer", threads);
+                    shared = writers;
+                }
+            }
+        }
+        return writers;
+    }
+
+    // Queues a connection whose outbound queue needs writing. Safe to call from any thread.
+    void submit(NewServer.ClientHandler connection) {
+        ready.add(connection);
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                ready.take().drainQueue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // Never let one connection take a writer down
+                ServerLog.error("Socket writer failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hashed timing wheel shared by the whole server: countdowns, score ticks, deadlines and idle
+// timeouts all run on one thread, with O(1) schedule and cancel. Timeouts fire with tick
+// granularity (10 ms by default). Tasks run on the wheel thread, so they must be short:
+// take a room lock, update state, enqueue messages.
+final class TimerService {
+    private static final long DEFAULT_TICK_MILLIS = 10;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000; // Keeps one tick bounded under a burst
+
+    private static volatile TimerService shared;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>(); // Scheduled, not yet in a bucket
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>(); // Cancelled, still in a bucket
+    private final AtomicLong activeTimeouts = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick = 0; // Only used by the worker thread
+
+    TimerService(String name, long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1; // Round up to a power of two
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::runWheel, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // The server-wide instance, started on first use
+    static TimerService shared() {
+        TimerService service = shared;
+        if (service == null) {
+            synchronized (TimerService.class) {
+                service = shared;
+                if (service == null) {
+                    service = new TimerService("timer-wheel", DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+                    shared = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    // Runs task once after the delay. Safe to call from any thread.
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(this, task, deadline);
+        activeTimeouts.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    // Number of timeouts scheduled and neither fired nor cancelled
+    long activeTimeouts() {
+        return activeTimeouts.get();
+    }
+
+    // Stops the wheel thread; timeouts that have not fired yet are dropped
+    void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void runWheel() {
+        while (running) {
+            if (waitForNextTick() < 0) {
+                return;
+            }
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    // Sleeps until the end of the current tick and returns the time relative to startNanos
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startNanos;
+            long sleepNanos = deadline - now;
+            if (sleepNanos <= 0) {
+                return now;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    // Moves newly scheduled timeouts into the bucket of the tick they expire on
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = pendingTimeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() == Timeout.CANCELLED) {
+                continue;
+            }
+            long expiryTick = Math.max(timeout.deadline / tickNanos, tick); // Never schedule into the past
+            timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+            wheel[(int) (expiryTick & mask)].add(timeout);
+        }
+    }
+
+    // Handle for one scheduled task
+    static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final TimerService service;
+        private final Runnable task;
+        private final long deadline; // Relative to service.startNanos
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // Bucket bookkeeping, only touched by the wheel thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(TimerService service, Runnable task, long deadline) {
+            this.service = service;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // Prevents the task from running. Returns false if it already ran or was cancelled.
+        boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            service.activeTimeouts.decrementAndGet();
+            service.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            service.activeTimeouts.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                ServerLog.error("Timer task failed", t);
+            }
+        }
+    }
+
+    // Doubly linked list of the timeouts that hash to one wheel slot
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        // Fires every timeout due in this round; the rest wait for the wheel to come around again
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.bucket = null;
+        }
+    }
+}
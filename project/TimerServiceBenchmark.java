@@ -0,0 +1,85 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package network.project;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Schedules many concurrent timeouts on a private TimerService, cancels half of them and checks
+// that exactly the others fire. Reports schedule/cancel cost and how late timeouts fire.
+// Exits with status 1 if a cancelled timeout fired or a live one did not.
+// Usage: TimerServiceBenchmark [timers] [maxDelayMillis]
+class TimerServiceBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int timers = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int maxDelayMillis = args.length > 1 ? Integer.parseInt(args[1]) : 3_000;
+
+        TimerService service = new TimerService("benchmark-wheel", 10, 512);
+        Random random = new Random(42);
+        int expected = timers - timers / 2;
+        CountDownLatch fired = new CountDownLatch(expected);
+        AtomicInteger cancelledFired = new AtomicInteger();
+        long[] lateness = new long[timers];
+        TimerService.Timeout[] handles = new TimerService.Timeout[timers];
+
+        long scheduleStart = System.nanoTime();
+        for (int i = 0; i < timers; i++) {
+            int index = i;
+            // At least one second, so every cancel below happens before its timer is due
+            long delayNanos = TimeUnit.MILLISECONDS.toNanos(1_000 + random.nextInt(maxDelayMillis));
+            long due = System.nanoTime() + delayNanos;
+            handles[i] = service.schedule(() -> {
+                if (index % 2 == 1) {
+                    cancelledFired.incrementAndGet();
+                    return;
+                }
+                lateness[index] = System.nanoTime() - due;
+                fired.countDown();
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+        long scheduleNanos = System.nanoTime() - scheduleStart;
+
+        long cancelStart = System.nanoTime();
+        int cancelled = 0;
+        for (int i = 1; i < timers; i += 2) {
+            if (handles[i].cancel()) {
+                cancelled++;
+            }
+        }
+        long cancelNanos = System.nanoTime() - cancelStart;
+
+        boolean completed = fired.await(maxDelayMillis + 6_000, TimeUnit.MILLISECONDS);
+        Thread.sleep(100); // Give any wrongly surviving cancelled timeout a chance to show up
+        service.stop();
+
+        long[] late = new long[expected];
+        for (int i = 0, j = 0; i < timers; i += 2) {
+            late[j++] = lateness[i];
+        }
+        Arrays.sort(late);
+
+        System.out.println("Timers scheduled:     " + timers + " (" + scheduleNanos / timers + " ns/op)");
+        System.out.println("Timers cancelled:     " + cancelled + " (" + cancelNanos / Math.max(1, cancelled) + " ns/op)");
+        System.out.println("Fired (expected):     " + (expected - fired.getCount()) + " (" + expected + ")");
+        System.out.println("Cancelled but fired:  " + cancelledFired.get());
+        System.out.println("Still active:         " + service.activeTimeouts());
+        System.out.println("Lateness ms p50/p99/max: " + millis(late[late.length / 2]) + " / "
+                + millis(late[(int) (late.length * 0.99)]) + " / " + millis(late[late.length - 1]));
+
+        if (!completed || cancelledFired.get() != 0 || cancelled != timers / 2) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1_000_000.0);
+    }
+}